@@ -28,6 +28,26 @@ android {
         sourceCompatibility(JavaVersion.VERSION_11)
         targetCompatibility(JavaVersion.VERSION_11)
     }
+    testOptions {
+        unitTests {
+            // Robolectric needs the resources, e.g. for the strings read by the database helper
+            isIncludeAndroidResources = true
+
+            // Benchmarks only run with -Pbenchmark and compare their results with the baseline,
+            // -PupdateBaseline replaces the baseline with the results, see ProviderBenchmark
+            all {
+                if (project.hasProperty("benchmark")) {
+                    it.filter.includeTestsMatching("*Benchmark")
+                    it.systemProperty("benchmark.baseline", file("benchmark/baseline.json").absolutePath)
+                    it.systemProperty("benchmark.results", file("build/benchmark/results.json").absolutePath)
+                    it.systemProperty("benchmark.updateBaseline", project.hasProperty("updateBaseline"))
+                    it.outputs.upToDateWhen { false }
+                } else {
+                    it.exclude("**/*Benchmark.class")
+                }
+            }
+        }
+    }
     packagingOptions {
         jniLibs {
             excludes += "/META-INF/*"
@@ -53,4 +73,9 @@ dependencies {
 // Other
     implementation("com.google.code.gson:gson:2.9.0")
     implementation("com.nambimobile.widgets:expandable-fab:1.2.1")
+
+// Tests
+    testImplementation("junit:junit:4.13.2")
+    testImplementation("androidx.test:core:1.4.0")
+    testImplementation("org.robolectric:robolectric:4.8.1")
 }
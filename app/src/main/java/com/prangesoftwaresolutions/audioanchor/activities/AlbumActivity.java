@@ -5,7 +5,6 @@ import android.app.LoaderManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.Loader;
@@ -42,8 +41,10 @@ import com.prangesoftwaresolutions.audioanchor.listeners.SynchronizationStateLis
 import com.prangesoftwaresolutions.audioanchor.models.Album;
 import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
 import com.prangesoftwaresolutions.audioanchor.receivers.PlayStatusReceiver;
+import com.prangesoftwaresolutions.audioanchor.services.LibraryWatcherService;
 import com.prangesoftwaresolutions.audioanchor.services.MediaPlayerService;
 import com.prangesoftwaresolutions.audioanchor.R;
+import com.prangesoftwaresolutions.audioanchor.helpers.PagedCursorLoader;
 import com.prangesoftwaresolutions.audioanchor.helpers.Synchronizer;
 import com.prangesoftwaresolutions.audioanchor.adapters.AudioFileCursorAdapter;
 import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
@@ -52,7 +53,6 @@ import com.prangesoftwaresolutions.audioanchor.utils.DBAccessUtils;
 import com.prangesoftwaresolutions.audioanchor.utils.StorageUtil;
 import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
-import java.io.File;
 import java.util.ArrayList;
 
 public class AlbumActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>, PlayStatusChangeListener, SynchronizationStateListener {
@@ -62,6 +62,7 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
 
     // Database variables
     private static final int ALBUM_LOADER = 0;
+    private static final int PAGE_SIZE = 50;
     private AudioFileCursorAdapter mCursorAdapter;
 
     // Layout variables
@@ -99,6 +100,7 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
 
     // Synchronizer
     private Synchronizer mSynchronizer;
+    private ServiceConnection mWatcherConnection;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -138,12 +140,29 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
         mEmptyTV = findViewById(R.id.emptyList_album);
         mListView.setEmptyView(mEmptyTV);
 
+        // Load the next page of tracks when the list is scrolled close to the loaded end
+        mListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView absListView, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView absListView, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(ALBUM_LOADER);
+                    if (loader instanceof PagedCursorLoader) {
+                        ((PagedCursorLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+
         // Implement onItemClickListener for the list view
         mListView.setOnItemClickListener((adapterView, view, i, rowId) -> {
             // Check if the audio file exists
             AudioFile audio = AudioFile.getAudioFileById(AlbumActivity.this, rowId);
 
-            if (audio == null || !(new File(audio.getPath())).exists()) {
+            if (audio == null || !Utils.audioFileExists(AlbumActivity.this, audio)) {
                 Toast.makeText(getApplicationContext(), R.string.play_error, Toast.LENGTH_LONG).show();
                 return;
             }
@@ -285,6 +304,19 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
         registerReceiver(mRemoveNotificationReceiver, new IntentFilter(MediaPlayerService.BROADCAST_REMOVE_NOTIFICATION));
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Synchronize changes of the album directory while it is shown
+        mWatcherConnection = LibraryWatcherService.bind(this);
+    }
+
+    @Override
+    protected void onStop() {
+        unbindService(mWatcherConnection);
+        super.onStop();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -300,7 +332,8 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
         currentShowHiddenFiles = mPrefs.getBoolean(getString(R.string.settings_show_hidden_key), Boolean.getBoolean(getString(R.string.settings_show_hidden_default)));
         if (mShowHiddenFiles != currentShowHiddenFiles) {
             mSwipeRefreshLayout.setRefreshing(true);
-            mSynchronizer.updateDBTables();
+            // The album directories did not change, but the files that are listed did
+            mSynchronizer.updateDBTables(true);
             mShowHiddenFiles = currentShowHiddenFiles;
         }
         super.onRestart();
@@ -319,6 +352,9 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
             mHandler.removeCallbacks(mRunnable);
         }
 
+        // Stop the synchronization, it is started again by the next refresh
+        mSynchronizer.cancel();
+
         super.onDestroy();
     }
 
@@ -331,13 +367,19 @@ public class AlbumActivity extends AppCompatActivity implements LoaderManager.Lo
 
         String sel = AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
         String[] selArgs = {Long.toString(mAlbum.getID())};
-        String sortOrder = "CAST(" + AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_TITLE + " as SIGNED) ASC, LOWER(" + AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_TITLE + ") ASC";
 
-        return new CursorLoader(this, AnchorContract.AudioEntry.CONTENT_URI, projection, sel, selArgs, sortOrder);
+        // The tracks are loaded page by page in the order of their titles
+        return new PagedCursorLoader(this, AnchorContract.AudioEntry.CONTENT_URI, projection, sel, selArgs, PAGE_SIZE);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // Only show the additional tracks if a page was appended while scrolling
+        if (loader instanceof PagedCursorLoader && ((PagedCursorLoader) loader).isPageAppended()) {
+            mCursorAdapter.swapCursor(cursor);
+            return;
+        }
+
         // Hide the progress bar when the loading is finished.
         ProgressBar progressBar = findViewById(R.id.progressBar_album);
         progressBar.setVisibility(View.GONE);
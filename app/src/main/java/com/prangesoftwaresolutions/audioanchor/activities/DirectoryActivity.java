@@ -2,6 +2,7 @@ package com.prangesoftwaresolutions.audioanchor.activities;
 
 import android.app.LoaderManager;
 import android.content.ContentUris;
+import android.content.ServiceConnection;
 import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
@@ -28,6 +29,7 @@ import com.prangesoftwaresolutions.audioanchor.dialogs.FileDialog;
 import com.prangesoftwaresolutions.audioanchor.helpers.Synchronizer;
 import com.prangesoftwaresolutions.audioanchor.listeners.SynchronizationStateListener;
 import com.prangesoftwaresolutions.audioanchor.models.Directory;
+import com.prangesoftwaresolutions.audioanchor.services.LibraryWatcherService;
 import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
 import java.io.File;
@@ -48,6 +50,7 @@ public class DirectoryActivity extends AppCompatActivity  implements LoaderManag
 
     // Synchronizer
     private Synchronizer mSynchronizer;
+    private ServiceConnection mWatcherConnection;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -171,6 +174,26 @@ public class DirectoryActivity extends AppCompatActivity  implements LoaderManag
         mCursorAdapter.swapCursor(null);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Synchronize changes of the directories while they are shown
+        mWatcherConnection = LibraryWatcherService.bind(this);
+    }
+
+    @Override
+    protected void onStop() {
+        unbindService(mWatcherConnection);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Let a new directory be added completely, but do not report back to this activity
+        mSynchronizer.setListener(null);
+        super.onDestroy();
+    }
+
     @Override
     public void onSynchronizationFinished() {
         getLoaderManager().restartLoader(0, null, DirectoryActivity.this);
@@ -20,30 +20,27 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.os.IBinder;
 import android.provider.DocumentsContract;
-import androidx.documentfile.provider.DocumentFile;
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
-import androidx.recyclerview.widget.LinearLayoutManager;
-import androidx.recyclerview.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.prangesoftwaresolutions.audioanchor.R;
-import com.prangesoftwaresolutions.audioanchor.adapters.AlbumAdapter;
+import com.prangesoftwaresolutions.audioanchor.adapters.AlbumCursorAdapter;
 import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
-import com.prangesoftwaresolutions.audioanchor.models.Album;
+import com.prangesoftwaresolutions.audioanchor.helpers.Synchronizer;
+import com.prangesoftwaresolutions.audioanchor.models.Directory;
 import com.prangesoftwaresolutions.audioanchor.services.AudioService;
+import com.prangesoftwaresolutions.audioanchor.services.LibraryWatcherService;
 import com.prangesoftwaresolutions.audioanchor.utils.StoragePermissionHelper;
-import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
@@ -58,13 +55,14 @@ public class MainActivity extends AppCompatActivity implements
     private Uri mSDRootUri;
 
     // Variables existentes
-    private AlbumAdapter mAlbumAdapter;
-    private RecyclerView mAlbumRecyclerView;
+    private AlbumCursorAdapter mAlbumAdapter;
+    private ListView mListView;
     private ProgressBar mProgressBar;
     private TextView mEmptyView;
 
     private AudioService mAudioService;
     private boolean mServiceBound = false;
+    private ServiceConnection mWatcherConnection;
 
     private ServiceConnection mServiceConnection = new ServiceConnection() {
         @Override
@@ -90,28 +88,6 @@ public class MainActivity extends AppCompatActivity implements
         }
     };
 
-    // Clase simple solo para el escaneo de SD
-    public static class SDAudioFile {
-        private String mName;
-        private String mUri;
-        private long mSize;
-        
-        public SDAudioFile(String name, String uri, long size) {
-            mName = name;
-            mUri = uri;
-            mSize = size;
-        }
-        
-        public String getName() { return mName; }
-        public String getUri() { return mUri; }
-        public long getSize() { return mSize; }
-        
-        @Override
-        public String toString() {
-            return mName;
-        }
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -121,12 +97,18 @@ public class MainActivity extends AppCompatActivity implements
         setSupportActionBar(toolbar);
 
         mProgressBar = findViewById(R.id.progressBar);
-        mEmptyView = findViewById(R.id.empty_view);
-
-        mAlbumRecyclerView = findViewById(R.id.album_recycler_view);
-        mAlbumRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        mAlbumAdapter = new AlbumAdapter(this, new ArrayList<Album>());
-        mAlbumRecyclerView.setAdapter(mAlbumAdapter);
+        mEmptyView = findViewById(R.id.emptyList);
+
+        // Use a ListView and CursorAdapter to recycle space
+        mAlbumAdapter = new AlbumCursorAdapter(this, null);
+        mListView = findViewById(R.id.list);
+        mListView.setAdapter(mAlbumAdapter);
+        mListView.setOnItemClickListener((adapterView, view, i, rowId) -> {
+            // Open the AlbumActivity for the clicked album
+            Intent intent = new Intent(MainActivity.this, AlbumActivity.class);
+            intent.putExtra(getString(R.string.album_id), rowId);
+            startActivity(intent);
+        });
 
         // Verificar permisos de almacenamiento
         checkStoragePermissions();
@@ -180,82 +162,19 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
+    /*
+     * Add the document tree to the directories and synchronize its albums. A tree that has been
+     * added before is synchronized again.
+     */
     private void scanAudioFilesFromTreeUri(Uri treeUri) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    List<SDAudioFile> audioFiles = new ArrayList<>();
-                    DocumentFile rootDir = DocumentFile.fromTreeUri(MainActivity.this, treeUri);
-                    
-                    if (rootDir != null && rootDir.exists()) {
-                        scanDirectoryRecursively(rootDir, audioFiles);
-                    }
-                    
-                    // Procesar en el hilo principal
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            processAudioFiles(audioFiles);
-                        }
-                    });
-                    
-                } catch (Exception e) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Utils.showToast(MainActivity.this, "Error scanning SD card: " + e.getMessage());
-                        }
-                    });
-                }
-            }
-        }).start();
-    }
-
-    private void scanDirectoryRecursively(DocumentFile directory, List<SDAudioFile> audioFiles) {
-        if (directory == null || !directory.exists()) return;
-        
-        DocumentFile[] files = directory.listFiles();
-        if (files == null) return;
-        
-        for (DocumentFile file : files) {
-            if (file.isDirectory()) {
-                // Escanear subdirectorios recursivamente
-                scanDirectoryRecursively(file, audioFiles);
-            } else if (isAudioFile(file)) {
-                // Añadir archivo de audio a la lista
-                audioFiles.add(new SDAudioFile(
-                    file.getName(),
-                    file.getUri().toString(),
-                    file.length()
-                ));
+        Synchronizer synchronizer = new Synchronizer(this);
+        for (Directory directory : Directory.getDirectories(this)) {
+            if (directory.getType() == Directory.Type.DOCUMENT_TREE && directory.getPath().equals(treeUri.toString())) {
+                synchronizer.updateDBTables();
+                return;
             }
         }
-    }
-
-    private boolean isAudioFile(DocumentFile file) {
-        if (file == null) return false;
-        
-        String name = file.getName();
-        String mimeType = file.getType();
-        
-        return (mimeType != null && mimeType.startsWith("audio/")) ||
-               (name != null && (
-                   name.endsWith(".mp3") || name.endsWith(".m4a") ||
-                   name.endsWith(".ogg") || name.endsWith(".wav") ||
-                   name.endsWith(".flac") || name.endsWith(".aac")
-               ));
-    }
-
-    private void processAudioFiles(List<SDAudioFile> audioFiles) {
-        if (audioFiles.isEmpty()) {
-            Utils.showToast(this, "No audio files found on SD card");
-            return;
-        }
-        
-        Utils.showToast(this, "Found " + audioFiles.size() + " audio files on SD card");
-        
-        // TODO: Integrar con la base de datos existente
+        synchronizer.addDirectory(new Directory(treeUri.toString(), Directory.Type.DOCUMENT_TREE));
     }
 
     @Override
@@ -263,7 +182,11 @@ public class MainActivity extends AppCompatActivity implements
         String[] projection = {
                 AnchorContract.AlbumEntry._ID,
                 AnchorContract.AlbumEntry.COLUMN_TITLE,
-                AnchorContract.AlbumEntry.COLUMN_COVER_PATH
+                AnchorContract.AlbumEntry.COLUMN_COVER_PATH,
+                AnchorContract.AlbumEntry.COLUMN_DIRECTORY_PATH,
+                AnchorContract.AlbumEntry.COLUMN_DIRECTORY_TYPE,
+                AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME,
+                AnchorContract.AlbumProgressEntry.COLUMN_DURATION
         };
 
         return new CursorLoader(this,
@@ -277,8 +200,8 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         mProgressBar.setVisibility(View.GONE);
-        // Cambiar swapCursor por el método adecuado de tu adapter
-        mAlbumAdapter.changeCursor(data); // o mAlbumAdapter.setData(data) dependiendo de tu implementación
+        // The loader closes the previous cursor
+        mAlbumAdapter.swapCursor(data);
         
         if (data.getCount() == 0) {
             mEmptyView.setVisibility(View.VISIBLE);
@@ -289,8 +212,7 @@ public class MainActivity extends AppCompatActivity implements
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        // Cambiar swapCursor por el método adecuado de tu adapter
-        mAlbumAdapter.changeCursor(null); // o mAlbumAdapter.setData(null)
+        mAlbumAdapter.swapCursor(null);
     }
 
     @Override
@@ -314,6 +236,10 @@ public class MainActivity extends AppCompatActivity implements
         } else if (id == R.id.action_scan) {
             browseForAudioFiles();
             return true;
+        } else if (id == R.id.menu_search) {
+            Intent intent = new Intent(this, SearchActivity.class);
+            startActivity(intent);
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
@@ -324,11 +250,14 @@ public class MainActivity extends AppCompatActivity implements
         super.onStart();
         Intent intent = new Intent(this, AudioService.class);
         bindService(intent, mServiceConnection, Context.BIND_AUTO_CREATE);
+        // Synchronize new and removed albums while the album list is shown
+        mWatcherConnection = LibraryWatcherService.bind(this);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
+        unbindService(mWatcherConnection);
         if (mServiceBound) {
             unbindService(mServiceConnection);
             mServiceBound = false;
@@ -4,7 +4,6 @@ import android.app.Dialog;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -12,7 +11,6 @@ import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.hardware.SensorManager;
 import android.media.MediaMetadataRetriever;
@@ -42,6 +40,7 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.prangesoftwaresolutions.audioanchor.helpers.CoverCache;
 import com.prangesoftwaresolutions.audioanchor.helpers.SleepTimer;
 import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
 import com.prangesoftwaresolutions.audioanchor.models.Bookmark;
@@ -49,6 +48,7 @@ import com.prangesoftwaresolutions.audioanchor.services.MediaPlayerService;
 import com.prangesoftwaresolutions.audioanchor.R;
 import com.prangesoftwaresolutions.audioanchor.adapters.BookmarkCursorAdapter;
 import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+import com.prangesoftwaresolutions.audioanchor.data.AnchorWriter;
 import com.prangesoftwaresolutions.audioanchor.utils.BitmapUtils;
 import com.prangesoftwaresolutions.audioanchor.utils.SkipIntervalUtils;
 import com.prangesoftwaresolutions.audioanchor.utils.StorageUtil;
@@ -62,6 +62,9 @@ public class PlayActivity extends AppCompatActivity {
     public static final String BROADCAST_PLAY_AUDIO = "com.prangesoftwaresolutions.audioanchor.PlayAudio";
     public static final String BROADCAST_PAUSE_AUDIO = "com.prangesoftwaresolutions.audioanchor.PauseAudio";
 
+    // Largest side of the cover bitmap in pixels
+    private static final int MAX_COVER_SIZE = 1024;
+
     private MediaPlayerService mPlayer;
     boolean serviceBound = false;
     boolean mStopServiceOnDestroy = false;
@@ -529,7 +532,7 @@ public class PlayActivity extends AppCompatActivity {
         // Set TextViews
         String title = "";
         if (mTitleFromMetadata) {
-            mMetadataRetriever.setDataSource(mAudioFile.getPath());
+            Utils.setDataSource(this, mMetadataRetriever, mAudioFile);
             title = mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
         }
         if (title == null || title.isEmpty()) {
@@ -552,25 +555,25 @@ public class PlayActivity extends AppCompatActivity {
         if (wm != null) {
             display = wm.getDefaultDisplay();
             display.getSize(size);
-            reqSize = java.lang.Math.max(size.x, size.y);
+            reqSize = Math.min(size.x, size.y);
         }
 
-        if (mCoverFromMetadata) {
-            MediaMetadataRetriever mmr = new MediaMetadataRetriever();
-            mmr.setDataSource(mAudioFile.getPath());
-
-            byte[] coverData = mmr.getEmbeddedPicture();
+        // The cover is shown at most as large as the shorter side of the screen. Covers above the
+        // cap would not fit into the memory tier of the cover cache and be read from disk each time.
+        reqSize = Math.min(reqSize, MAX_COVER_SIZE);
 
-            // Convert the byte array to a bitmap
-            if (coverData != null) {
-                Bitmap bitmap = BitmapFactory.decodeByteArray(coverData, 0, coverData.length);
-                mCoverIV.setImageBitmap(bitmap);
-            } else if (mAudioFile.getCoverPath() != null) {
-                BitmapUtils.setImage(mCoverIV, mAudioFile.getCoverPath(), reqSize);
-            } else {
-                // No cover image exists for this track. Set default cover image.
-                mCoverIV.setImageResource(R.drawable.empty_cover_grey_blue);
-            }
+        if (mCoverFromMetadata) {
+            final CoverCache coverCache = CoverCache.getInstance(this);
+            final AudioFile audioFile = mAudioFile;
+            final int coverSize = reqSize;
+            // No cover image exists for this track if neither the file nor the album has one
+            BitmapUtils.loadImage(mCoverIV, () -> {
+                Bitmap cover = coverCache.getEmbeddedCover(audioFile, coverSize);
+                if (cover == null) {
+                    cover = coverCache.getCover(audioFile.getCoverPath(), coverSize);
+                }
+                return cover;
+            }, R.drawable.empty_cover_grey_blue);
         } else {
             BitmapUtils.setImage(mCoverIV, mAudioFile.getCoverPath(), reqSize);
         }
@@ -1058,10 +1061,7 @@ public class PlayActivity extends AppCompatActivity {
             mAudioFile.setCompletedTime(newTime);
 
             // Update the completedTime column of the audiofiles table
-            Uri uri = ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, mAudioFile.getID());
-            ContentValues values = new ContentValues();
-            values.put(AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME, newTime);
-            getContentResolver().update(uri, values, null, null);
+            AnchorWriter.setCompletedTime(this, mAudioFile.getID(), newTime);
         }
     }
 
@@ -0,0 +1,126 @@
+package com.prangesoftwaresolutions.audioanchor.activities;
+
+import android.app.LoaderManager;
+import android.content.CursorLoader;
+import android.content.Intent;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
+
+import com.prangesoftwaresolutions.audioanchor.R;
+import com.prangesoftwaresolutions.audioanchor.adapters.SearchCursorAdapter;
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+import com.prangesoftwaresolutions.audioanchor.utils.Utils;
+
+public class SearchActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    // CursorLoader variables
+    private static final int SEARCH_LOADER = 0;
+    private static final String KEY_FILTER = "filter";
+    private SearchCursorAdapter mCursorAdapter;
+
+    // Views
+    ListView mListView;
+    TextView mEmptyTV;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        Utils.setActivityTheme(this);
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+
+        // Initialize the cursor adapter
+        mCursorAdapter = new SearchCursorAdapter(this, null);
+
+        // Use a ListView and CursorAdapter to recycle space
+        mListView = findViewById(R.id.list);
+        mListView.setAdapter(mCursorAdapter);
+
+        // Set the EmptyView for the ListView
+        mEmptyTV = findViewById(R.id.emptyList);
+        mListView.setEmptyView(mEmptyTV);
+
+        // Open the album or the audio file of the clicked search result
+        mListView.setOnItemClickListener((adapterView, view, i, l) -> {
+            Cursor c = (Cursor) mCursorAdapter.getItem(i);
+            int type = c.getInt(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_TYPE));
+            Intent intent;
+            if (type == AnchorContract.SearchEntry.TYPE_ALBUM) {
+                long albumId = c.getLong(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_ALBUM));
+                intent = new Intent(SearchActivity.this, AlbumActivity.class);
+                intent.putExtra(getString(R.string.album_id), albumId);
+            } else {
+                long audioId = c.getLong(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_AUDIO_FILE));
+                intent = new Intent(SearchActivity.this, PlayActivity.class);
+                intent.putExtra(getString(R.string.curr_audio_id), audioId);
+            }
+            startActivity(intent);
+        });
+
+        // Prepare the CursorLoader. Either re-connect with an existing one or start a new one.
+        getLoaderManager().initLoader(SEARCH_LOADER, null, this);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_search, menu);
+
+        // Search as you type
+        MenuItem searchItem = menu.findItem(R.id.menu_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setIconified(false);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                Bundle args = new Bundle();
+                args.putString(KEY_FILTER, newText);
+                getLoaderManager().restartLoader(SEARCH_LOADER, args, SearchActivity.this);
+                return true;
+            }
+        });
+        searchView.setOnCloseListener(() -> {
+            finish();
+            return true;
+        });
+        return true;
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        String filter = args != null ? args.getString(KEY_FILTER, "") : "";
+        Uri uri = AnchorContract.SearchEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(AnchorContract.SearchEntry.QUERY_PARAMETER_FILTER, filter)
+                .build();
+        return new CursorLoader(this, uri, null, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // Set the text of the empty view
+        mEmptyTV.setText(R.string.no_search_results);
+
+        // Swap the new cursor in. The framework will take care of closing the old cursor
+        mCursorAdapter.swapCursor(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // This is called when the last Cursor provided to onLoadFinished() is about to be closed.
+        mCursorAdapter.swapCursor(null);
+    }
+}
@@ -1,12 +1,18 @@
 package com.prangesoftwaresolutions.audioanchor.adapters;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.preference.PreferenceManager;
-import android.util.LruCache;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,26 +20,52 @@ import android.widget.CursorAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.prangesoftwaresolutions.audioanchor.helpers.CoverCache;
 import com.prangesoftwaresolutions.audioanchor.models.Album;
 import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
+import com.prangesoftwaresolutions.audioanchor.models.Directory;
 import com.prangesoftwaresolutions.audioanchor.R;
 import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
-import com.prangesoftwaresolutions.audioanchor.utils.BitmapUtils;
 import com.prangesoftwaresolutions.audioanchor.utils.DBAccessUtils;
 import com.prangesoftwaresolutions.audioanchor.utils.StorageUtil;
 import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * CursorAdapter for the ListView in the Main Activity
  */
 
 public class AlbumCursorAdapter extends CursorAdapter {
+    // Loads the covers that are not in memory. Shared by all album lists, since only one is
+    // visible at a time.
+    private static final ExecutorService sCoverExecutor = Executors.newFixedThreadPool(2);
+    // Reloads the progress of changed albums and looks up the playing album. A single thread
+    // applies the updates of an album in the order of the change notifications.
+    private static final ExecutorService sProgressExecutor = Executors.newSingleThreadExecutor();
+
     private final Context mContext;
     private final SharedPreferences mPrefs;
-    private final LruCache<String, Bitmap> mImageCache;
+    private final CoverCache mCoverCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Album progress observer which updates single album items without requerying the album list
+    private final ContentObserver mProgressObserver;
+    private boolean mProgressObserverRegistered = false;
+    // Progress of albums that changed after the current cursor was loaded
+    private final LongSparseArray<int[]> mUpdatedAlbumTimes = new LongSparseArray<>();
+    // Progress views of the bound album items. Items are removed once the views are gone.
+    private final Set<TextView> mProgressViews = Collections.newSetFromMap(new WeakHashMap<TextView, Boolean>());
+    // Album of the audio file that is currently played, looked up in the background whenever the
+    // list changes. Only accessed on the main thread.
+    private long mActiveAlbumId = -1;
 
     public AlbumCursorAdapter(Context context, Cursor c) {
         super(context, c, 0);
@@ -41,21 +73,89 @@ public class AlbumCursorAdapter extends CursorAdapter {
         // Get the base directory from the shared preferences.
         mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
 
-        // Set up the image cache
-        // See https://developer.android.com/topic/performance/graphics/cache-bitmap
-        // Get max available Java VM memory. Stored in kilobytes as LruCache takes an int in its constructor.
-        final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        mCoverCache = CoverCache.getInstance(mContext);
 
-        // Use fraction of the available memory for this memory cache.
-        final int cacheSize = maxMemory / 12;
+        mProgressObserver = new ContentObserver(mMainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
 
-        mImageCache = new LruCache<String, Bitmap>(cacheSize) {
             @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                // The cache size is measured in kilobytes rather than number of items.
-                return bitmap.getByteCount() / 1024;
+            public void onChange(boolean selfChange, Uri uri) {
+                // Only changes of single albums are handled here. Changes of the whole table are
+                // followed by a requery of the album list.
+                if (uri == null || uri.getLastPathSegment() == null || !TextUtils.isDigitsOnly(uri.getLastPathSegment())) {
+                    return;
+                }
+                updateAlbumProgress(ContentUris.parseId(uri));
             }
         };
+        registerProgressObserver(c);
+        updateActiveAlbumId();
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        super.notifyDataSetChanged();
+        // The playing album may have changed along with the list
+        updateActiveAlbumId();
+    }
+
+    /*
+     * Look up the playing album in the background, since it needs a query, and rebind the items
+     * if it changed
+     */
+    private void updateActiveAlbumId() {
+        sProgressExecutor.execute(() -> {
+            final long activeAlbumId = getActiveAlbumId();
+            mMainHandler.post(() -> {
+                if (activeAlbumId != mActiveAlbumId) {
+                    mActiveAlbumId = activeAlbumId;
+                    super.notifyDataSetChanged();
+                }
+            });
+        });
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        // The new cursor contains the current progress of all albums
+        mUpdatedAlbumTimes.clear();
+        registerProgressObserver(newCursor);
+        return super.swapCursor(newCursor);
+    }
+
+    /*
+     * Observe the album progress as long as the adapter holds a cursor
+     */
+    private void registerProgressObserver(Cursor c) {
+        if (c != null && !mProgressObserverRegistered) {
+            mContext.getContentResolver().registerContentObserver(AnchorContract.AlbumProgressEntry.CONTENT_URI, true, mProgressObserver);
+            mProgressObserverRegistered = true;
+        } else if (c == null && mProgressObserverRegistered) {
+            mContext.getContentResolver().unregisterContentObserver(mProgressObserver);
+            mProgressObserverRegistered = false;
+        }
+    }
+
+    /*
+     * Reload the progress of the given album in the background and update its item if it is
+     * currently shown
+     */
+    private void updateAlbumProgress(final long albumId) {
+        sProgressExecutor.execute(() -> {
+            final int[] times = DBAccessUtils.getAlbumTimes(mContext, albumId);
+            mMainHandler.post(() -> {
+                mUpdatedAlbumTimes.put(albumId, times);
+                for (TextView progressTV : mProgressViews) {
+                    Object tag = progressTV.getTag();
+                    if (tag instanceof Long && (Long) tag == albumId) {
+                        progressTV.setText(Utils.getTimeString(mContext, times[0], times[1]));
+                    }
+                }
+            });
+        });
     }
 
     @Override
@@ -73,78 +173,134 @@ public class AlbumCursorAdapter extends CursorAdapter {
 
         // Get the progress of this album and update the view
         TextView progressTV = view.findViewById(R.id.album_info_time_album);
-        int id = cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.AlbumEntry._ID));
-        int[] times = DBAccessUtils.getAlbumTimes(context, id);
-        String timeStr = Utils.getTimeString(context, times[0], times[1]);
+        long albumId = cursor.getLong(cursor.getColumnIndexOrThrow(AnchorContract.AlbumEntry._ID));
+        int completedTime;
+        int duration;
+        int[] updatedTimes = mUpdatedAlbumTimes.get(albumId);
+        if (updatedTimes != null) {
+            completedTime = updatedTimes[0];
+            duration = updatedTimes[1];
+        } else {
+            completedTime = cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME));
+            duration = cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_DURATION));
+        }
+        String timeStr = Utils.getTimeString(context, completedTime, duration);
         progressTV.setText(timeStr);
+        progressTV.setTag(albumId);
+        mProgressViews.add(progressTV);
 
         // Get the path of the thumbnail of the current album and set the src of the image view
         ImageView thumbnailIV = view.findViewById(R.id.audio_storage_item_thumbnail);
 
-        int albumId = cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.AlbumEntry._ID));
-        Album album = Album.getAlbumByID(mContext, albumId);
-        if (isCurrentItemActive(albumId)) {
+        // The album directory is joined into the album query, so no query is needed per item
+        Album album = null;
+        String directoryPath = cursor.getString(cursor.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_DIRECTORY_PATH));
+        if (directoryPath != null) {
+            Directory.Type directoryType = Directory.Type.valueOf(cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_DIRECTORY_TYPE)));
+            String coverPath = cursor.getString(cursor.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_COVER_PATH));
+            album = new Album(title, new Directory(directoryPath, directoryType), coverPath);
+        }
+
+        if (albumId == mActiveAlbumId) {
+            cancelCoverRequest(thumbnailIV);
             thumbnailIV.setBackgroundResource(R.drawable.ic_unchecked);
             thumbnailIV.setImageResource(R.drawable.ic_playing);
         } else {
             thumbnailIV.setBackground(null);
-            assert album != null;
-            String path = album.getCoverPath();
-            int reqSize = mContext.getResources().getDimensionPixelSize(R.dimen.album_item_height);
-            if (path != null) {
-                if (new File(path).exists()) {
-                    Bitmap storedImage = getBitmapFromMemCache(path);
-                    if (storedImage != null) {
-                        thumbnailIV.setImageBitmap(storedImage);
-                    } else {
-                        Bitmap image = BitmapUtils.decodeSampledBitmap(path, reqSize, reqSize);
-                        thumbnailIV.setImageBitmap(image);
-                        addBitmapToMemoryCache(path, image);
-                    }
-                } else {
-                    setEmptyCoverImage(thumbnailIV, reqSize);
-                }
-            } else {
-                setEmptyCoverImage(thumbnailIV, reqSize);
-            }
+            setCoverImage(thumbnailIV, album != null ? album.getCoverPath() : null);
         }
 
         // Show the deletable image if the file does not exist anymore
         ImageView deletableIV = view.findViewById(R.id.album_item_deletable_img);
-        assert album != null;
-        if (!(new File(album.getPath())).exists()) {
+        if (album != null && album.getPath() != null && !(new File(album.getPath())).exists()) {
             deletableIV.setVisibility(View.VISIBLE);
         } else {
             deletableIV.setVisibility(View.GONE);
         }
     }
 
-    private void setEmptyCoverImage(ImageView iv, int reqSize) {
-        String imageKey = String.valueOf(R.drawable.empty_cover_grey_blue);
-        Bitmap storedImage = getBitmapFromMemCache(imageKey);
-        if (storedImage != null) {
-            iv.setImageBitmap(storedImage);
-        } else {
-            Bitmap image = BitmapUtils.decodeSampledBitmap(mContext.getResources(), R.drawable.empty_cover_grey_blue, reqSize, reqSize);
+    /*
+     * Show the cover at the given path in the image view. Covers that are not in memory are
+     * loaded in the background while the empty cover is shown.
+     */
+    private void setCoverImage(ImageView iv, String path) {
+        CoverRequest pendingRequest = (CoverRequest) iv.getTag();
+        if (pendingRequest != null && pendingRequest.mPath.equals(path)) {
+            // The view is bound to the same cover again, e.g. after a progress update
+            return;
+        }
+        cancelCoverRequest(iv);
+
+        int reqSize = mContext.getResources().getDimensionPixelSize(R.dimen.album_item_height);
+        Bitmap image = mCoverCache.peekCover(path, reqSize);
+        if (image != null) {
             iv.setImageBitmap(image);
-            addBitmapToMemoryCache(imageKey, image);
+            return;
+        }
+
+        iv.setImageBitmap(mCoverCache.getDefaultCover(reqSize));
+        if (path != null) {
+            CoverRequest request = new CoverRequest(iv, path, reqSize);
+            iv.setTag(request);
+            request.mFuture = sCoverExecutor.submit(request);
         }
     }
 
-    private void addBitmapToMemoryCache(String key, Bitmap bitmap) {
-        if (getBitmapFromMemCache(key) == null) {
-            mImageCache.put(key, bitmap);
+    /*
+     * Cancel the cover request of the image view if it has one, e.g. because the view has been
+     * recycled for another album. A request that is already running is left to finish, but its
+     * cover is not set.
+     */
+    private void cancelCoverRequest(ImageView iv) {
+        CoverRequest pendingRequest = (CoverRequest) iv.getTag();
+        if (pendingRequest != null) {
+            pendingRequest.mCancelled = true;
+            pendingRequest.mFuture.cancel(false);
+            iv.setTag(null);
         }
     }
 
-    private Bitmap getBitmapFromMemCache(String key) {
-        return mImageCache.get(key);
+    /*
+     * Loads a cover in the background and sets it to the image view it was requested for, unless
+     * the request has been cancelled in the meantime
+     */
+    private class CoverRequest implements Runnable {
+        final ImageView mImageView;
+        final String mPath;
+        final int mReqSize;
+        Future<?> mFuture;
+        volatile boolean mCancelled = false;
+
+        CoverRequest(ImageView imageView, String path, int reqSize) {
+            mImageView = imageView;
+            mPath = path;
+            mReqSize = reqSize;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap image = mCoverCache.getCover(mPath, mReqSize);
+            mMainHandler.post(() -> {
+                if (mCancelled || mImageView.getTag() != this) {
+                    return;
+                }
+                // The empty cover stays if the cover could not be loaded
+                mImageView.setTag(null);
+                if (image != null) {
+                    mImageView.setImageBitmap(image);
+                }
+            });
+        }
     }
 
     /*
-     * Check if the service is running for an audio file from the current album
+     * Get the id of the album the service is playing or -1 if the service is not running. Runs a
+     * query, so it must not be called on the main thread.
      */
-    private boolean isCurrentItemActive(int albumId) {
+    private long getActiveAlbumId() {
         boolean serviceStarted = Utils.isMediaPlayerServiceRunning(mContext);
         if (serviceStarted) {
             StorageUtil storage = new StorageUtil(mContext.getApplicationContext());
@@ -157,15 +313,13 @@ public class AlbumCursorAdapter extends CursorAdapter {
                 try {
                     activeAudio = AudioFile.getAudioFileById(mContext, activeAudioId);
                 } catch (SQLException e) {
-                    return false;
+                    return -1;
                 }
-                long playingAlbumId = 0;
                 if (activeAudio != null) {
-                    playingAlbumId = activeAudio.getAlbumId();
+                    return activeAudio.getAlbumId();
                 }
-                return playingAlbumId == albumId;
             }
         }
-        return false;
+        return -1;
     }
 }
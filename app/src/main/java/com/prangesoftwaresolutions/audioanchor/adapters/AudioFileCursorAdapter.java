@@ -5,7 +5,10 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.preference.PreferenceManager;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -19,18 +22,53 @@ import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
 import com.prangesoftwaresolutions.audioanchor.utils.StorageUtil;
 import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * CursorAdapter for the ListView in the Album Activity
  */
 
 public class AudioFileCursorAdapter extends CursorAdapter {
+    // Checks the files of the tracks and reads their metadata titles. A single thread, so the
+    // metadata retriever of an adapter is never used concurrently.
+    private static final ExecutorService sTrackInfoExecutor = Executors.newSingleThreadExecutor();
 
     private final Context mContext;
+    // Only used on the track info thread
     private final MediaMetadataRetriever mMetadataRetriever;
     private final SharedPreferences mPrefs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // File state of the tracks. Checking a document needs a query and reading the title opens the
+    // file, so both are done in the background once per cursor load. Only accessed on the main
+    // thread.
+    private final LongSparseArray<TrackInfo> mTrackInfos = new LongSparseArray<>();
+    private final Set<Long> mPendingIds = new HashSet<>();
+    private int mCursorGeneration = 0;
+    // Bound item views, tagged with the id of their audio file. Items are removed once the views
+    // are gone.
+    private final Set<View> mItemViews = Collections.newSetFromMap(new WeakHashMap<View, Boolean>());
+
+    /*
+     * State of the file of a track as of the cursor load it was checked for
+     */
+    private static class TrackInfo {
+        final int mGeneration;
+        final boolean mExists;
+        final String mMetadataTitle;
+
+        TrackInfo(int generation, boolean exists, String metadataTitle) {
+            mGeneration = generation;
+            mExists = exists;
+            mMetadataTitle = metadataTitle;
+        }
+    }
 
     public AudioFileCursorAdapter(Context context, Cursor c) {
         super(context, c, 0);
@@ -39,6 +77,14 @@ public class AudioFileCursorAdapter extends CursorAdapter {
         mMetadataRetriever = new MediaMetadataRetriever();
     }
 
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        // Files may have been added or removed since the last load. The known state is shown
+        // until it has been checked again.
+        mCursorGeneration++;
+        return super.swapCursor(newCursor);
+    }
+
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup viewGroup) {
         return LayoutInflater.from(context).inflate(R.layout.audio_file_item, viewGroup, false);
@@ -50,20 +96,18 @@ public class AudioFileCursorAdapter extends CursorAdapter {
         long audioID = cursor.getLong(cursor.getColumnIndexOrThrow(AnchorContract.AudioEntry._ID));
         AudioFile audioFile = AudioFile.getAudioFileById(mContext, audioID);
 
-        // Get the title of the current audio file and set this text to the titleTV
-        TextView titleTV = view.findViewById(R.id.audio_file_item_title);
-        String title = "";
-        boolean titleFromMetadata = mPrefs.getBoolean(mContext.getString(R.string.settings_title_from_metadata_key), Boolean.getBoolean(mContext.getString(R.string.settings_title_from_metadata_default)));
-        if (titleFromMetadata && audioFile != null && new File(audioFile.getPath()).exists()) {
-            mMetadataRetriever.setDataSource(audioFile.getPath());
-            title = mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
-        }
-        if (title == null || title.isEmpty()) {
-            // Also use the file name if the audio file has no metadata title
-            assert audioFile != null;
-            title = audioFile.getTitle();
+        assert audioFile != null;
+        view.setTag(audioID);
+        mItemViews.add(view);
+
+        // Set the title and the deletable image from the known file state and check the file in
+        // the background if it has not been checked for the current cursor
+        TrackInfo info = mTrackInfos.get(audioID);
+        if (info == null || info.mGeneration != mCursorGeneration) {
+            boolean titleFromMetadata = mPrefs.getBoolean(mContext.getString(R.string.settings_title_from_metadata_key), Boolean.getBoolean(mContext.getString(R.string.settings_title_from_metadata_default)));
+            loadTrackInfo(audioFile, titleFromMetadata);
         }
-        titleTV.setText(title);
+        showTrackInfo(view, audioFile, info);
 
         // Get the completed time and full time of the current audio file and set this text to the durationTV
         TextView durationTV = view.findViewById(R.id.audio_file_item_duration);
@@ -95,16 +139,65 @@ public class AudioFileCursorAdapter extends CursorAdapter {
         } else {
             thumbnailIV.setImageDrawable(null);
         }
+    }
+
+    /*
+     * Show the title of the audio file and the deletable image if the file does not exist anymore.
+     * As long as the file has not been checked, the file name is shown and the file is assumed to
+     * exist.
+     */
+    private void showTrackInfo(View view, AudioFile audioFile, TrackInfo info) {
+        TextView titleTV = view.findViewById(R.id.audio_file_item_title);
+        String title = info != null ? info.mMetadataTitle : null;
+        if (title == null || title.isEmpty()) {
+            // Also use the file name if the audio file has no metadata title
+            title = audioFile.getTitle();
+        }
+        titleTV.setText(title);
 
-        // Show the deletable image if the file does not exist anymore
         ImageView deletableIV = view.findViewById(R.id.audio_file_item_deletable_img);
-        if (!(new File(audioFile.getPath())).exists()) {
+        if (info != null && !info.mExists) {
             deletableIV.setVisibility(View.VISIBLE);
         } else {
             deletableIV.setVisibility(View.GONE);
         }
     }
 
+    /*
+     * Check the file of the audio file and read its metadata title in the background, then update
+     * its item if it is currently shown
+     */
+    private void loadTrackInfo(final AudioFile audioFile, final boolean titleFromMetadata) {
+        final long audioId = audioFile.getID();
+        if (!mPendingIds.add(audioId)) {
+            return;
+        }
+        final int generation = mCursorGeneration;
+        sTrackInfoExecutor.execute(() -> {
+            boolean exists = Utils.audioFileExists(mContext, audioFile);
+            String metadataTitle = null;
+            if (exists && titleFromMetadata) {
+                try {
+                    Utils.setDataSource(mContext, mMetadataRetriever, audioFile);
+                    metadataTitle = mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
+                } catch (RuntimeException e) {
+                    // The file name is shown if the file cannot be read
+                }
+            }
+            final TrackInfo info = new TrackInfo(generation, exists, metadataTitle);
+            mMainHandler.post(() -> {
+                mPendingIds.remove(audioId);
+                mTrackInfos.put(audioId, info);
+                for (View view : mItemViews) {
+                    Object tag = view.getTag();
+                    if (tag instanceof Long && (Long) tag == audioId) {
+                        showTrackInfo(view, audioFile, info);
+                    }
+                }
+            });
+        });
+    }
+
     /*
      * Check if the service is running for the current audio file
      */
@@ -2,6 +2,7 @@ package com.prangesoftwaresolutions.audioanchor.adapters;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -32,14 +33,25 @@ public class DirectoryCursorAdapter extends CursorAdapter {
         TextView titleTV = view.findViewById(R.id.directory_title_tv);
         // titleTV.setSelected(true);
         String path = cursor.getString(cursor.getColumnIndexOrThrow(AnchorContract.DirectoryEntry.COLUMN_PATH));
+        Directory.Type type = Directory.Type.valueOf(cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.DirectoryEntry.COLUMN_TYPE)));
+        TextView subtitleTV = view.findViewById(R.id.directory_subtitle_tv);
+        ImageView deletableIV = view.findViewById(R.id.directory_item_deletable_img);
+        ImageView icon = view.findViewById(R.id.directory_icon);
+
+        // The path of a document tree is its URI, show the document id of the tree instead
+        if (type == Directory.Type.DOCUMENT_TREE) {
+            Uri treeUri = Uri.parse(path);
+            titleTV.setText(treeUri.getLastPathSegment());
+            subtitleTV.setText(treeUri.getAuthority());
+            icon.setImageResource(R.drawable.ic_parent_directory_grey);
+            deletableIV.setVisibility(View.GONE);
+            return;
+        }
+
         File dir = new File(path);
         titleTV.setText(dir.getName());
-
-        TextView subtitleTV = view.findViewById(R.id.directory_subtitle_tv);
         subtitleTV.setText(dir.getAbsolutePath());
 
-        Directory.Type type = Directory.Type.valueOf(cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.DirectoryEntry.COLUMN_TYPE)));
-        ImageView icon = view.findViewById(R.id.directory_icon);
         if (type == Directory.Type.SUB_DIR) {
             icon.setImageResource(R.drawable.ic_directory_grey);
         } else {
@@ -47,7 +59,6 @@ public class DirectoryCursorAdapter extends CursorAdapter {
         }
 
         // Show the deletable image if the file does not exist anymore
-        ImageView deletableIV = view.findViewById(R.id.directory_item_deletable_img);
         if (!dir.exists()) {
             deletableIV.setVisibility(View.VISIBLE);
         } else {
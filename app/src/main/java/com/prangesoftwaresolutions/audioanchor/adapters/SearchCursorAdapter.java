@@ -0,0 +1,52 @@
+package com.prangesoftwaresolutions.audioanchor.adapters;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.TextView;
+
+import com.prangesoftwaresolutions.audioanchor.R;
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+
+/**
+ * CursorAdapter for the ListView in the Search Activity
+ */
+
+public class SearchCursorAdapter extends CursorAdapter {
+
+    public SearchCursorAdapter(Context context, Cursor c) {
+        super(context, c, 0);
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        return LayoutInflater.from(context).inflate(R.layout.search_item, parent, false);
+    }
+
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        // Set the title of the audio file, album or bookmark
+        TextView titleTV = view.findViewById(R.id.search_title_tv);
+        String title = cursor.getString(cursor.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_TITLE));
+        titleTV.setText(title);
+
+        // Set the subtitle depending on the type of the search result
+        TextView subtitleTV = view.findViewById(R.id.search_subtitle_tv);
+        String subtitle = cursor.getString(cursor.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_SUBTITLE));
+        int type = cursor.getInt(cursor.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_TYPE));
+        switch (type) {
+            case AnchorContract.SearchEntry.TYPE_ALBUM:
+                subtitleTV.setText(R.string.album);
+                break;
+            case AnchorContract.SearchEntry.TYPE_BOOKMARK:
+                subtitleTV.setText(context.getString(R.string.search_result_bookmark, subtitle));
+                break;
+            default:
+                subtitleTV.setText(context.getString(R.string.search_result_audio_file, subtitle));
+                break;
+        }
+    }
+}
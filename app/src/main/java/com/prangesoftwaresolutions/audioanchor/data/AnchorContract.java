@@ -12,13 +12,15 @@ import com.prangesoftwaresolutions.audioanchor.BuildConfig;
 
 public class AnchorContract {
     // Content constants
-    static final String CONTENT_AUTHORITY = BuildConfig.APPLICATION_ID;
-    private static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
+    public static final String CONTENT_AUTHORITY = BuildConfig.APPLICATION_ID;
+    public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     static final String PATH_AUDIO_FILES = "audio";
     static final String PATH_AUDIO_FILES_DISTINCT = "audio_distinct";
+    static final String PATH_AUDIO_FILES_FULL = "audio_full";
 
     static final String PATH_ALBUM = "album";
     static final String PATH_ALBUM_DISTINCT = "album_distinct";
+    static final String PATH_ALBUM_PROGRESS = "album_progress";
 
     static final String PATH_BOOKMARK = "bookmark";
     static final String PATH_BOOKMARK_DISTINCT = "bookmark_distinct";
@@ -26,6 +28,37 @@ public class AnchorContract {
     static final String PATH_DIRECTORY = "directory";
     static final String PATH_DIRECTORY_DISTINCT = "directory_distinct";
 
+    static final String PATH_SEARCH = "search";
+
+    // Query parameters for keyset paging of the audio file and album lists. A paged query returns
+    // at most QUERY_PARAMETER_PAGE_SIZE rows that follow the row whose id and title are given by
+    // QUERY_PARAMETER_PAGE_AFTER and QUERY_PARAMETER_PAGE_AFTER_TITLE. Paged queries ignore the
+    // sort order and are always sorted by title, audio files in the same order as in the album view.
+    public static final String QUERY_PARAMETER_PAGE_SIZE = "page_size";
+    public static final String QUERY_PARAMETER_PAGE_AFTER = "page_after";
+    public static final String QUERY_PARAMETER_PAGE_AFTER_TITLE = "page_after_title";
+
+    // Provider methods for ContentResolver.call(). Change notifications of the calling thread are
+    // collected between METHOD_BEGIN_BATCH and METHOD_END_BATCH and sent once per URI when the
+    // batch ends. Both have to be called on the thread that runs the operations of the batch.
+    public static final String METHOD_BEGIN_BATCH = "begin_batch";
+    public static final String METHOD_END_BATCH = "end_batch";
+    public static final String METHOD_GET_NOTIFICATION_STATS = "get_notification_stats";
+    // Closes the database, e.g. before its file is replaced by an import. It is opened again on
+    // the next access.
+    public static final String METHOD_CLOSE_DATABASE = "close_database";
+
+    // Provider methods for single column writes used by AnchorWriter. The row id is passed as
+    // the argument of the call and the new value in the extras.
+    static final String METHOD_SET_COMPLETED_TIME = "set_completed_time";
+    static final String METHOD_SET_LAST_PLAYED = "set_last_played";
+    static final String METHOD_SET_BOOKMARK_POSITION = "set_bookmark_position";
+    static final String KEY_VALUE = "value";
+
+    // Keys of the Bundle returned by METHOD_GET_NOTIFICATION_STATS
+    public static final String KEY_SENT_NOTIFICATIONS = "sent_notifications";
+    public static final String KEY_SUPPRESSED_NOTIFICATIONS = "suppressed_notifications";
+
     // Class for the Audio File Table
     public static abstract class AudioEntry implements BaseColumns {
         // Content URI for the audio table
@@ -45,11 +78,41 @@ public class AnchorContract {
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_TITLE = "title";
         public static final String COLUMN_ALBUM = "album";
-        static final String COLUMN_PATH = "path";
+        // Content URI of the document for audio files in a document tree, empty otherwise
+        public static final String COLUMN_PATH = "path";
         public static final String COLUMN_TIME = "time";
         public static final String COLUMN_COMPLETED_TIME = "completed_time";
     }
 
+    // Class for the audio files joined with their album and directory. The album and directory
+    // columns are available under the aliases below.
+    public static abstract class AudioFullEntry implements BaseColumns {
+        // Content URI for the joined audio, album and directory tables
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_AUDIO_FILES_FULL);
+
+        // The MIME type of the CONTENT_URI for a list of audios.
+        static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AUDIO_FILES_FULL;
+
+        // The MIME type of the CONTENT_URI for a single audio.
+        static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AUDIO_FILES_FULL;
+
+        // The Columns
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_TITLE = AudioEntry.COLUMN_TITLE;
+        public static final String COLUMN_ALBUM = AudioEntry.COLUMN_ALBUM;
+        public static final String COLUMN_TIME = AudioEntry.COLUMN_TIME;
+        public static final String COLUMN_COMPLETED_TIME = AudioEntry.COLUMN_COMPLETED_TIME;
+        public static final String COLUMN_PATH = AudioEntry.COLUMN_PATH;
+        public static final String COLUMN_ALBUM_TITLE = "album_title";
+        public static final String COLUMN_ALBUM_COVER_PATH = "album_cover_path";
+        public static final String COLUMN_ALBUM_LAST_PLAYED = "album_last_played";
+        public static final String COLUMN_DIRECTORY = "directory_id";
+        public static final String COLUMN_DIRECTORY_PATH = "directory_path";
+        public static final String COLUMN_DIRECTORY_TYPE = "directory_type";
+    }
+
     // Class for the Album Table
     public static abstract class AlbumEntry implements BaseColumns {
         // Content URI for the album table
@@ -71,6 +134,39 @@ public class AnchorContract {
         public static final String COLUMN_COVER_PATH = "cover_path";
         public static final String COLUMN_DIRECTORY = "directory";
         public static final String COLUMN_LAST_PLAYED = "last_played";
+        // Last modified time and number of entries of the album directory when it was last
+        // synchronized. Albums whose directory has not changed since are not listed again.
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+        public static final String COLUMN_ENTRY_COUNT = "entry_count";
+        // Path and type of the album directory, joined into the album queries. Both are null
+        // for albums without directory.
+        public static final String COLUMN_DIRECTORY_PATH = "directory_path";
+        public static final String COLUMN_DIRECTORY_TYPE = "directory_type";
+    }
+
+    // Class for the Album Progress Table. The table is maintained by database triggers on the
+    // audio file table and its columns are joined into the album queries. Changes of the progress
+    // of a single album are notified on the album id appended to the CONTENT_URI.
+    public static abstract class AlbumProgressEntry {
+        // Content URI for the album progress table
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ALBUM_PROGRESS);
+
+        // The MIME type of the CONTENT_URI for a list of album progresses.
+        static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALBUM_PROGRESS;
+
+        // The MIME type of the CONTENT_URI for the progress of a single album.
+        static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALBUM_PROGRESS;
+
+        static final String TABLE_NAME = "album_progress";
+
+        // The Columns
+        public static final String COLUMN_ALBUM = "album_id";
+        public static final String COLUMN_DURATION = "album_duration";
+        public static final String COLUMN_COMPLETED_TIME = "album_completed_time";
+        public static final String COLUMN_TRACK_COUNT = "track_count";
+        public static final String COLUMN_COMPLETED_TRACK_COUNT = "completed_track_count";
     }
 
     // Class for the Bookmark Table
@@ -115,4 +211,34 @@ public class AnchorContract {
         public static final String COLUMN_PATH = "path";
         public static final String COLUMN_TYPE = "type";
     }
+
+    // Class for the full text search over the titles of audio files, albums and bookmarks. The
+    // titles are indexed in one FTS table per content table which is kept up to date by triggers.
+    public static abstract class SearchEntry implements BaseColumns {
+        // Content URI for the search. The search text is given by the QUERY_PARAMETER_FILTER.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SEARCH);
+        public static final String QUERY_PARAMETER_FILTER = "filter";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        // The MIME type of the CONTENT_URI for a list of search results.
+        static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SEARCH;
+
+        static final String AUDIO_FILE_TABLE_NAME = "audio_files_fts";
+        static final String ALBUM_TABLE_NAME = "albums_fts";
+        static final String BOOKMARK_TABLE_NAME = "bookmarks_fts";
+
+        // The Columns of the search results. Results are ordered by relevance.
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_TITLE = "title";
+        public static final String COLUMN_SUBTITLE = "subtitle";
+        public static final String COLUMN_TYPE = "type";
+        public static final String COLUMN_ALBUM = "album";
+        public static final String COLUMN_AUDIO_FILE = "audio_file";
+
+        // Values of the type column
+        public static final int TYPE_AUDIO_FILE = 0;
+        public static final int TYPE_ALBUM = 1;
+        public static final int TYPE_BOOKMARK = 2;
+    }
 }
@@ -6,6 +6,8 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import androidx.annotation.VisibleForTesting;
 import androidx.preference.PreferenceManager;
 
 import com.prangesoftwaresolutions.audioanchor.R;
@@ -22,52 +24,78 @@ public class AnchorDbHelper extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "audio_anchor.db";
 
     // Database version. Must be incremented when the database schema is changed.
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 8;
 
-    private static AnchorDbHelper mInstance = null;
+    // Statement cache size of each connection and the time after which idle connections are closed
+    private static final int SQL_CACHE_SIZE = 50;
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30000;
+
+    private static volatile AnchorDbHelper mInstance = null;
     private final Context mContext;
 
     public AnchorDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
         mContext = context;
+
+        // Use write-ahead logging such that readers (e.g. the CursorLoaders) do not block while
+        // the Synchronizer is writing and always see the last committed state. With WAL enabled,
+        // the framework keeps a pool of read-only connections next to the single writer connection.
+        setWriteAheadLoggingEnabled(true);
+
+        // The size of the connection pool is a system setting without public API. Idle read-only
+        // connections are closed after a while instead, so the pool only holds memory while the
+        // lists are being loaded.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            setIdleConnectionTimeout(IDLE_CONNECTION_TIMEOUT_MS);
+        }
     }
 
     @Override
-    public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the audio file table
-        String SQL_CREATE_AUDIO_FILE_TABLE = "CREATE TABLE " + AnchorContract.AudioEntry.TABLE_NAME + " ("
-                + AnchorContract.AudioEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + AnchorContract.AudioEntry.COLUMN_TITLE + " TEXT NOT NULL, "
-                + AnchorContract.AudioEntry.COLUMN_ALBUM + " TEXT NOT NULL, "
-                + AnchorContract.AudioEntry.COLUMN_PATH + " TEXT, "
-                + AnchorContract.AudioEntry.COLUMN_TIME + " INTEGER DEFAULT 0, "
-                + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + " INTEGER DEFAULT 0);";
-
-        // Create a String that contains the SQL statement to create the album table
-        String SQL_CREATE_ALBUM_TABLE = "CREATE TABLE " + AnchorContract.AlbumEntry.TABLE_NAME + " ("
-                + AnchorContract.AlbumEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + AnchorContract.AlbumEntry.COLUMN_TITLE + " TEXT NOT NULL, "
-                + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + " INTEGER, "
-                + AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED + " INTEGER, "
-                + AnchorContract.AlbumEntry.COLUMN_COVER_PATH + " TEXT);";
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // In WAL mode, NORMAL is still safe against corruption and avoids an fsync per commit.
+        // The pragma only applies to the primary connection, which is the one that executes all
+        // writes, so it covers every commit. Setting it for the whole pool requires
+        // OpenParams.Builder.setSynchronousMode(), which is not available before API 33.
+        db.execSQL("PRAGMA synchronous = NORMAL;");
 
-        // Create a String that contains the SQL statement to create the bookmark table
-        String SQL_CREATE_BOOKMARK_TABLE = "CREATE TABLE " + AnchorContract.BookmarkEntry.TABLE_NAME + " ("
-                + AnchorContract.BookmarkEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + AnchorContract.BookmarkEntry.COLUMN_TITLE + " TEXT NOT NULL, "
-                + AnchorContract.BookmarkEntry.COLUMN_POSITION + " INTEGER, "
-                + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + " INTEGER);";
+        // The provider and the Synchronizer use more distinct statements than fit into the default
+        // statement cache of 25 per connection, which would compile them again on every sync
+        db.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+    }
 
+    @Override
+    public void onCreate(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the directory table
         String SQL_CREATE_DIRECTORY_TABLE = "CREATE TABLE IF NOT EXISTS " + AnchorContract.DirectoryEntry.TABLE_NAME + " ("
                 + AnchorContract.DirectoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + AnchorContract.DirectoryEntry.COLUMN_PATH + " TEXT NOT NULL, "
                 + AnchorContract.DirectoryEntry.COLUMN_TYPE + " INTEGER);";
 
-        db.execSQL(SQL_CREATE_AUDIO_FILE_TABLE);
-        db.execSQL(SQL_CREATE_ALBUM_TABLE);
-        db.execSQL(SQL_CREATE_BOOKMARK_TABLE);
         db.execSQL(SQL_CREATE_DIRECTORY_TABLE);
+        db.execSQL(getCreateAlbumTableSQL(AnchorContract.AlbumEntry.TABLE_NAME));
+        db.execSQL(getCreateAudioFileTableSQL(AnchorContract.AudioEntry.TABLE_NAME));
+        db.execSQL(getCreateBookmarkTableSQL(AnchorContract.BookmarkEntry.TABLE_NAME));
+
+        createIndices(db);
+        createAlbumProgressTable(db);
+        createSearchTables(db);
+        addAlbumDirectoryStateColumns(db);
+    }
+
+    /*
+     * Enable foreign key constraints such that deleting a directory, album or audio file also
+     * deletes all albums, audio files and bookmarks that belong to it.
+     * This is done in onOpen() instead of onConfigure() on purpose: onUpgrade() must run without
+     * foreign key constraints, otherwise dropping the old tables while rebuilding them would
+     * cascade into the new tables.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            db.setForeignKeyConstraintsEnabled(true);
+        }
     }
 
     @Override
@@ -116,21 +144,323 @@ public class AnchorDbHelper extends SQLiteOpenHelper {
                 db.update(AnchorContract.AlbumEntry.TABLE_NAME, albumValues, selection, selectionArgs);
             }
         }
+        if (i < 4) {
+            // Add indices on the foreign key columns
+            createIndices(db);
+        }
+        if (i < 5) {
+            // Rebuild the tables with foreign key constraints. SQLite cannot add constraints to
+            // existing tables. Rows that refer to non-existing parents are dropped on the way.
+            String albumColumns = AnchorContract.AlbumEntry._ID + ", "
+                    + AnchorContract.AlbumEntry.COLUMN_TITLE + ", "
+                    + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + ", "
+                    + AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED + ", "
+                    + AnchorContract.AlbumEntry.COLUMN_COVER_PATH;
+            String albumCondition = AnchorContract.AlbumEntry.COLUMN_DIRECTORY + " IS NULL OR "
+                    + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + " IN (SELECT " + AnchorContract.DirectoryEntry._ID
+                    + " FROM " + AnchorContract.DirectoryEntry.TABLE_NAME + ")";
+            rebuildTable(db, AnchorContract.AlbumEntry.TABLE_NAME, getCreateAlbumTableSQL(AnchorContract.AlbumEntry.TABLE_NAME + "_new"), albumColumns, albumCondition);
+
+            String audioFileColumns = AnchorContract.AudioEntry._ID + ", "
+                    + AnchorContract.AudioEntry.COLUMN_TITLE + ", "
+                    + AnchorContract.AudioEntry.COLUMN_ALBUM + ", "
+                    + AnchorContract.AudioEntry.COLUMN_PATH + ", "
+                    + AnchorContract.AudioEntry.COLUMN_TIME + ", "
+                    + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME;
+            String audioFileCondition = AnchorContract.AudioEntry.COLUMN_ALBUM + " IN (SELECT " + AnchorContract.AlbumEntry._ID
+                    + " FROM " + AnchorContract.AlbumEntry.TABLE_NAME + ")";
+            rebuildTable(db, AnchorContract.AudioEntry.TABLE_NAME, getCreateAudioFileTableSQL(AnchorContract.AudioEntry.TABLE_NAME + "_new"), audioFileColumns, audioFileCondition);
+
+            String bookmarkColumns = AnchorContract.BookmarkEntry._ID + ", "
+                    + AnchorContract.BookmarkEntry.COLUMN_TITLE + ", "
+                    + AnchorContract.BookmarkEntry.COLUMN_POSITION + ", "
+                    + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE;
+            String bookmarkCondition = AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + " IN (SELECT " + AnchorContract.AudioEntry._ID
+                    + " FROM " + AnchorContract.AudioEntry.TABLE_NAME + ")";
+            rebuildTable(db, AnchorContract.BookmarkEntry.TABLE_NAME, getCreateBookmarkTableSQL(AnchorContract.BookmarkEntry.TABLE_NAME + "_new"), bookmarkColumns, bookmarkCondition);
+
+            // Dropping the old tables also dropped their indices
+            createIndices(db);
+        }
+        if (i < 6) {
+            // Add the album progress table and fill it with the current progress of all albums
+            createAlbumProgressTable(db);
+            String SQL_POPULATE_ALBUM_PROGRESS = "INSERT INTO " + AnchorContract.AlbumProgressEntry.TABLE_NAME + " ("
+                    + AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + ", "
+                    + AnchorContract.AlbumProgressEntry.COLUMN_DURATION + ", "
+                    + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME + ", "
+                    + AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT + ", "
+                    + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TRACK_COUNT + ") SELECT "
+                    + AnchorContract.AudioEntry.COLUMN_ALBUM + ", "
+                    + "SUM(IFNULL(" + AnchorContract.AudioEntry.COLUMN_TIME + ", 0)), "
+                    + "SUM(IFNULL(" + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + ", 0)), "
+                    + "COUNT(*), "
+                    + "SUM(" + getCompletedExpression("") + ") FROM "
+                    + AnchorContract.AudioEntry.TABLE_NAME + " WHERE " + AnchorContract.AudioEntry.COLUMN_ALBUM
+                    + " IN (SELECT " + AnchorContract.AlbumEntry._ID + " FROM " + AnchorContract.AlbumEntry.TABLE_NAME + ")"
+                    + " GROUP BY " + AnchorContract.AudioEntry.COLUMN_ALBUM + ";";
+            db.execSQL(SQL_POPULATE_ALBUM_PROGRESS);
+        }
+        if (i < 7) {
+            // Add the full text search tables and index the existing titles
+            createSearchTables(db);
+            db.execSQL("INSERT INTO " + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME + "(" + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME + ") VALUES('rebuild');");
+            db.execSQL("INSERT INTO " + AnchorContract.SearchEntry.ALBUM_TABLE_NAME + "(" + AnchorContract.SearchEntry.ALBUM_TABLE_NAME + ") VALUES('rebuild');");
+            db.execSQL("INSERT INTO " + AnchorContract.SearchEntry.BOOKMARK_TABLE_NAME + "(" + AnchorContract.SearchEntry.BOOKMARK_TABLE_NAME + ") VALUES('rebuild');");
+        }
+        if (i < 8) {
+            // Add the directory state columns. They are empty, so all albums are listed once
+            // during the next synchronization.
+            addAlbumDirectoryStateColumns(db);
+        }
+    }
+
+    /*
+     * Add the columns that hold the state of the album directory at the last synchronization.
+     * They are not part of getCreateAlbumTableSQL() since the table rebuild of version 5 only
+     * copies the columns that existed at that time.
+     */
+    private void addAlbumDirectoryStateColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + AnchorContract.AlbumEntry.TABLE_NAME + " ADD COLUMN " + AnchorContract.AlbumEntry.COLUMN_LAST_MODIFIED + " INTEGER");
+        db.execSQL("ALTER TABLE " + AnchorContract.AlbumEntry.TABLE_NAME + " ADD COLUMN " + AnchorContract.AlbumEntry.COLUMN_ENTRY_COUNT + " INTEGER");
+    }
+
+    /*
+     * Create the album progress table which holds the summed up durations and completed times of
+     * the audio files of each album, and the triggers that keep it up to date. This way the album
+     * progress does not need to be computed from all tracks whenever an album is displayed.
+     */
+    private void createAlbumProgressTable(SQLiteDatabase db) {
+        String SQL_CREATE_ALBUM_PROGRESS_TABLE = "CREATE TABLE IF NOT EXISTS " + AnchorContract.AlbumProgressEntry.TABLE_NAME + " ("
+                + AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + " INTEGER PRIMARY KEY REFERENCES "
+                + AnchorContract.AlbumEntry.TABLE_NAME + "(" + AnchorContract.AlbumEntry._ID + ") ON DELETE CASCADE, "
+                + AnchorContract.AlbumProgressEntry.COLUMN_DURATION + " INTEGER NOT NULL DEFAULT 0, "
+                + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME + " INTEGER NOT NULL DEFAULT 0, "
+                + AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TRACK_COUNT + " INTEGER NOT NULL DEFAULT 0);";
+
+        String SQL_CREATE_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS album_progress_audio_insert AFTER INSERT ON "
+                + AnchorContract.AudioEntry.TABLE_NAME + " BEGIN "
+                + getAddProgressSQL("NEW.", "+")
+                + " END;";
+
+        String SQL_CREATE_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS album_progress_audio_delete AFTER DELETE ON "
+                + AnchorContract.AudioEntry.TABLE_NAME + " BEGIN "
+                + getAddProgressSQL("OLD.", "-")
+                + " END;";
+
+        String SQL_CREATE_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS album_progress_audio_update AFTER UPDATE OF "
+                + AnchorContract.AudioEntry.COLUMN_ALBUM + ", "
+                + AnchorContract.AudioEntry.COLUMN_TIME + ", "
+                + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + " ON "
+                + AnchorContract.AudioEntry.TABLE_NAME + " BEGIN "
+                + getAddProgressSQL("OLD.", "-") + " "
+                + getAddProgressSQL("NEW.", "+")
+                + " END;";
+
+        db.execSQL(SQL_CREATE_ALBUM_PROGRESS_TABLE);
+        db.execSQL(SQL_CREATE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_UPDATE_TRIGGER);
+    }
+
+    /*
+     * Get the trigger statements that add (operator "+") or subtract (operator "-") the audio file
+     * row given by the prefix "NEW." or "OLD." to or from the progress of its album.
+     */
+    private static String getAddProgressSQL(String row, String operator) {
+        String insertRow = "INSERT OR IGNORE INTO " + AnchorContract.AlbumProgressEntry.TABLE_NAME + " ("
+                + AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + ") VALUES (" + row + AnchorContract.AudioEntry.COLUMN_ALBUM + ");";
+        String updateRow = "UPDATE " + AnchorContract.AlbumProgressEntry.TABLE_NAME + " SET "
+                + AnchorContract.AlbumProgressEntry.COLUMN_DURATION + " = " + AnchorContract.AlbumProgressEntry.COLUMN_DURATION
+                + " " + operator + " IFNULL(" + row + AnchorContract.AudioEntry.COLUMN_TIME + ", 0), "
+                + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME + " = " + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME
+                + " " + operator + " IFNULL(" + row + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + ", 0), "
+                + AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT + " = " + AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT
+                + " " + operator + " 1, "
+                + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TRACK_COUNT + " = " + AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TRACK_COUNT
+                + " " + operator + " (" + getCompletedExpression(row) + ")"
+                + " WHERE " + AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + " = " + row + AnchorContract.AudioEntry.COLUMN_ALBUM + ";";
+        // Rows are only subtracted from existing albums, so the album progress row is only
+        // inserted when adding
+        return operator.equals("+") ? insertRow + " " + updateRow : updateRow;
+    }
+
+    /*
+     * Get the SQL expression that is 1 if the audio file row given by the prefix is completed
+     * and 0 otherwise
+     */
+    private static String getCompletedExpression(String row) {
+        return "IFNULL(" + row + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + " >= " + row + AnchorContract.AudioEntry.COLUMN_TIME
+                + " AND " + row + AnchorContract.AudioEntry.COLUMN_TIME + " != 0, 0)";
+    }
+
+    /*
+     * Create the full text search tables for the titles of audio files, albums and bookmarks.
+     * The FTS tables only store the index, the titles are read from the content tables.
+     */
+    private void createSearchTables(SQLiteDatabase db) {
+        createSearchTable(db, AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME, AnchorContract.AudioEntry.TABLE_NAME,
+                AnchorContract.AudioEntry._ID, AnchorContract.AudioEntry.COLUMN_TITLE);
+        createSearchTable(db, AnchorContract.SearchEntry.ALBUM_TABLE_NAME, AnchorContract.AlbumEntry.TABLE_NAME,
+                AnchorContract.AlbumEntry._ID, AnchorContract.AlbumEntry.COLUMN_TITLE);
+        createSearchTable(db, AnchorContract.SearchEntry.BOOKMARK_TABLE_NAME, AnchorContract.BookmarkEntry.TABLE_NAME,
+                AnchorContract.BookmarkEntry._ID, AnchorContract.BookmarkEntry.COLUMN_TITLE);
+    }
+
+    /*
+     * Create an external content FTS table which indexes the title column of the given content
+     * table. Old index entries have to be removed before the content row changes because the FTS
+     * table reads the old title from the content table.
+     */
+    private void createSearchTable(SQLiteDatabase db, String ftsTable, String contentTable, String idColumn, String titleColumn) {
+        String SQL_CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE IF NOT EXISTS " + ftsTable + " USING fts4("
+                + "content=\"" + contentTable + "\", " + titleColumn + ");";
+
+        String insertIndex = "INSERT INTO " + ftsTable + "(docid, " + titleColumn + ") VALUES(NEW." + idColumn + ", NEW." + titleColumn + ");";
+        String deleteIndex = "DELETE FROM " + ftsTable + " WHERE docid = OLD." + idColumn + ";";
+
+        String SQL_CREATE_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ftsTable + "_insert AFTER INSERT ON "
+                + contentTable + " BEGIN " + insertIndex + " END;";
+        String SQL_CREATE_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ftsTable + "_delete BEFORE DELETE ON "
+                + contentTable + " BEGIN " + deleteIndex + " END;";
+        String SQL_CREATE_BEFORE_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ftsTable + "_before_update BEFORE UPDATE OF "
+                + titleColumn + " ON " + contentTable + " BEGIN " + deleteIndex + " END;";
+        String SQL_CREATE_AFTER_UPDATE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ftsTable + "_after_update AFTER UPDATE OF "
+                + titleColumn + " ON " + contentTable + " BEGIN " + insertIndex + " END;";
+
+        db.execSQL(SQL_CREATE_FTS_TABLE);
+        db.execSQL(SQL_CREATE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_BEFORE_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_AFTER_UPDATE_TRIGGER);
+    }
+
+    /*
+     * Replace the given table by a new table created with the given statement. The new table must
+     * be called <table>_new. Only the rows that match the given condition are copied.
+     */
+    private void rebuildTable(SQLiteDatabase db, String table, String createStatement, String columns, String condition) {
+        String newTable = table + "_new";
+        db.execSQL(createStatement);
+        db.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " + columns + " FROM " + table + " WHERE " + condition + ";");
+        db.execSQL("DROP TABLE " + table + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table + ";");
+    }
+
+    /*
+     * Get the SQL statement to create the album table with the given name
+     */
+    private static String getCreateAlbumTableSQL(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
+                + AnchorContract.AlbumEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + AnchorContract.AlbumEntry.COLUMN_TITLE + " TEXT NOT NULL, "
+                + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + " INTEGER REFERENCES "
+                + AnchorContract.DirectoryEntry.TABLE_NAME + "(" + AnchorContract.DirectoryEntry._ID + ") ON DELETE CASCADE, "
+                + AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED + " INTEGER, "
+                + AnchorContract.AlbumEntry.COLUMN_COVER_PATH + " TEXT);";
+    }
+
+    /*
+     * Get the SQL statement to create the audio file table with the given name
+     */
+    private static String getCreateAudioFileTableSQL(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
+                + AnchorContract.AudioEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + AnchorContract.AudioEntry.COLUMN_TITLE + " TEXT NOT NULL, "
+                + AnchorContract.AudioEntry.COLUMN_ALBUM + " INTEGER NOT NULL REFERENCES "
+                + AnchorContract.AlbumEntry.TABLE_NAME + "(" + AnchorContract.AlbumEntry._ID + ") ON DELETE CASCADE, "
+                + AnchorContract.AudioEntry.COLUMN_PATH + " TEXT, "
+                + AnchorContract.AudioEntry.COLUMN_TIME + " INTEGER DEFAULT 0, "
+                + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + " INTEGER DEFAULT 0);";
+    }
+
+    /*
+     * Get the SQL statement to create the bookmark table with the given name
+     */
+    private static String getCreateBookmarkTableSQL(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
+                + AnchorContract.BookmarkEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + AnchorContract.BookmarkEntry.COLUMN_TITLE + " TEXT NOT NULL, "
+                + AnchorContract.BookmarkEntry.COLUMN_POSITION + " INTEGER, "
+                + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + " INTEGER REFERENCES "
+                + AnchorContract.AudioEntry.TABLE_NAME + "(" + AnchorContract.AudioEntry._ID + ") ON DELETE CASCADE);";
+    }
+
+    /*
+     * Create the indices for the foreign key lookups. Without them, every album, directory and
+     * audio file lookup is a full table scan.
+     */
+    private void createIndices(SQLiteDatabase db) {
+        // Tracks of an album, ordered by title (AudioFile.getAllAudioFilesInAlbum, Synchronizer)
+        String SQL_CREATE_AUDIO_ALBUM_INDEX = "CREATE INDEX IF NOT EXISTS idx_audio_files_album_title ON "
+                + AnchorContract.AudioEntry.TABLE_NAME + " ("
+                + AnchorContract.AudioEntry.COLUMN_ALBUM + ", "
+                + AnchorContract.AudioEntry.COLUMN_TITLE + ");";
+
+        // Covering index for the album progress (DBAccessUtils.getAlbumTimes)
+        String SQL_CREATE_AUDIO_TIMES_INDEX = "CREATE INDEX IF NOT EXISTS idx_audio_files_album_times ON "
+                + AnchorContract.AudioEntry.TABLE_NAME + " ("
+                + AnchorContract.AudioEntry.COLUMN_ALBUM + ", "
+                + AnchorContract.AudioEntry.COLUMN_TIME + ", "
+                + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + ");";
+
+        // Albums of a directory (Album.getAllAlbumsInDirectory)
+        String SQL_CREATE_ALBUM_DIRECTORY_INDEX = "CREATE INDEX IF NOT EXISTS idx_albums_directory_title ON "
+                + AnchorContract.AlbumEntry.TABLE_NAME + " ("
+                + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + ", "
+                + AnchorContract.AlbumEntry.COLUMN_TITLE + ");";
+
+        // Bookmarks of an audio file (Bookmark.getAllBookmarksForAudioFile, getBookmarkForAudioFileByTitle)
+        String SQL_CREATE_BOOKMARK_AUDIO_INDEX = "CREATE INDEX IF NOT EXISTS idx_bookmarks_audio_file_title ON "
+                + AnchorContract.BookmarkEntry.TABLE_NAME + " ("
+                + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + ", "
+                + AnchorContract.BookmarkEntry.COLUMN_TITLE + ");";
+
+        db.execSQL(SQL_CREATE_AUDIO_ALBUM_INDEX);
+        db.execSQL(SQL_CREATE_AUDIO_TIMES_INDEX);
+        db.execSQL(SQL_CREATE_ALBUM_DIRECTORY_INDEX);
+        db.execSQL(SQL_CREATE_BOOKMARK_AUDIO_INDEX);
     }
 
     static AnchorDbHelper getInstance(Context context) {
         if (mInstance == null) {
-            mInstance = new AnchorDbHelper(context.getApplicationContext());
+            synchronized (AnchorDbHelper.class) {
+                if (mInstance == null) {
+                    mInstance = new AnchorDbHelper(context.getApplicationContext());
+                }
+            }
         }
         return mInstance;
     }
 
+    /*
+     * Close and drop the shared instance, such that each test gets a database in the data
+     * directory of its own application context
+     */
+    @VisibleForTesting
+    static void resetInstance() {
+        synchronized (AnchorDbHelper.class) {
+            if (mInstance != null) {
+                mInstance.close();
+                mInstance = null;
+            }
+        }
+    }
+
     /*
      * Get all albums from the database
      */
     private ArrayList<Album> getAllAlbums(SQLiteDatabase db, Directory directory) {
         ArrayList<Album> albums = new ArrayList<>();
-        Cursor c = db.query(AnchorContract.AlbumEntry.TABLE_NAME, Album.getColumns(), null, null, null, null, null);
+        // Only query the columns that exist in the version 2 album table
+        String[] columns = new String[]{
+                AnchorContract.AlbumEntry._ID,
+                AnchorContract.AlbumEntry.COLUMN_TITLE,
+                AnchorContract.AlbumEntry.COLUMN_COVER_PATH,
+                AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED
+        };
+        Cursor c = db.query(AnchorContract.AlbumEntry.TABLE_NAME, columns, null, null, null, null, null);
 
         // Bail early if the cursor is null
         if (c == null) {
@@ -1,19 +1,40 @@
 package com.prangesoftwaresolutions.audioanchor.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.prangesoftwaresolutions.audioanchor.models.EntityCache;
+
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Content Provider for audio_anchor app
@@ -30,6 +51,8 @@ public class AnchorProvider extends ContentProvider {
     private static final int AUDIO = 100;
     private static final int AUDIO_ID = 101;
     private static final int AUDIO_DISTINCT = 110;
+    private static final int AUDIO_FULL = 120;
+    private static final int AUDIO_FULL_ID = 121;
 
     private static final int ALBUM = 200;
     private static final int ALBUM_ID = 201;
@@ -43,6 +66,154 @@ public class AnchorProvider extends ContentProvider {
     private static final int DIRECTORY_ID = 501;
     private static final int DIRECTORY_DISTINCT = 510;
 
+    private static final int ALBUM_PROGRESS = 600;
+    private static final int ALBUM_PROGRESS_ID = 601;
+
+    private static final int SEARCH = 700;
+
+    // Number of search results if the search URI does not specify a limit
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    // Album queries include the album progress maintained by the database triggers and the path
+    // and type of the album directory. The directory columns are renamed in a subquery so that
+    // they do not clash with the album columns, e.g. _id in the projections of the callers.
+    private static final String ALBUM_WITH_PROGRESS_TABLES = AnchorContract.AlbumEntry.TABLE_NAME
+            + " LEFT OUTER JOIN " + AnchorContract.AlbumProgressEntry.TABLE_NAME + " ON ("
+            + AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry._ID + " = "
+            + AnchorContract.AlbumProgressEntry.TABLE_NAME + "." + AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + ")"
+            + " LEFT OUTER JOIN (SELECT "
+            + AnchorContract.DirectoryEntry._ID + " AS " + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "_id, "
+            + AnchorContract.DirectoryEntry.COLUMN_PATH + " AS " + AnchorContract.AlbumEntry.COLUMN_DIRECTORY_PATH + ", "
+            + AnchorContract.DirectoryEntry.COLUMN_TYPE + " AS " + AnchorContract.AlbumEntry.COLUMN_DIRECTORY_TYPE
+            + " FROM " + AnchorContract.DirectoryEntry.TABLE_NAME + ") ON ("
+            + AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + " = "
+            + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "_id)";
+
+    // Audio files joined with their album and directory. Albums without directory are kept, their
+    // directory columns are null.
+    private static final String AUDIO_FULL_TABLES = AnchorContract.AudioEntry.TABLE_NAME
+            + " INNER JOIN " + AnchorContract.AlbumEntry.TABLE_NAME + " ON ("
+            + AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_ALBUM + " = "
+            + AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry._ID + ")"
+            + " LEFT OUTER JOIN " + AnchorContract.DirectoryEntry.TABLE_NAME + " ON ("
+            + AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + " = "
+            + AnchorContract.DirectoryEntry.TABLE_NAME + "." + AnchorContract.DirectoryEntry._ID + ")";
+
+    // Maps the columns of the joined audio query to the qualified table columns
+    private static final Map<String, String> sAudioFullProjectionMap = new HashMap<>();
+
+    static {
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry._ID,
+                AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry._ID);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_TITLE,
+                AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.COLUMN_TITLE);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_ALBUM,
+                AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.COLUMN_ALBUM);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_TIME,
+                AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.COLUMN_TIME);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_COMPLETED_TIME,
+                AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_PATH,
+                AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.COLUMN_PATH);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_ALBUM_TITLE,
+                AnchorContract.AlbumEntry.TABLE_NAME, AnchorContract.AlbumEntry.COLUMN_TITLE);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_ALBUM_COVER_PATH,
+                AnchorContract.AlbumEntry.TABLE_NAME, AnchorContract.AlbumEntry.COLUMN_COVER_PATH);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_ALBUM_LAST_PLAYED,
+                AnchorContract.AlbumEntry.TABLE_NAME, AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_DIRECTORY,
+                AnchorContract.AlbumEntry.TABLE_NAME, AnchorContract.AlbumEntry.COLUMN_DIRECTORY);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_DIRECTORY_PATH,
+                AnchorContract.DirectoryEntry.TABLE_NAME, AnchorContract.DirectoryEntry.COLUMN_PATH);
+        putAlias(sAudioFullProjectionMap, AnchorContract.AudioFullEntry.COLUMN_DIRECTORY_TYPE,
+                AnchorContract.DirectoryEntry.TABLE_NAME, AnchorContract.DirectoryEntry.COLUMN_TYPE);
+    }
+
+    // Change notifications collected while a batch operation is running on the calling thread.
+    // Writes of other threads are not part of the batch and are notified immediately.
+    private final ThreadLocal<NotificationBatch> mBatch = new ThreadLocal<>();
+    // Number of notifications sent and of notifications that were merged into a pending one
+    private final Object mNotificationLock = new Object();
+    private long mSentNotifications = 0;
+    private long mSuppressedNotifications = 0;
+
+    // Sort keys of the paged audio file and album queries, see queryPage(). Each key is an
+    // expression of the title, %s is replaced by the title column or by a parameter.
+    private static final String[] AUDIO_PAGE_KEYS = new String[]{"CAST(%s AS SIGNED)", "LOWER(%s)"};
+    private static final String[] ALBUM_PAGE_KEYS = new String[]{"%s COLLATE NOCASE"};
+
+    // Full text search over the titles of audio files, albums and bookmarks, see search()
+    private static final String[] SEARCH_COLUMNS = new String[]{
+            AnchorContract.SearchEntry._ID,
+            AnchorContract.SearchEntry.COLUMN_TITLE,
+            AnchorContract.SearchEntry.COLUMN_SUBTITLE,
+            AnchorContract.SearchEntry.COLUMN_TYPE,
+            AnchorContract.SearchEntry.COLUMN_ALBUM,
+            AnchorContract.SearchEntry.COLUMN_AUDIO_FILE
+    };
+    private static final String SQL_SEARCH = "SELECT "
+            + AnchorContract.SearchEntry._ID + ", "
+            + AnchorContract.SearchEntry.COLUMN_TITLE + ", "
+            + AnchorContract.SearchEntry.COLUMN_SUBTITLE + ", "
+            + AnchorContract.SearchEntry.COLUMN_TYPE + ", "
+            + AnchorContract.SearchEntry.COLUMN_ALBUM + ", "
+            + AnchorContract.SearchEntry.COLUMN_AUDIO_FILE + " FROM ("
+            // Audio files
+            + "SELECT a." + AnchorContract.AudioEntry._ID + " AS " + AnchorContract.SearchEntry._ID
+            + ", a." + AnchorContract.AudioEntry.COLUMN_TITLE + " AS " + AnchorContract.SearchEntry.COLUMN_TITLE
+            + ", al." + AnchorContract.AlbumEntry.COLUMN_TITLE + " AS " + AnchorContract.SearchEntry.COLUMN_SUBTITLE
+            + ", " + AnchorContract.SearchEntry.TYPE_AUDIO_FILE + " AS " + AnchorContract.SearchEntry.COLUMN_TYPE
+            + ", a." + AnchorContract.AudioEntry.COLUMN_ALBUM + " AS " + AnchorContract.SearchEntry.COLUMN_ALBUM
+            + ", a." + AnchorContract.AudioEntry._ID + " AS " + AnchorContract.SearchEntry.COLUMN_AUDIO_FILE
+            + ", a." + AnchorContract.AudioEntry.COLUMN_TITLE + " LIKE ? ESCAPE '\\' AS prefix_match"
+            + " FROM " + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME
+            + " JOIN " + AnchorContract.AudioEntry.TABLE_NAME + " a ON a." + AnchorContract.AudioEntry._ID + " = " + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME + ".docid"
+            + " JOIN " + AnchorContract.AlbumEntry.TABLE_NAME + " al ON al." + AnchorContract.AlbumEntry._ID + " = a." + AnchorContract.AudioEntry.COLUMN_ALBUM
+            + " WHERE " + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME + " MATCH ?"
+            // Albums
+            + " UNION ALL SELECT al." + AnchorContract.AlbumEntry._ID
+            + ", al." + AnchorContract.AlbumEntry.COLUMN_TITLE
+            + ", NULL"
+            + ", " + AnchorContract.SearchEntry.TYPE_ALBUM
+            + ", al." + AnchorContract.AlbumEntry._ID
+            + ", NULL"
+            + ", al." + AnchorContract.AlbumEntry.COLUMN_TITLE + " LIKE ? ESCAPE '\\'"
+            + " FROM " + AnchorContract.SearchEntry.ALBUM_TABLE_NAME
+            + " JOIN " + AnchorContract.AlbumEntry.TABLE_NAME + " al ON al." + AnchorContract.AlbumEntry._ID + " = " + AnchorContract.SearchEntry.ALBUM_TABLE_NAME + ".docid"
+            + " WHERE " + AnchorContract.SearchEntry.ALBUM_TABLE_NAME + " MATCH ?"
+            // Bookmarks
+            + " UNION ALL SELECT b." + AnchorContract.BookmarkEntry._ID
+            + ", b." + AnchorContract.BookmarkEntry.COLUMN_TITLE
+            + ", a." + AnchorContract.AudioEntry.COLUMN_TITLE
+            + ", " + AnchorContract.SearchEntry.TYPE_BOOKMARK
+            + ", a." + AnchorContract.AudioEntry.COLUMN_ALBUM
+            + ", a." + AnchorContract.AudioEntry._ID
+            + ", b." + AnchorContract.BookmarkEntry.COLUMN_TITLE + " LIKE ? ESCAPE '\\'"
+            + " FROM " + AnchorContract.SearchEntry.BOOKMARK_TABLE_NAME
+            + " JOIN " + AnchorContract.BookmarkEntry.TABLE_NAME + " b ON b." + AnchorContract.BookmarkEntry._ID + " = " + AnchorContract.SearchEntry.BOOKMARK_TABLE_NAME + ".docid"
+            + " JOIN " + AnchorContract.AudioEntry.TABLE_NAME + " a ON a." + AnchorContract.AudioEntry._ID + " = b." + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE
+            + " WHERE " + AnchorContract.SearchEntry.BOOKMARK_TABLE_NAME + " MATCH ?"
+            + ") ORDER BY prefix_match DESC, LENGTH(" + AnchorContract.SearchEntry.COLUMN_TITLE + "), "
+            + AnchorContract.SearchEntry.COLUMN_TITLE + " COLLATE NOCASE LIMIT ?";
+
+    // Single column writes which are executed as compiled statements, see getWriteStatement()
+    private static final String SQL_SET_COMPLETED_TIME = "UPDATE " + AnchorContract.AudioEntry.TABLE_NAME
+            + " SET " + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + "=?"
+            + " WHERE " + AnchorContract.AudioEntry._ID + "=?";
+    private static final String SQL_SELECT_AUDIO_ALBUM = "SELECT " + AnchorContract.AudioEntry.COLUMN_ALBUM
+            + " FROM " + AnchorContract.AudioEntry.TABLE_NAME
+            + " WHERE " + AnchorContract.AudioEntry._ID + "=?";
+    private static final String SQL_SET_LAST_PLAYED = "UPDATE " + AnchorContract.AlbumEntry.TABLE_NAME
+            + " SET " + AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED + "=?"
+            + " WHERE " + AnchorContract.AlbumEntry._ID + "=?";
+    private static final String SQL_SET_BOOKMARK_POSITION = "UPDATE " + AnchorContract.BookmarkEntry.TABLE_NAME
+            + " SET " + AnchorContract.BookmarkEntry.COLUMN_POSITION + "=?"
+            + " WHERE " + AnchorContract.BookmarkEntry._ID + "=?";
+    private final Map<String, SQLiteStatement> mWriteStatements = new HashMap<>();
+
+    // Call statistics per operation and URI pattern, printed by dump()
+    private final ProviderStats mStats = new ProviderStats();
+
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
@@ -50,6 +221,8 @@ public class AnchorProvider extends ContentProvider {
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_AUDIO_FILES, AUDIO);
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_AUDIO_FILES + "/#", AUDIO_ID);
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_AUDIO_FILES_DISTINCT, AUDIO_DISTINCT);
+        sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_AUDIO_FILES_FULL, AUDIO_FULL);
+        sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_AUDIO_FILES_FULL + "/#", AUDIO_FULL_ID);
         // URIs for the albums table
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_ALBUM, ALBUM);
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_ALBUM + "/#", ALBUM_ID);
@@ -62,6 +235,18 @@ public class AnchorProvider extends ContentProvider {
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_DIRECTORY, DIRECTORY);
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_DIRECTORY + "/#", DIRECTORY_ID);
         sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_DIRECTORY_DISTINCT, DIRECTORY_DISTINCT);
+        // URIs for the album progress table
+        sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_ALBUM_PROGRESS, ALBUM_PROGRESS);
+        sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_ALBUM_PROGRESS + "/#", ALBUM_PROGRESS_ID);
+        // URI for the full text search
+        sUriMatcher.addURI(AnchorContract.CONTENT_AUTHORITY, AnchorContract.PATH_SEARCH, SEARCH);
+    }
+
+    /*
+     * Add an alias for the given table column to the projection map
+     */
+    private static void putAlias(Map<String, String> projectionMap, String alias, String table, String column) {
+        projectionMap.put(alias, table + "." + column + " AS " + alias);
     }
 
     /**
@@ -80,6 +265,19 @@ public class AnchorProvider extends ContentProvider {
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        long startTime = System.nanoTime();
+        Cursor cursor = performQuery(uri, projection, selection, selectionArgs, sortOrder);
+        // SQLite runs the query when the client fills the first cursor window. Counting the rows
+        // here would fill it for every query and load pages the client never reads, so only the
+        // preparation is timed and the number of rows is not recorded.
+        recordCall("query", uri, selection, -1, startTime);
+        return cursor;
+    }
+
+    /*
+     * Query the table given by the URI.
+     */
+    private Cursor performQuery(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
         SQLiteQueryBuilder qb;
@@ -90,14 +288,27 @@ public class AnchorProvider extends ContentProvider {
         int match = sUriMatcher.match(uri);
         switch (match) {
             case AUDIO:
+                if (uri.getQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_SIZE) != null) {
+                    // Query one page of the audio files table
+                    cursor = queryPage(database, uri, AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.TABLE_NAME,
+                            AUDIO_PAGE_KEYS, projection, selection, selectionArgs);
+                    break;
+                }
                 // Query the audio files table with the given parameters
                 cursor = database.query(AnchorContract.AudioEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
             case ALBUM:
-                // Query the album table with the given parameters
-                cursor = database.query(AnchorContract.AlbumEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                if (uri.getQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_SIZE) != null) {
+                    // Query one page of the album table joined with the album progress
+                    cursor = queryPage(database, uri, ALBUM_WITH_PROGRESS_TABLES, AnchorContract.AlbumEntry.TABLE_NAME,
+                            ALBUM_PAGE_KEYS, projection, selection, selectionArgs);
+                    break;
+                }
+                // Query the album table joined with the album progress with the given parameters
+                qb = new SQLiteQueryBuilder();
+                qb.setTables(ALBUM_WITH_PROGRESS_TABLES);
+                cursor = qb.query(database, projection, selection, selectionArgs, null, null, sortOrder);
                 break;
             case BOOKMARK:
                 // Query the bookmarks table with the given parameters
@@ -109,6 +320,24 @@ public class AnchorProvider extends ContentProvider {
                 cursor = database.query(AnchorContract.DirectoryEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case AUDIO_FULL:
+                // Query the audio files joined with their album and directory
+                qb = new SQLiteQueryBuilder();
+                qb.setTables(AUDIO_FULL_TABLES);
+                qb.setProjectionMap(sAudioFullProjectionMap);
+                cursor = qb.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case SEARCH:
+                // Search the titles of audio files, albums and bookmarks. Any change of the
+                // library can change the search results.
+                cursor = search(database, uri);
+                cursor.setNotificationUri(getContext().getContentResolver(), AnchorContract.BASE_CONTENT_URI);
+                return cursor;
+            case ALBUM_PROGRESS:
+                // Query the album progress table with the given parameters
+                cursor = database.query(AnchorContract.AlbumProgressEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
             case AUDIO_DISTINCT:
                 qb = new SQLiteQueryBuilder();
                 qb.setDistinct(true);
@@ -144,12 +373,23 @@ public class AnchorProvider extends ContentProvider {
                 break;
             case ALBUM_ID:
                 // Query a single row given by the ID in the URI
-                selection = AnchorContract.AlbumEntry._ID + "=?";
+                selection = AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
-                // Perform query on the recipe table for the given recipe id.
-                cursor = database.query(AnchorContract.AlbumEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // Perform query on the album table joined with the album progress for the given album id.
+                qb = new SQLiteQueryBuilder();
+                qb.setTables(ALBUM_WITH_PROGRESS_TABLES);
+                cursor = qb.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case AUDIO_FULL_ID:
+                // Query a single joined row given by the audio file ID in the URI
+                selection = AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                qb = new SQLiteQueryBuilder();
+                qb.setTables(AUDIO_FULL_TABLES);
+                qb.setProjectionMap(sAudioFullProjectionMap);
+                cursor = qb.query(database, projection, selection, selectionArgs, null, null, sortOrder);
                 break;
             case BOOKMARK_ID:
                 // Query a single row given by the ID in the URI
@@ -169,6 +409,14 @@ public class AnchorProvider extends ContentProvider {
                 cursor = database.query(AnchorContract.DirectoryEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case ALBUM_PROGRESS_ID:
+                // Query the progress of the album given by the ID in the URI
+                selection = AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+                cursor = database.query(AnchorContract.AlbumProgressEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -177,6 +425,136 @@ public class AnchorProvider extends ContentProvider {
         return cursor;
     }
 
+    /*
+     * Query the page given by the paging parameters of the URI. The rows are sorted by the given
+     * keys of the title and by the id of the given table. The page starts after the row given by
+     * its title and id, so the query does not have to skip the preceding rows like an OFFSET would.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String tables, String table, String[] keys,
+                             String[] projection, String selection, String[] selectionArgs) {
+        int pageSize;
+        Long afterId = null;
+        String afterParameter = uri.getQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER);
+        String afterTitle = uri.getQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER_TITLE);
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_SIZE));
+            if (afterParameter != null) {
+                afterId = Long.parseLong(afterParameter);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid paging parameters in " + uri);
+        }
+        if (afterId != null && afterTitle == null) {
+            throw new IllegalArgumentException("Missing title of the last row in " + uri);
+        }
+
+        String idColumn = table + "." + BaseColumns._ID;
+        String titleColumn = table + "." + AnchorContract.AudioEntry.COLUMN_TITLE;
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        if (selection != null && !selection.isEmpty()) {
+            where.append("(").append(selection).append(")");
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        if (afterId != null) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(getKeysetCondition(keys, titleColumn, idColumn, afterTitle, afterId, args));
+        }
+
+        StringBuilder orderBy = new StringBuilder();
+        for (String key : keys) {
+            orderBy.append(String.format(key, titleColumn)).append(", ");
+        }
+        orderBy.append(idColumn);
+
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(tables);
+        return qb.query(database, projection, where.toString(), args.toArray(new String[0]), null, null,
+                orderBy.toString(), String.valueOf(pageSize));
+    }
+
+    /*
+     * Get the condition for the rows that follow the row with the given title and id in the order
+     * of the given keys and the id column. The keys of that row are computed from the title, which
+     * is bound as parameter and added to the given arguments together with the id.
+     */
+    private static String getKeysetCondition(String[] keys, String titleColumn, String idColumn, String afterTitle,
+                                             long afterId, List<String> args) {
+        StringBuilder condition = new StringBuilder();
+        for (String key : keys) {
+            String rowKey = String.format(key, titleColumn);
+            String afterKey = String.format(key, "?");
+            condition.append("(").append(rowKey).append(" > ").append(afterKey)
+                    .append(" OR (").append(rowKey).append(" = ").append(afterKey).append(" AND ");
+            args.add(afterTitle);
+            args.add(afterTitle);
+        }
+        condition.append(idColumn).append(" > ?");
+        args.add(Long.toString(afterId));
+        for (int i = 0; i < keys.length; i++) {
+            condition.append("))");
+        }
+        return condition.toString();
+    }
+
+    /*
+     * Search the titles of audio files, albums and bookmarks for the filter of the given search
+     * URI. Titles that start with the filter are ranked first, then shorter titles.
+     */
+    private Cursor search(SQLiteDatabase database, Uri uri) {
+        String filter = uri.getQueryParameter(AnchorContract.SearchEntry.QUERY_PARAMETER_FILTER);
+        String matchExpression = getMatchExpression(filter);
+        if (matchExpression == null) {
+            return new MatrixCursor(SEARCH_COLUMNS);
+        }
+
+        int limit = DEFAULT_SEARCH_LIMIT;
+        String limitParameter = uri.getQueryParameter(AnchorContract.SearchEntry.QUERY_PARAMETER_LIMIT);
+        if (limitParameter != null) {
+            try {
+                limit = Integer.parseInt(limitParameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid search limit " + limitParameter);
+            }
+        }
+
+        // Escape the LIKE wildcards in the filter for the prefix ranking
+        String prefixPattern = filter.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        String[] selectionArgs = new String[]{prefixPattern, matchExpression, prefixPattern, matchExpression,
+                prefixPattern, matchExpression, String.valueOf(limit)};
+        return database.rawQuery(SQL_SEARCH, selectionArgs);
+    }
+
+    /*
+     * Convert the search text into an FTS match expression in which every word of the text has to
+     * be the prefix of a word in the title. Returns null if the text does not contain any words.
+     */
+    private static String getMatchExpression(String filter) {
+        if (filter == null) {
+            return null;
+        }
+
+        StringBuilder matchExpression = new StringBuilder();
+        for (String word : filter.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            // Upper case operator keywords of the FTS query syntax are searched as plain words
+            if (word.equals("AND") || word.equals("OR") || word.equals("NOT") || word.equals("NEAR")) {
+                word = word.toLowerCase(Locale.ROOT);
+            }
+            if (matchExpression.length() > 0) {
+                matchExpression.append(" ");
+            }
+            matchExpression.append(word).append("*");
+        }
+        return matchExpression.length() > 0 ? matchExpression.toString() : null;
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -193,25 +571,204 @@ public class AnchorProvider extends ContentProvider {
                 return AnchorContract.BookmarkEntry.CONTENT_LIST_TYPE;
             case DIRECTORY:
                 return AnchorContract.DirectoryEntry.CONTENT_LIST_TYPE;
+            case AUDIO_FULL:
+                return AnchorContract.AudioFullEntry.CONTENT_LIST_TYPE;
             case AUDIO_ID:
                 return AnchorContract.AudioEntry.CONTENT_ITEM_TYPE;
+            case AUDIO_FULL_ID:
+                return AnchorContract.AudioFullEntry.CONTENT_ITEM_TYPE;
             case ALBUM_ID:
                 return AnchorContract.AlbumEntry.CONTENT_ITEM_TYPE;
             case BOOKMARK_ID:
                 return AnchorContract.BookmarkEntry.CONTENT_ITEM_TYPE;
             case DIRECTORY_ID:
                 return AnchorContract.DirectoryEntry.CONTENT_ITEM_TYPE;
+            case SEARCH:
+                return AnchorContract.SearchEntry.CONTENT_LIST_TYPE;
+            case ALBUM_PROGRESS:
+                return AnchorContract.AlbumProgressEntry.CONTENT_LIST_TYPE;
+            case ALBUM_PROGRESS_ID:
+                return AnchorContract.AlbumProgressEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Provider specific methods. Batches allow clients such as the Synchronizer to group many
+     * operations so that observers are notified only once per URI. A batch only covers the
+     * operations of the thread that started it, so METHOD_BEGIN_BATCH and METHOD_END_BATCH have
+     * to be called on the same thread as the operations in between.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        switch (method) {
+            case AnchorContract.METHOD_BEGIN_BATCH:
+                beginBatch();
+                return null;
+            case AnchorContract.METHOD_END_BATCH:
+                endBatch();
+                return null;
+            case AnchorContract.METHOD_SET_COMPLETED_TIME: {
+                long startTime = System.nanoTime();
+                long audioId = Long.parseLong(arg);
+                int rows = setCompletedTime(audioId, extras.getLong(AnchorContract.KEY_VALUE));
+                recordCall(method, ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, audioId), null, rows, startTime);
+                return null;
+            }
+            case AnchorContract.METHOD_SET_LAST_PLAYED: {
+                long startTime = System.nanoTime();
+                long albumId = Long.parseLong(arg);
+                int rows = setLastPlayed(albumId, extras.getLong(AnchorContract.KEY_VALUE));
+                recordCall(method, ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, albumId), null, rows, startTime);
+                return null;
+            }
+            case AnchorContract.METHOD_SET_BOOKMARK_POSITION: {
+                long startTime = System.nanoTime();
+                long bookmarkId = Long.parseLong(arg);
+                int rows = setBookmarkPosition(bookmarkId, extras.getLong(AnchorContract.KEY_VALUE));
+                recordCall(method, ContentUris.withAppendedId(AnchorContract.BookmarkEntry.CONTENT_URI, bookmarkId), null, rows, startTime);
+                return null;
+            }
+            case AnchorContract.METHOD_CLOSE_DATABASE:
+                closeDatabase();
+                return null;
+            case AnchorContract.METHOD_GET_NOTIFICATION_STATS:
+                Bundle stats = new Bundle();
+                synchronized (mNotificationLock) {
+                    stats.putLong(AnchorContract.KEY_SENT_NOTIFICATIONS, mSentNotifications);
+                    stats.putLong(AnchorContract.KEY_SUPPRESSED_NOTIFICATIONS, mSuppressedNotifications);
+                }
+                return stats;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /*
+     * Set the completed time of the given audio file and notify the audio file and the progress
+     * of its album. Returns the number of updated rows.
+     */
+    private int setCompletedTime(long audioId, long completedTime) {
+        SQLiteStatement update = getWriteStatement(SQL_SET_COMPLETED_TIME);
+        SQLiteStatement albumQuery = getWriteStatement(SQL_SELECT_AUDIO_ALBUM);
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        long albumId = -1;
+        db.beginTransaction();
+        try {
+            synchronized (update) {
+                update.bindLong(1, completedTime);
+                update.bindLong(2, audioId);
+                rowsUpdated = update.executeUpdateDelete();
+            }
+            if (rowsUpdated != 0) {
+                synchronized (albumQuery) {
+                    albumQuery.bindLong(1, audioId);
+                    albumId = albumQuery.simpleQueryForLong();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, audioId));
+            notifyChange(ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, albumId));
+        }
+        return rowsUpdated;
+    }
+
+    /*
+     * Set the last played audio file of the given album
+     */
+    private int setLastPlayed(long albumId, long audioId) {
+        SQLiteStatement update = getWriteStatement(SQL_SET_LAST_PLAYED);
+
+        int rowsUpdated;
+        synchronized (update) {
+            update.bindLong(1, audioId);
+            update.bindLong(2, albumId);
+            rowsUpdated = update.executeUpdateDelete();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, albumId));
+        }
+        return rowsUpdated;
+    }
+
+    /*
+     * Set the position of the given bookmark
+     */
+    private int setBookmarkPosition(long bookmarkId, long position) {
+        SQLiteStatement update = getWriteStatement(SQL_SET_BOOKMARK_POSITION);
+
+        int rowsUpdated;
+        synchronized (update) {
+            update.bindLong(1, position);
+            update.bindLong(2, bookmarkId);
+            rowsUpdated = update.executeUpdateDelete();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(AnchorContract.BookmarkEntry.CONTENT_URI, bookmarkId));
+        }
+        return rowsUpdated;
+    }
+
+    /*
+     * Get the compiled statement for the given SQL. Statements are compiled once and reused until
+     * the database is closed. Callers synchronize on the statement while binding and executing it.
+     */
+    private SQLiteStatement getWriteStatement(String sql) {
+        synchronized (mWriteStatements) {
+            SQLiteStatement statement = mWriteStatements.get(sql);
+            if (statement == null) {
+                statement = mDbHelper.getWritableDatabase().compileStatement(sql);
+                mWriteStatements.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    /*
+     * Close the compiled statements and the database, e.g. because the database file is about to
+     * be replaced. Statements compiled for the old database must not be used for the new one,
+     * so they are compiled again on the next write.
+     */
+    private void closeDatabase() {
+        synchronized (mWriteStatements) {
+            for (SQLiteStatement statement : mWriteStatements.values()) {
+                synchronized (statement) {
+                    statement.close();
+                }
+            }
+            mWriteStatements.clear();
+        }
+        mDbHelper.close();
+        EntityCache.clear();
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
+        long startTime = System.nanoTime();
+        Uri insertedUri = performInsert(uri, contentValues);
+        recordCall("insert", uri, null, insertedUri != null ? 1 : 0, startTime);
+        return insertedUri;
+    }
+
+    /*
+     * Insert the given values into the table given by the URI.
+     */
+    private Uri performInsert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case AUDIO:
@@ -227,6 +784,53 @@ public class AnchorProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Insert all given rows within a single transaction. Listeners are notified once when the
+     * transaction has finished.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+
+        beginBatch();
+        db.beginTransaction();
+        try {
+            for (ContentValues contentValues : values) {
+                if (insert(uri, contentValues) != null) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            endBatch();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all given operations within a single transaction. If one of the operations fails,
+     * none of them is applied. Listeners are notified once per affected URI when the transaction
+     * has finished.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        beginBatch();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            endBatch();
+        }
+    }
+
     /**
      * Insert new audio file with the given ContentValues into the database.
      */
@@ -240,7 +844,9 @@ public class AnchorProvider extends ContentProvider {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         // dirty hack since older tables where created with COLUMN_PATH not null
-        values.put(AnchorContract.AudioEntry.COLUMN_PATH, "");
+        if (!values.containsKey(AnchorContract.AudioEntry.COLUMN_PATH)) {
+            values.put(AnchorContract.AudioEntry.COLUMN_PATH, "");
+        }
 
         long id = db.insert(AnchorContract.AudioEntry.TABLE_NAME, null, values);
 
@@ -249,8 +855,13 @@ public class AnchorProvider extends ContentProvider {
             return null;
         }
 
-        // Notify all listeners that the data at the given URI has changed
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners that the data at the given URI and the progress of the album, which
+        // is updated by the database, have changed
+        notifyChange(uri);
+        Long albumId = values.getAsLong(AnchorContract.AudioEntry.COLUMN_ALBUM);
+        if (albumId != null) {
+            notifyChange(ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, albumId));
+        }
 
         // Return the new URI with the appended ID
         return ContentUris.withAppendedId(uri, id);
@@ -276,7 +887,7 @@ public class AnchorProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data at the given URI has changed
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return the new URI with the appended ID
         return ContentUris.withAppendedId(uri, id);
@@ -302,7 +913,7 @@ public class AnchorProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data at the given URI has changed
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return the new URI with the appended ID
         return ContentUris.withAppendedId(uri, id);
@@ -328,122 +939,145 @@ public class AnchorProvider extends ContentProvider {
         }
 
         // Notify all listeners that the data at the given URI has changed
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return the new URI with the appended ID
         return ContentUris.withAppendedId(uri, id);
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Delete the data at the given selection and selection arguments. Albums, audio files and
+     * bookmarks that belong to deleted rows are removed by the database (ON DELETE CASCADE).
      */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        long startTime = System.nanoTime();
+        int rowsDeleted = performDelete(uri, selection, selectionArgs);
+        recordCall("delete", uri, selection, rowsDeleted, startTime);
+        return rowsDeleted;
+    }
+
+    /*
+     * Delete the rows of the table given by the URI.
+     */
+    private int performDelete(Uri uri, String selection, String[] selectionArgs) {
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
+        String table;
+        Uri[] cascadedUris;
         final int match = sUriMatcher.match(uri);
-        ArrayList<Long> ids;
         switch (match) {
             case DIRECTORY:
-                // Delete corresponding albums
-                ids = getAffectedIds(AnchorContract.DirectoryEntry.CONTENT_URI, selection, selectionArgs);
-                for (long id : ids) {
-                    String subSelection = AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "=?";
-                    String[] subSelectionArgs = new String[]{String.valueOf(id)};
-                    delete(AnchorContract.AlbumEntry.CONTENT_URI, subSelection, subSelectionArgs);
-                }
-
-                // Delete all rows that match the selection and selection args
-                getContext().getContentResolver().notifyChange(uri, null);
-                return database.delete(AnchorContract.DirectoryEntry.TABLE_NAME, selection, selectionArgs);
+                table = AnchorContract.DirectoryEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{AnchorContract.AlbumEntry.CONTENT_URI, AnchorContract.AudioEntry.CONTENT_URI, AnchorContract.BookmarkEntry.CONTENT_URI};
+                break;
             case ALBUM:
-                // Delete corresponding audio files
-                ids = getAffectedIds(AnchorContract.AlbumEntry.CONTENT_URI, selection, selectionArgs);
-                for (long id : ids) {
-                    String subSelection = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
-                    String[] subSelectionArgs = new String[]{String.valueOf(id)};
-                    delete(AnchorContract.AudioEntry.CONTENT_URI, subSelection, subSelectionArgs);
-                }
-
-                // Delete all rows that match the selection and selection args
-                getContext().getContentResolver().notifyChange(uri, null);
-                return database.delete(AnchorContract.AlbumEntry.TABLE_NAME, selection, selectionArgs);
+                table = AnchorContract.AlbumEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{AnchorContract.AudioEntry.CONTENT_URI, AnchorContract.BookmarkEntry.CONTENT_URI};
+                break;
             case AUDIO:
-                // Delete corresponding bookmarks for each deleted audio file
-                ids = getAffectedIds(AnchorContract.AudioEntry.CONTENT_URI, selection, selectionArgs);
-                for (long id : ids) {
-                    String subSelection = AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + "=?";
-                    String[] subSelectionArgs = new String[]{String.valueOf(id)};
-                    delete(AnchorContract.BookmarkEntry.CONTENT_URI, subSelection, subSelectionArgs);
-                }
-
-                // Delete all rows that match the selection and selection args
-                getContext().getContentResolver().notifyChange(uri, null);
-                return database.delete(AnchorContract.AudioEntry.TABLE_NAME, selection, selectionArgs);
+                table = AnchorContract.AudioEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{AnchorContract.BookmarkEntry.CONTENT_URI};
+                break;
             case BOOKMARK:
-                // Delete all rows that match the selection and selection args
-                getContext().getContentResolver().notifyChange(uri, null);
-                return database.delete(AnchorContract.BookmarkEntry.TABLE_NAME, selection, selectionArgs);
+                table = AnchorContract.BookmarkEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{};
+                break;
             case DIRECTORY_ID:
                 // Delete a single row given by the ID in the URI
-                long directoryId = ContentUris.parseId(uri);
                 selection = AnchorContract.DirectoryEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(directoryId)};
-
-                // Delete corresponding albums
-                String selectionAlbum = AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "=?";
-                delete(AnchorContract.AlbumEntry.CONTENT_URI, selectionAlbum, selectionArgs);
-
-                // Send notification about change
-                getContext().getContentResolver().notifyChange(uri, null);
-
-                getContext().getContentResolver().notifyChange(uri, null);
-                return database.delete(AnchorContract.DirectoryEntry.TABLE_NAME, selection, selectionArgs);
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                table = AnchorContract.DirectoryEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{AnchorContract.AlbumEntry.CONTENT_URI, AnchorContract.AudioEntry.CONTENT_URI, AnchorContract.BookmarkEntry.CONTENT_URI};
+                break;
             case ALBUM_ID:
                 // Delete a single row given by the ID in the URI
-                long albumId = ContentUris.parseId(uri);
                 selection = AnchorContract.AlbumEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(albumId)};
-
-                // Delete corresponding audio files
-                String selectionAudioFile = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
-                delete(AnchorContract.AudioEntry.CONTENT_URI, selectionAudioFile, selectionArgs);
-
-                // Send notification about change
-                getContext().getContentResolver().notifyChange(uri, null);
-
-                return database.delete(AnchorContract.AlbumEntry.TABLE_NAME, selection, selectionArgs);
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                table = AnchorContract.AlbumEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{AnchorContract.AudioEntry.CONTENT_URI, AnchorContract.BookmarkEntry.CONTENT_URI};
+                break;
             case AUDIO_ID:
                 // Delete a single row given by the ID in the URI
-                long audioId = ContentUris.parseId(uri);
                 selection = AnchorContract.AudioEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(audioId)};
-
-                // Delete corresponding bookmarks
-                String selectionBookmark = AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + "=?";
-                delete(AnchorContract.BookmarkEntry.CONTENT_URI, selectionBookmark, selectionArgs);
-
-                // Send notification about change
-                getContext().getContentResolver().notifyChange(uri, null);
-
-                return database.delete(AnchorContract.AudioEntry.TABLE_NAME, selection, selectionArgs);
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                table = AnchorContract.AudioEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{AnchorContract.BookmarkEntry.CONTENT_URI};
+                break;
             case BOOKMARK_ID:
                 // Delete a single row given by the ID in the URI
                 selection = AnchorContract.BookmarkEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-
-                // Send notification about change
-                getContext().getContentResolver().notifyChange(uri, null);
-
-                return database.delete(AnchorContract.BookmarkEntry.TABLE_NAME, selection, selectionArgs);
+                table = AnchorContract.BookmarkEntry.TABLE_NAME;
+                cascadedUris = new Uri[]{};
+                break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
+
+        int rowsDeleted;
+        List<Long> albumIds = Collections.emptyList();
+        if (table.equals(AnchorContract.AudioEntry.TABLE_NAME)) {
+            // The progress of the albums of deleted audio files is updated by the database. Look
+            // up the albums in the same transaction to notify the listeners of their progress.
+            database.beginTransaction();
+            try {
+                albumIds = getAlbumIds(database, selection, selectionArgs);
+                rowsDeleted = database.delete(table, selection, selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } else {
+            rowsDeleted = database.delete(table, selection, selectionArgs);
+        }
+
+        // If 1 or more rows were deleted, then notify all listeners that the data at the given
+        // URI and the data of the dependent tables has changed
+        if (rowsDeleted != 0) {
+            notifyChange(uri);
+            for (Uri cascadedUri : cascadedUris) {
+                notifyChange(cascadedUri);
+            }
+            for (long albumId : albumIds) {
+                notifyChange(ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, albumId));
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /*
+     * Get the albums of the audio files that match the selection
+     */
+    private static List<Long> getAlbumIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        List<Long> albumIds = new ArrayList<>();
+        try (Cursor c = database.query(true, AnchorContract.AudioEntry.TABLE_NAME, new String[]{AnchorContract.AudioEntry.COLUMN_ALBUM},
+                selection, selectionArgs, null, null, null, null)) {
+            while (c.moveToNext()) {
+                if (!c.isNull(0)) {
+                    albumIds.add(c.getLong(0));
+                }
+            }
+        }
+        return albumIds;
     }
 
+    /**
+     * Update the data at the given selection and selection arguments with the given ContentValues.
+     */
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        long startTime = System.nanoTime();
+        int rowsUpdated = performUpdate(uri, values, selection, selectionArgs);
+        recordCall("update", uri, selection, rowsUpdated, startTime);
+        return rowsUpdated;
+    }
+
+    /*
+     * Update the rows of the table given by the URI.
+     */
+    private int performUpdate(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case AUDIO:
@@ -455,9 +1089,7 @@ public class AnchorProvider extends ContentProvider {
                 return updateBookmark(uri, values, selection, selectionArgs);
             case AUDIO_ID:
                 // Update a single row given by the ID in the URI
-                selection = AnchorContract.AudioEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateAudioFile(uri, values, selection, selectionArgs);
+                return updateSingleAudioFile(uri, values);
             case ALBUM_ID:
                 selection = AnchorContract.AlbumEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
@@ -494,9 +1126,62 @@ public class AnchorProvider extends ContentProvider {
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
             if (uri != AnchorContract.AlbumEntry.CONTENT_URI)
-                getContext().getContentResolver().notifyChange(AnchorContract.AlbumEntry.CONTENT_URI, null);
+                notifyChange(AnchorContract.AlbumEntry.CONTENT_URI);
+        }
+
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the audio file given by the ID in the URI. Only the audio file row and the progress
+     * of its album are notified so that observers of the album list are not invalidated whenever
+     * the position of a track is saved.
+     */
+    private int updateSingleAudioFile(Uri uri, ContentValues values) {
+        // Moving an audio file to another album changes two albums, notify the whole table instead
+        if (values.containsKey(AnchorContract.AudioEntry.COLUMN_ALBUM)) {
+            String selection = AnchorContract.AudioEntry._ID + "=?";
+            String[] selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+            return updateAudioFile(uri, values, selection, selectionArgs);
+        }
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Sanity check values
+        if (!isValidAudioFileEntry(values)) {
+            throw new IllegalArgumentException("Sanity check failed: corrupted content values");
+        }
+
+        // Get writable database
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        String selection = AnchorContract.AudioEntry._ID + "=?";
+        String[] selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+
+        // Update the row and look up its album within one transaction
+        int rowsUpdated;
+        long albumId = -1;
+        db.beginTransaction();
+        try {
+            rowsUpdated = db.update(AnchorContract.AudioEntry.TABLE_NAME, values, selection, selectionArgs);
+            if (rowsUpdated != 0) {
+                albumId = DatabaseUtils.longForQuery(db, "SELECT " + AnchorContract.AudioEntry.COLUMN_ALBUM
+                        + " FROM " + AnchorContract.AudioEntry.TABLE_NAME + " WHERE " + selection, selectionArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Notify the listeners of the audio file and of the progress of its album
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            notifyChange(ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, albumId));
         }
 
         return rowsUpdated;
@@ -525,7 +1210,7 @@ public class AnchorProvider extends ContentProvider {
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return rowsUpdated;
@@ -554,7 +1239,7 @@ public class AnchorProvider extends ContentProvider {
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return rowsUpdated;
@@ -650,41 +1335,125 @@ public class AnchorProvider extends ContentProvider {
     }
 
     /*
-     * Return ids of elements in given table that are affected by the given query.
-     */
-    private ArrayList<Long> getAffectedIds(Uri uri, String selection, String[] selectionArgs) {
-        ArrayList<Long> ids = new ArrayList<>();
-
-        // Determine which table is queried
-        String column;
-        if (uri == AnchorContract.DirectoryEntry.CONTENT_URI) {
-            column = AnchorContract.DirectoryEntry._ID;
-        } else if (uri == AnchorContract.AlbumEntry.CONTENT_URI) {
-            column = AnchorContract.AlbumEntry._ID;
-        } else if (uri == AnchorContract.AudioEntry.CONTENT_URI) {
-            column = AnchorContract.AudioEntry._ID;
-        } else if (uri == AnchorContract.BookmarkEntry.CONTENT_URI) {
-            column = AnchorContract.BookmarkEntry._ID;
-        } else {
-            return ids;
+     * Record the call in the statistics and log it together with its selection and the calling
+     * thread if it took longer than the slow call threshold.
+     */
+    private void recordCall(String operation, Uri uri, String selection, long rows, long startTime) {
+        long duration = System.nanoTime() - startTime;
+        List<String> segments = uri.getPathSegments();
+        String uriPattern = segments.size() > 1 ? segments.get(0) + "/#" : segments.get(0);
+        if (mStats.record(operation, uriPattern, rows, duration)) {
+            Log.w(LOG_TAG, String.format(Locale.ROOT, "Slow %s of %s took %d ms on thread %s, selection: %s",
+                    operation, uri, duration / 1000000, Thread.currentThread().getName(), selection));
         }
+    }
 
-        // Query the database
-        Cursor c = query(uri, new String[]{column}, selection, selectionArgs, null);
+    /**
+     * Print the call statistics and the hit rate of the entity cache, e.g. with
+     * adb shell dumpsys activity provider com.prangesoftwaresolutions.audioanchor/.data.AnchorProvider
+     * The argument "reset" clears the statistics, "threshold <ms>" sets the slow call threshold
+     * and "json" prints the statistics as JSON object, e.g. to compare them with a baseline.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0) {
+            if (args[0].equals("json")) {
+                Map<String, Object> snapshot = mStats.snapshot();
+                synchronized (mNotificationLock) {
+                    snapshot.put("sent_notifications", mSentNotifications);
+                    snapshot.put("suppressed_notifications", mSuppressedNotifications);
+                }
+                snapshot.put("entity_cache_hits", EntityCache.hitCount());
+                snapshot.put("entity_cache_misses", EntityCache.missCount());
+                writer.println(new Gson().toJson(snapshot));
+                return;
+            } else if (args[0].equals("reset")) {
+                mStats.reset();
+            } else if (args[0].equals("threshold") && args.length > 1) {
+                try {
+                    mStats.setSlowCallThreshold(Long.parseLong(args[1]));
+                } catch (NumberFormatException e) {
+                    writer.println("Invalid threshold " + args[1]);
+                }
+            }
+        }
 
-        if (c == null) {
-            return ids;
-        } else if (c.getCount() < 1) {
-            c.close();
-            return ids;
+        mStats.dump(writer);
+        synchronized (mNotificationLock) {
+            writer.println("Notifications: " + mSentNotifications + " sent, " + mSuppressedNotifications + " suppressed");
         }
+        writer.println("Entity cache: " + EntityCache.hitCount() + " hits, " + EntityCache.missCount() + " misses");
+    }
 
-        while (c.moveToNext()) {
-            long id = c.getLong(c.getColumnIndex(column));
-            ids.add(id);
+    /*
+     * Notify all listeners that the data at the given URI has changed. While a batch operation is
+     * running on the current thread, the notification is deferred until the batch has finished.
+     */
+    private void notifyChange(Uri uri) {
+        // Cached entities have to be dropped right away, even if the notification is held back.
+        // Inside a batch, other threads can still load and cache the last committed state until
+        // the transaction is committed, so the batch invalidates them again when it ends.
+        EntityCache.invalidate(uri);
+
+        NotificationBatch batch = mBatch.get();
+        if (batch != null) {
+            if (!batch.mUris.add(uri)) {
+                synchronized (mNotificationLock) {
+                    mSuppressedNotifications++;
+                }
+            }
+            return;
+        }
+        synchronized (mNotificationLock) {
+            mSentNotifications++;
         }
-        c.close();
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
 
-        return ids;
+    /*
+     * Start collecting the change notifications of the current thread instead of sending them
+     * immediately. Batches can be nested.
+     */
+    private void beginBatch() {
+        NotificationBatch batch = mBatch.get();
+        if (batch == null) {
+            batch = new NotificationBatch();
+            mBatch.set(batch);
+        }
+        batch.mDepth++;
+    }
+
+    /*
+     * Send the change notifications collected since the outermost beginBatch() call of the
+     * current thread, once per URI. The outermost batch ends after the transactions within it
+     * have ended, see applyBatch() and bulkInsert().
+     */
+    private void endBatch() {
+        NotificationBatch batch = mBatch.get();
+        if (batch == null) {
+            Log.e(LOG_TAG, "endBatch() called without matching beginBatch()");
+            return;
+        }
+        batch.mDepth--;
+        if (batch.mDepth > 0) {
+            return;
+        }
+        mBatch.remove();
+
+        synchronized (mNotificationLock) {
+            mSentNotifications += batch.mUris.size();
+        }
+        for (Uri uri : batch.mUris) {
+            EntityCache.invalidate(uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+     * Change notifications collected by the batch of one thread
+     */
+    private static class NotificationBatch {
+        final Set<Uri> mUris = new LinkedHashSet<>();
+        int mDepth = 0;
     }
 }
@@ -0,0 +1,42 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * Typed writes of single columns which are executed by the AnchorProvider as precompiled
+ * statements. Used for the frequent writes during playback instead of the generic update path.
+ */
+
+public class AnchorWriter {
+
+    private AnchorWriter() {
+    }
+
+    /*
+     * Set the completed time of the audio file with the given id
+     */
+    public static void setCompletedTime(Context context, long audioId, int completedTime) {
+        call(context, AnchorContract.METHOD_SET_COMPLETED_TIME, audioId, completedTime);
+    }
+
+    /*
+     * Set the last played audio file of the album with the given id
+     */
+    public static void setLastPlayed(Context context, long albumId, long audioId) {
+        call(context, AnchorContract.METHOD_SET_LAST_PLAYED, albumId, audioId);
+    }
+
+    /*
+     * Set the position of the bookmark with the given id
+     */
+    public static void setBookmarkPosition(Context context, long bookmarkId, long position) {
+        call(context, AnchorContract.METHOD_SET_BOOKMARK_POSITION, bookmarkId, position);
+    }
+
+    private static void call(Context context, String method, long id, long value) {
+        Bundle extras = new Bundle();
+        extras.putLong(AnchorContract.KEY_VALUE, value);
+        context.getContentResolver().call(AnchorContract.BASE_CONTENT_URI, method, Long.toString(id), extras);
+    }
+}
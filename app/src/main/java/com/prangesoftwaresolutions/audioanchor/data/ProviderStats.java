@@ -0,0 +1,128 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Call statistics of the AnchorProvider. For every operation and URI pattern the number of calls,
+ * the number of rows and a latency histogram are recorded. Unknown row counts, e.g. of queries,
+ * are passed as -1 and not added.
+ */
+
+final class ProviderStats {
+
+    // Upper limits of the latency histogram buckets in milliseconds. The last bucket holds all
+    // calls that took longer than the last limit.
+    private static final long[] BUCKET_LIMITS_MS = {1, 4, 16, 64, 256};
+
+    static final long DEFAULT_SLOW_CALL_THRESHOLD_MS = 100;
+
+    private final Map<String, Entry> mEntries = new TreeMap<>();
+    private long mSlowCallThresholdMs = DEFAULT_SLOW_CALL_THRESHOLD_MS;
+
+    /*
+     * Statistics of one operation on one URI pattern
+     */
+    static class Entry {
+        long mCalls = 0;
+        long mRows = 0;
+        long mTotalNanos = 0;
+        long mMaxNanos = 0;
+        final long[] mHistogram = new long[BUCKET_LIMITS_MS.length + 1];
+    }
+
+    /*
+     * Record a call and return whether it took longer than the slow call threshold
+     */
+    synchronized boolean record(String operation, String uriPattern, long rows, long durationNanos) {
+        String key = operation + " " + uriPattern;
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+        entry.mCalls++;
+        entry.mRows += Math.max(rows, 0);
+        entry.mTotalNanos += durationNanos;
+        entry.mMaxNanos = Math.max(entry.mMaxNanos, durationNanos);
+
+        long durationMs = durationNanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length && durationMs >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        entry.mHistogram[bucket]++;
+
+        return durationMs >= mSlowCallThresholdMs;
+    }
+
+    synchronized void setSlowCallThreshold(long thresholdMs) {
+        mSlowCallThresholdMs = thresholdMs;
+    }
+
+    synchronized void reset() {
+        mEntries.clear();
+    }
+
+    /*
+     * Get a copy of the statistics as nested maps and lists, e.g. to serialize them to JSON.
+     * Durations are given in nanoseconds.
+     */
+    synchronized Map<String, Object> snapshot() {
+        List<Long> bucketLimits = new ArrayList<>();
+        for (long limit : BUCKET_LIMITS_MS) {
+            bucketLimits.add(limit);
+        }
+
+        Map<String, Object> calls = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            List<Long> histogram = new ArrayList<>();
+            for (long bucketCount : entry.mHistogram) {
+                histogram.add(bucketCount);
+            }
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("calls", entry.mCalls);
+            values.put("rows", entry.mRows);
+            values.put("total_nanos", entry.mTotalNanos);
+            values.put("max_nanos", entry.mMaxNanos);
+            values.put("histogram", histogram);
+            calls.put(mapEntry.getKey(), values);
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("slow_call_threshold_ms", mSlowCallThresholdMs);
+        snapshot.put("histogram_limits_ms", bucketLimits);
+        snapshot.put("calls", calls);
+        return snapshot;
+    }
+
+    /*
+     * Print one line per operation and URI pattern. The lines are sorted by operation and pattern
+     * so that dumps can be compared.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Provider calls (slow call threshold " + mSlowCallThresholdMs + " ms):");
+        if (mEntries.isEmpty()) {
+            writer.println("  none");
+            return;
+        }
+        for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            StringBuilder line = new StringBuilder();
+            line.append(String.format(Locale.ROOT, "  %s: %d calls, %d rows, total %.1f ms, avg %.2f ms, max %.2f ms, histogram",
+                    mapEntry.getKey(), entry.mCalls, entry.mRows, entry.mTotalNanos / 1e6,
+                    entry.mTotalNanos / 1e6 / entry.mCalls, entry.mMaxNanos / 1e6));
+            for (int i = 0; i < entry.mHistogram.length; i++) {
+                String bucket = i < BUCKET_LIMITS_MS.length ? "<" + BUCKET_LIMITS_MS[i] : ">=" + BUCKET_LIMITS_MS[BUCKET_LIMITS_MS.length - 1];
+                line.append(" ").append(bucket).append("ms:").append(entry.mHistogram[i]);
+            }
+            writer.println(line);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.prangesoftwaresolutions.audioanchor.R;
+import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
+import com.prangesoftwaresolutions.audioanchor.utils.BitmapUtils;
+import com.prangesoftwaresolutions.audioanchor.utils.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * App-wide cache of album covers with two tiers. The memory tier holds decoded bitmaps and is
+ * sized by their bytes. The disk tier holds covers that are already scaled to the requested
+ * size, keyed by the path of the source, its modification time and the size, so that a changed
+ * cover is decoded again. Embedded pictures of audio files are cached the same way.
+ */
+
+public final class CoverCache {
+    private static final String LOG_TAG = CoverCache.class.getSimpleName();
+
+    private static final String DISK_CACHE_DIR = "covers";
+    private static final long MAX_DISK_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+
+    // Size that is accounted for an audio file without embedded picture in the memory tier
+    private static final int EMPTY_ENTRY_SIZE = 64;
+
+    // Modification time of sources that do not exist
+    private static final long MISSING = -1;
+
+    private static CoverCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Entry> mMemoryCache;
+    private final File mDiskCacheDir;
+    private long mDiskCacheSize = -1;
+
+    // Statistics, guarded by the instance
+    private long mMemoryHits = 0;
+    private long mDiskHits = 0;
+    private long mMisses = 0;
+    private long mDecodeNanos = 0;
+    private long mDiskReadNanos = 0;
+
+    /*
+     * A decoded cover together with the modification time of its source. The bitmap is null for
+     * audio files without embedded picture.
+     */
+    private static class Entry {
+        final Bitmap mBitmap;
+        final long mLastModified;
+
+        Entry(Bitmap bitmap, long lastModified) {
+            mBitmap = bitmap;
+            mLastModified = lastModified;
+        }
+    }
+
+    /*
+     * Decodes a cover from its source, scaled down to roughly the requested size
+     */
+    private interface Decoder {
+        Bitmap decode(int reqSize);
+    }
+
+    private CoverCache(Context context) {
+        mContext = context;
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+
+        // Use a fraction of the available memory for all covers of the app
+        int maxMemory = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        mMemoryCache = new LruCache<String, Entry>(maxMemory) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mBitmap != null ? entry.mBitmap.getByteCount() : EMPTY_ENTRY_SIZE;
+            }
+        };
+    }
+
+    public static synchronized CoverCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CoverCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /*
+     * Get the cover image at the given file path or document URI scaled down to the requested
+     * size. Returns null if there is no image at the path or it cannot be decoded.
+     */
+    public Bitmap getCover(String coverPath, int reqSize) {
+        if (coverPath == null) {
+            return null;
+        }
+        return get(coverPath, coverPath, reqSize, size -> {
+            if (isDocument(coverPath)) {
+                return BitmapUtils.decodeSampledBitmap(mContext.getContentResolver(), Uri.parse(coverPath), size, size);
+            }
+            return BitmapUtils.decodeSampledBitmap(coverPath, size, size);
+        });
+    }
+
+    /*
+     * Get the cover image at the given path only if it is in the memory tier, so that it can be
+     * shown without waiting for the disk. Covers in files are checked for changes with a single
+     * stat call. Covers in document trees are not checked, since that needs a provider query.
+     */
+    public Bitmap peekCover(String coverPath, int reqSize) {
+        if (coverPath == null) {
+            return null;
+        }
+        Entry entry = mMemoryCache.get(coverPath + "@" + reqSize);
+        if (entry == null) {
+            return null;
+        }
+        if (!isDocument(coverPath) && entry.mLastModified != getLastModified(coverPath)) {
+            return null;
+        }
+        synchronized (this) {
+            mMemoryHits++;
+        }
+        return entry.mBitmap;
+    }
+
+    /*
+     * Get the picture embedded in the given audio file scaled down to the requested size.
+     * Returns null if the audio file does not contain a picture. That an audio file has no
+     * picture is cached as well, so the file is not read again.
+     */
+    public Bitmap getEmbeddedCover(AudioFile audioFile, int reqSize) {
+        return get("embedded:" + audioFile.getPath(), audioFile.getPath(), reqSize, size -> {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                Utils.setDataSource(mContext, retriever, audioFile);
+                byte[] coverData = retriever.getEmbeddedPicture();
+                return coverData != null ? BitmapUtils.decodeSampledBitmap(coverData, size, size) : null;
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Could not read embedded picture of " + audioFile.getPath() + ": " + e);
+                return null;
+            } finally {
+                RetrieverMetadataProbe.release(retriever);
+            }
+        });
+    }
+
+    /*
+     * Get the default cover scaled down to the requested size. It is only kept in memory since
+     * decoding a resource is cheap.
+     */
+    public Bitmap getDefaultCover(int reqSize) {
+        String key = "resource:" + R.drawable.empty_cover_grey_blue + "@" + reqSize;
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            return entry.mBitmap;
+        }
+        Bitmap bitmap = BitmapUtils.decodeSampledBitmap(mContext.getResources(), R.drawable.empty_cover_grey_blue, reqSize, reqSize);
+        if (bitmap != null) {
+            mMemoryCache.put(key, new Entry(bitmap, 0));
+        }
+        return bitmap;
+    }
+
+    /*
+     * Get the cover with the given key from the memory tier, then from the disk tier and decode
+     * it from its source if neither has it. The source path is only used to check whether the
+     * cached cover is still up to date.
+     */
+    private Bitmap get(String key, String sourcePath, int reqSize, Decoder decoder) {
+        long lastModified = getLastModified(sourcePath);
+        if (lastModified == MISSING) {
+            return null;
+        }
+
+        String memoryKey = key + "@" + reqSize;
+        Entry entry = mMemoryCache.get(memoryKey);
+        if (entry != null && entry.mLastModified == lastModified) {
+            synchronized (this) {
+                mMemoryHits++;
+            }
+            return entry.mBitmap;
+        }
+
+        File diskFile = getDiskFile(memoryKey + "@" + lastModified);
+        long start = System.nanoTime();
+        if (diskFile.exists()) {
+            // An empty file marks an audio file without embedded picture
+            Bitmap bitmap = diskFile.length() > 0 ? BitmapFactory.decodeFile(diskFile.getPath()) : null;
+            if (bitmap != null || diskFile.length() == 0) {
+                synchronized (this) {
+                    mDiskHits++;
+                    mDiskReadNanos += System.nanoTime() - start;
+                }
+                // Keep recently used files when the disk tier is trimmed
+                diskFile.setLastModified(System.currentTimeMillis());
+                putMemory(memoryKey, new Entry(bitmap, lastModified));
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = decoder.decode(reqSize);
+        if (bitmap != null) {
+            bitmap = scaleToFit(bitmap, reqSize);
+        }
+        synchronized (this) {
+            mMisses++;
+            mDecodeNanos += System.nanoTime() - start;
+        }
+
+        // Covers that could not be decoded are not cached. They might be written right now.
+        boolean isEmbedded = key.startsWith("embedded:");
+        if (bitmap != null || isEmbedded) {
+            writeDiskFile(diskFile, bitmap);
+            putMemory(memoryKey, new Entry(bitmap, lastModified));
+        }
+        return bitmap;
+    }
+
+    /*
+     * Store the entry in the memory tier unless it would displace most of the other covers
+     */
+    private void putMemory(String key, Entry entry) {
+        if (entry.mBitmap == null || entry.mBitmap.getByteCount() <= mMemoryCache.maxSize() / 4) {
+            mMemoryCache.put(key, entry);
+        }
+    }
+
+    /*
+     * Scale the bitmap down such that its larger side is the requested size. Sampled bitmaps are
+     * up to twice as large as requested.
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int reqSize) {
+        int maxSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (maxSide <= reqSize || reqSize <= 0) {
+            return bitmap;
+        }
+        float scale = (float) reqSize / maxSide;
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    /*
+     * Get the modification time of the file or document at the given path or MISSING if it does
+     * not exist. Documents that do not report a modification time are never decoded again.
+     */
+    private long getLastModified(String path) {
+        if (!isDocument(path)) {
+            long lastModified = new File(path).lastModified();
+            return lastModified != 0 ? lastModified : MISSING;
+        }
+
+        ContentResolver resolver = mContext.getContentResolver();
+        String[] projection = {DocumentsContract.Document.COLUMN_LAST_MODIFIED};
+        try (Cursor c = resolver.query(Uri.parse(path), projection, null, null, null)) {
+            if (c == null || !c.moveToFirst()) {
+                return MISSING;
+            }
+            return c.isNull(0) ? 0 : c.getLong(0);
+        } catch (RuntimeException e) {
+            // The document does not exist anymore or the permission for the tree was revoked
+            return MISSING;
+        }
+    }
+
+    private static boolean isDocument(String path) {
+        return path.startsWith(ContentResolver.SCHEME_CONTENT + ":");
+    }
+
+    private File getDiskFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+                name.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return new File(mDiskCacheDir, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Write the scaled cover to the disk tier. The file is written under a temporary name first,
+     * so that a cover that is read concurrently is never incomplete. A null bitmap is written as
+     * empty file.
+     */
+    private void writeDiskFile(File diskFile, Bitmap bitmap) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile("cover", ".tmp", mDiskCacheDir);
+            if (bitmap != null) {
+                try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                    // Keep transparent covers transparent
+                    Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+                    bitmap.compress(format, JPEG_QUALITY, out);
+                }
+            }
+            long length = tempFile.length();
+            if (tempFile.renameTo(diskFile)) {
+                tempFile = null;
+                addDiskCacheSize(length);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not write cover to disk cache: " + e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /*
+     * Account for a new file in the disk tier and delete the least recently used files once the
+     * disk tier has grown too large
+     */
+    private synchronized void addDiskCacheSize(long length) {
+        File[] files = null;
+        if (mDiskCacheSize < 0) {
+            files = mDiskCacheDir.listFiles();
+            mDiskCacheSize = 0;
+            if (files != null) {
+                for (File file : files) {
+                    mDiskCacheSize += file.length();
+                }
+            }
+        } else {
+            mDiskCacheSize += length;
+        }
+        if (mDiskCacheSize <= MAX_DISK_CACHE_SIZE) {
+            return;
+        }
+
+        if (files == null) {
+            files = mDiskCacheDir.listFiles();
+            if (files == null) {
+                return;
+            }
+        }
+        long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+
+        // Trim to three quarters of the maximum size so that not every write trims again
+        for (int i = 0; i < order.length && mDiskCacheSize > MAX_DISK_CACHE_SIZE * 3 / 4; i++) {
+            File file = files[order[i]];
+            long fileLength = file.length();
+            if (file.delete()) {
+                mDiskCacheSize -= fileLength;
+            }
+        }
+    }
+
+    /*
+     * Get a copy of the statistics, e.g. to serialize them to JSON. The saved decode time is
+     * estimated from the average time of decoding a cover from its source.
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("memory_hits", mMemoryHits);
+        snapshot.put("disk_hits", mDiskHits);
+        snapshot.put("misses", mMisses);
+        snapshot.put("hit_rate", getHitRate());
+        snapshot.put("decode_nanos", mDecodeNanos);
+        snapshot.put("disk_read_nanos", mDiskReadNanos);
+        snapshot.put("saved_nanos", getSavedNanos());
+        snapshot.put("memory_bytes", mMemoryCache.size());
+        snapshot.put("disk_bytes", Math.max(mDiskCacheSize, 0));
+        return snapshot;
+    }
+
+    public synchronized void resetStatistics() {
+        mMemoryHits = 0;
+        mDiskHits = 0;
+        mMisses = 0;
+        mDecodeNanos = 0;
+        mDiskReadNanos = 0;
+    }
+
+    /*
+     * Print the statistics in a single line
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.ROOT, "Cover cache: %d memory hits, %d disk hits, %d misses, hit rate %.1f%%, decoding took %.1f ms, saved about %.1f ms, %d KB in memory",
+                mMemoryHits, mDiskHits, mMisses, getHitRate() * 100, mDecodeNanos / 1e6, getSavedNanos() / 1e6, mMemoryCache.size() / 1024));
+    }
+
+    private double getHitRate() {
+        long requests = mMemoryHits + mDiskHits + mMisses;
+        return requests > 0 ? (double) (mMemoryHits + mDiskHits) / requests : 0;
+    }
+
+    private long getSavedNanos() {
+        if (mMisses == 0) {
+            return 0;
+        }
+        long averageDecodeNanos = mDecodeNanos / mMisses;
+        return Math.max(averageDecodeNanos * (mMemoryHits + mDiskHits) - mDiskReadNanos, 0);
+    }
+}
@@ -0,0 +1,113 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The entries of a directory classified into audio files, images and subdirectories with a single
+ * listing. Audio files and images are recognized by a lookup of their extension without touching
+ * the files. Entries are only checked for being a readable directory if subdirectories are listed.
+ */
+
+public class DirectoryListing {
+
+    private static final Set<String> AUDIO_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "mp3", "wma", "ogg", "wav", "flac", "m4a", "m4b", "aac", "3gp", "gsm", "mid", "mkv", "opus"));
+    private static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "webp"));
+
+    private final long mLastModified;
+    private final int mEntryCount;
+    private final ArrayList<String> mAudioFiles = new ArrayList<>();
+    private final ArrayList<String> mImages = new ArrayList<>();
+    private final ArrayList<String> mSubdirectories = new ArrayList<>();
+
+    /*
+     * List the given directory. Hidden audio files and subdirectories are left out unless
+     * showHidden is set. Subdirectories are only collected if listSubdirectories is set, since
+     * that needs a stat call per entry.
+     */
+    public DirectoryListing(File dir, boolean showHidden, boolean listSubdirectories) {
+        // The modification time is read before the directory is listed, so changes made while
+        // the result is processed are detected next time
+        mLastModified = dir.lastModified();
+        String[] names = dir.list();
+        if (names == null) {
+            mEntryCount = -1;
+            return;
+        }
+        mEntryCount = names.length;
+
+        for (String name : names) {
+            boolean isHidden = name.startsWith(".");
+            if (isAudioFile(name)) {
+                if (showHidden || !isHidden) {
+                    mAudioFiles.add(name);
+                }
+            } else if (isImage(name)) {
+                mImages.add(name);
+            }
+            if (listSubdirectories && (showHidden || !isHidden)) {
+                File file = new File(dir, name);
+                if (file.isDirectory() && file.canRead()) {
+                    mSubdirectories.add(name);
+                }
+            }
+        }
+    }
+
+    private static String getExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot == -1) {
+            return null;
+        }
+        return name.substring(dot + 1);
+    }
+
+    /*
+     * Check whether the file with the given name is a supported audio file by its extension
+     */
+    public static boolean isAudioFile(String name) {
+        String extension = getExtension(name);
+        return extension != null && AUDIO_EXTENSIONS.contains(extension);
+    }
+
+    /*
+     * Check whether the file with the given name is a cover image candidate by its extension
+     */
+    public static boolean isImage(String name) {
+        String extension = getExtension(name);
+        return extension != null && IMAGE_EXTENSIONS.contains(extension);
+    }
+
+    /*
+     * Modification time of the directory or 0 if it does not exist
+     */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /*
+     * Number of entries in the directory including the ones that are left out or -1 if the
+     * directory could not be listed
+     */
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    public List<String> getAudioFiles() {
+        return mAudioFiles;
+    }
+
+    public List<String> getImages() {
+        return mImages;
+    }
+
+    public List<String> getSubdirectories() {
+        return mSubdirectories;
+    }
+}
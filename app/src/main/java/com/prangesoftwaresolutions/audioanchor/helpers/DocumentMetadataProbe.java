@@ -0,0 +1,62 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.content.ContentResolver;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * MetadataProbe for the documents of a document tree, which are given by their content URI. The
+ * headers are read through a file descriptor of the document like for files, MediaMetadataRetriever
+ * is only the fallback.
+ */
+
+public class DocumentMetadataProbe implements MetadataProbe {
+
+    private final ContentResolver mContentResolver;
+
+    public DocumentMetadataProbe(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    @Override
+    public int getDuration(String uriString) {
+        Uri uri = Uri.parse(uriString);
+        try (ParcelFileDescriptor descriptor = mContentResolver.openFileDescriptor(uri, "r")) {
+            if (descriptor == null) {
+                return 0;
+            }
+
+            // The document id usually ends with the file name. The stream is not closed since the
+            // file descriptor belongs to the ParcelFileDescriptor.
+            long duration = 0;
+            String name = uri.getLastPathSegment() != null ? uri.getLastPathSegment().toLowerCase(Locale.ROOT) : "";
+            try {
+                FileInputStream stream = new FileInputStream(descriptor.getFileDescriptor());
+                duration = HeaderMetadataProbe.getHeaderDuration(stream.getChannel(), name);
+            } catch (IOException | RuntimeException e) {
+                // Let the retriever deal with the document
+            }
+            if (duration > 0 && duration <= Integer.MAX_VALUE) {
+                return (int) duration;
+            }
+
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(descriptor.getFileDescriptor());
+                String durationString = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+                return durationString != null ? Integer.parseInt(durationString) : 0;
+            } catch (RuntimeException e) {
+                return 0;
+            } finally {
+                RetrieverMetadataProbe.release(retriever);
+            }
+        } catch (IOException | SecurityException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a document tree of the storage access framework for albums. Every directory is listed
+ * with a single query for its children that returns all needed columns at once, instead of one
+ * query per property of every DocumentFile. The directories are queried in parallel.
+ */
+
+public class DocumentTreeScanner {
+
+    private static final String[] CHILD_PROJECTION = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE
+    };
+
+    private final ContentResolver mContentResolver;
+    private final Uri mTreeUri;
+    private final boolean mShowHidden;
+
+    /*
+     * A directory of the tree with the audio files and the cover image candidate in it
+     */
+    public static class AlbumDirectory {
+        // Names of the audio files mapped to their document URIs
+        final LinkedHashMap<String, String> mAudioFiles = new LinkedHashMap<>();
+        String mCoverUri = null;
+
+        // Document ids and titles of the subdirectories, only needed while scanning
+        final ArrayList<String> mSubdirectoryIds = new ArrayList<>();
+        final ArrayList<String> mSubdirectoryTitles = new ArrayList<>();
+    }
+
+    public DocumentTreeScanner(ContentResolver contentResolver, Uri treeUri, boolean showHidden) {
+        mContentResolver = contentResolver;
+        mTreeUri = treeUri;
+        mShowHidden = showHidden;
+    }
+
+    /*
+     * Get the directories of the tree that contain audio files in code point order of their
+     * titles. The title of a directory is its path relative to the root of the tree, the root
+     * itself is titled by the last part of its document id.
+     */
+    public TreeMap<String, AlbumDirectory> scan(ExecutorService executor) throws InterruptedException {
+        TreeMap<String, AlbumDirectory> albumDirectories = new TreeMap<>(SyncDiff.CODE_POINT_ORDER);
+        CompletionService<AlbumDirectory> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<AlbumDirectory>, String> titles = new LinkedHashMap<>();
+
+        String rootId = DocumentsContract.getTreeDocumentId(mTreeUri);
+        try {
+            titles.put(completion.submit(() -> listDirectory(rootId, "")), "");
+            int pending = 1;
+            while (pending > 0) {
+                Future<AlbumDirectory> listing = completion.take();
+                pending--;
+                AlbumDirectory directory;
+                try {
+                    directory = listing.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Failed to list " + mTreeUri, e.getCause());
+                }
+
+                String title = titles.get(listing);
+                if (!directory.mAudioFiles.isEmpty()) {
+                    albumDirectories.put(title.isEmpty() ? getRootTitle(rootId) : title, directory);
+                }
+                for (int i = 0; i < directory.mSubdirectoryIds.size(); i++) {
+                    String subdirectoryId = directory.mSubdirectoryIds.get(i);
+                    String subdirectoryTitle = directory.mSubdirectoryTitles.get(i);
+                    titles.put(completion.submit(() -> listDirectory(subdirectoryId, subdirectoryTitle)), subdirectoryTitle);
+                    pending++;
+                }
+            }
+        } finally {
+            // Stop the listings that are still running if the scan was cancelled
+            for (Future<AlbumDirectory> listing : titles.keySet()) {
+                listing.cancel(true);
+            }
+        }
+        return albumDirectories;
+    }
+
+    /*
+     * List the children of the directory with the given document id with a single query
+     */
+    private AlbumDirectory listDirectory(String documentId, String title) {
+        AlbumDirectory directory = new AlbumDirectory();
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(mTreeUri, documentId);
+        try (Cursor c = mContentResolver.query(childrenUri, CHILD_PROJECTION, null, null, null)) {
+            if (c == null) {
+                return directory;
+            }
+            while (c.moveToNext()) {
+                String childId = c.getString(0);
+                String name = c.getString(1);
+                String mimeType = c.getString(2);
+                if (name == null || (!mShowHidden && name.startsWith("."))) {
+                    continue;
+                }
+
+                if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType)) {
+                    directory.mSubdirectoryIds.add(childId);
+                    directory.mSubdirectoryTitles.add(title.isEmpty() ? name : title + "/" + name);
+                } else if ((mimeType != null && mimeType.startsWith("audio/")) || DirectoryListing.isAudioFile(name)) {
+                    Uri uri = DocumentsContract.buildDocumentUriUsingTree(mTreeUri, childId);
+                    directory.mAudioFiles.put(name, uri.toString());
+                } else if (directory.mCoverUri == null && DirectoryListing.isImage(name)) {
+                    // No way of knowing which image is the correct one, so simply choose one.
+                    directory.mCoverUri = DocumentsContract.buildDocumentUriUsingTree(mTreeUri, childId).toString();
+                }
+            }
+        }
+        return directory;
+    }
+
+    /*
+     * Document ids of the external storage provider look like "primary:Audiobooks/Fantasy"
+     */
+    private static String getRootTitle(String rootId) {
+        int separator = Math.max(rootId.lastIndexOf('/'), rootId.lastIndexOf(':'));
+        String title = rootId.substring(separator + 1);
+        return title.isEmpty() ? rootId : title;
+    }
+}
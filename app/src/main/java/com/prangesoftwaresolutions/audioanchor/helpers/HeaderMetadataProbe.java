@@ -0,0 +1,393 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * MetadataProbe that reads the duration from the container headers of MP3, MP4, FLAC, Ogg and
+ * WAV files. Only the few bytes that are needed are read, which is much cheaper than setting up a
+ * native extractor. Files of other formats and files whose headers cannot be parsed are passed to
+ * the fallback probe.
+ */
+
+public class HeaderMetadataProbe implements MetadataProbe {
+
+    // Maximum number of bytes after the ID3v2 tag that are searched for the first MP3 frame
+    private static final int MP3_SYNC_SEARCH_LENGTH = 64 * 1024;
+    // Maximum size of an Ogg page, the last page is searched for in this many bytes at the end
+    private static final int OGG_MAX_PAGE_LENGTH = 65307;
+    private static final int OPUS_SAMPLE_RATE = 48000;
+
+    // MP3 bitrates in kbit/s by [MPEG 1 or 2/2.5][layer I, II, III][bitrate index]
+    private static final int[][][] MP3_BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+    // MP3 sample rates in Hz by [MPEG 1, 2, 2.5][sample rate index]
+    private static final int[][] MP3_SAMPLE_RATES = {
+            {44100, 48000, 32000},
+            {22050, 24000, 16000},
+            {11025, 12000, 8000}
+    };
+
+    private final MetadataProbe mFallback;
+
+    /*
+     * Header of an MPEG audio frame
+     */
+    private static class Mp3Frame {
+        boolean mIsMpeg1;
+        boolean mIsMono;
+        int mSamplesPerFrame;
+        int mSampleRate;
+        int mBitrate;
+        int mLength;
+    }
+
+    public HeaderMetadataProbe(MetadataProbe fallback) {
+        mFallback = fallback;
+    }
+
+    @Override
+    public int getDuration(String path) {
+        long duration = 0;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            duration = getHeaderDuration(file.getChannel(), path.toLowerCase(Locale.ROOT));
+        } catch (IOException | RuntimeException e) {
+            // Let the fallback probe deal with the file
+        }
+        if (duration <= 0 || duration > Integer.MAX_VALUE) {
+            return mFallback.getDuration(path);
+        }
+        return (int) duration;
+    }
+
+    /*
+     * Get the duration in milliseconds from the headers of the file or 0 if it is unknown. The
+     * format is chosen by the extension of the given lower case name.
+     */
+    static long getHeaderDuration(FileChannel channel, String path) throws IOException {
+        if (path.endsWith(".mp3")) {
+            return getMp3Duration(channel);
+        } else if (path.endsWith(".m4a") || path.endsWith(".m4b") || path.endsWith(".3gp")) {
+            return getMp4Duration(channel);
+        } else if (path.endsWith(".flac")) {
+            return getFlacDuration(channel);
+        } else if (path.endsWith(".ogg") || path.endsWith(".opus")) {
+            return getOggDuration(channel);
+        } else if (path.endsWith(".wav")) {
+            return getWavDuration(channel);
+        }
+        return 0;
+    }
+
+    /*
+     * Read up to length bytes at the given position. The returned buffer is shorter if the end of
+     * the file is reached.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, String tag) {
+        if (buffer.limit() < offset + tag.length()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (buffer.get(offset + i) != (byte) tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Get the size of the ID3v2 tag at the beginning of the file or 0 if there is none
+     */
+    private static long getId3v2Length(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 10);
+        if (!startsWith(header, 0, "ID3")) {
+            return 0;
+        }
+        // The size is stored as a 28 bit synchsafe integer and does not include the header
+        int size = (header.get(6) & 0x7F) << 21 | (header.get(7) & 0x7F) << 14 | (header.get(8) & 0x7F) << 7 | (header.get(9) & 0x7F);
+        boolean hasFooter = (header.get(5) & 0x10) != 0;
+        return 10 + size + (hasFooter ? 10 : 0);
+    }
+
+    /*
+     * Parse the MPEG audio frame header at the given offset or return null if it is not valid
+     */
+    private static Mp3Frame parseMp3Frame(ByteBuffer buffer, int offset) {
+        if (buffer.limit() < offset + 4) {
+            return null;
+        }
+        int b1 = buffer.get(offset + 1) & 0xFF;
+        int b2 = buffer.get(offset + 2) & 0xFF;
+        int b3 = buffer.get(offset + 3) & 0xFF;
+        if ((buffer.get(offset) & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return null;
+        }
+        int version = (b1 >> 3) & 0x03;
+        int layer = (b1 >> 1) & 0x03;
+        int bitrateIndex = (b2 >> 4) & 0x0F;
+        int sampleRateIndex = (b2 >> 2) & 0x03;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            // Reserved values or free format
+            return null;
+        }
+
+        Mp3Frame frame = new Mp3Frame();
+        frame.mIsMpeg1 = version == 3;
+        frame.mIsMono = ((b3 >> 6) & 0x03) == 3;
+        // Layer bits are 3 for layer I, 2 for layer II and 1 for layer III
+        int layerIndex = 3 - layer;
+        frame.mBitrate = MP3_BITRATES[frame.mIsMpeg1 ? 0 : 1][layerIndex][bitrateIndex];
+        frame.mSampleRate = MP3_SAMPLE_RATES[version == 3 ? 0 : version == 2 ? 1 : 2][sampleRateIndex];
+        if (layerIndex == 0) {
+            frame.mSamplesPerFrame = 384;
+        } else if (layerIndex == 2 && !frame.mIsMpeg1) {
+            frame.mSamplesPerFrame = 576;
+        } else {
+            frame.mSamplesPerFrame = 1152;
+        }
+        int padding = (b2 >> 1) & 0x01;
+        int slotSize = layerIndex == 0 ? 4 : 1;
+        frame.mLength = (frame.mSamplesPerFrame / 8 * frame.mBitrate * 1000 / frame.mSampleRate / slotSize + padding) * slotSize;
+        return frame;
+    }
+
+    /*
+     * The duration of an MP3 file is given by the frame count of a Xing/Info or VBRI header in the
+     * first frame. Without one, the file is assumed to have a constant bitrate.
+     */
+    private static long getMp3Duration(FileChannel channel) throws IOException {
+        long searchStart = getId3v2Length(channel);
+        ByteBuffer buffer = read(channel, searchStart, MP3_SYNC_SEARCH_LENGTH);
+
+        // Find the first frame. A valid header that is followed by another one is not a false sync.
+        int offset = 0;
+        Mp3Frame frame = null;
+        for (; offset < buffer.limit() - 4; offset++) {
+            frame = parseMp3Frame(buffer, offset);
+            if (frame != null && (offset + frame.mLength + 4 > buffer.limit() || parseMp3Frame(buffer, offset + frame.mLength) != null)) {
+                break;
+            }
+            frame = null;
+        }
+        if (frame == null) {
+            return 0;
+        }
+
+        // The Xing/Info header follows the side information, the VBRI header is at a fixed offset
+        int xingOffset = offset + 4 + (frame.mIsMpeg1 ? (frame.mIsMono ? 17 : 32) : (frame.mIsMono ? 9 : 17));
+        int vbriOffset = offset + 4 + 32;
+        long frameCount = 0;
+        if (startsWith(buffer, xingOffset, "Xing") || startsWith(buffer, xingOffset, "Info")) {
+            if (buffer.limit() >= xingOffset + 12 && (buffer.getInt(xingOffset + 4) & 0x01) != 0) {
+                frameCount = buffer.getInt(xingOffset + 8) & 0xFFFFFFFFL;
+            }
+        } else if (startsWith(buffer, vbriOffset, "VBRI") && buffer.limit() >= vbriOffset + 18) {
+            frameCount = buffer.getInt(vbriOffset + 14) & 0xFFFFFFFFL;
+        }
+        if (frameCount > 0) {
+            return frameCount * frame.mSamplesPerFrame * 1000 / frame.mSampleRate;
+        }
+
+        // Constant bitrate: the duration follows from the size of the audio data
+        long audioStart = searchStart + offset;
+        long audioEnd = channel.size();
+        if (audioEnd - audioStart > 128 && startsWith(read(channel, audioEnd - 128, 3), 0, "TAG")) {
+            audioEnd -= 128;
+        }
+        return (audioEnd - audioStart) * 8 / frame.mBitrate;
+    }
+
+    /*
+     * The duration of an MP4 file is stored in the movie header box (mvhd) in the movie box (moov)
+     */
+    private static long getMp4Duration(FileChannel channel) throws IOException {
+        long[] moov = findMp4Box(channel, 0, channel.size(), "moov");
+        if (moov == null) {
+            return 0;
+        }
+        long[] mvhd = findMp4Box(channel, moov[0], moov[1], "mvhd");
+        if (mvhd == null) {
+            return 0;
+        }
+        ByteBuffer header = read(channel, mvhd[0], 32);
+        long timescale;
+        long duration;
+        if (header.get(0) == 1) {
+            // Version 1 uses 64 bit creation time, modification time and duration
+            if (header.limit() < 32) {
+                return 0;
+            }
+            timescale = header.getInt(20) & 0xFFFFFFFFL;
+            duration = header.getLong(24);
+        } else {
+            if (header.limit() < 20) {
+                return 0;
+            }
+            timescale = header.getInt(12) & 0xFFFFFFFFL;
+            duration = header.getInt(16) & 0xFFFFFFFFL;
+        }
+        if (timescale == 0 || duration < 0) {
+            return 0;
+        }
+        return duration * 1000 / timescale;
+    }
+
+    /*
+     * Find the box of the given type between start and end and return the start and end of its
+     * content or null if there is no such box
+     */
+    private static long[] findMp4Box(FileChannel channel, long start, long end, String type) throws IOException {
+        long position = start;
+        while (position + 8 <= end) {
+            ByteBuffer header = read(channel, position, 16);
+            if (header.limit() < 8) {
+                return null;
+            }
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            int headerLength = 8;
+            if (size == 1) {
+                // 64 bit size
+                if (header.limit() < 16) {
+                    return null;
+                }
+                size = header.getLong(8);
+                headerLength = 16;
+            } else if (size == 0) {
+                // The box extends to the end
+                size = end - position;
+            }
+            if (size < headerLength || position + size > end) {
+                return null;
+            }
+            if (startsWith(header, 4, type)) {
+                return new long[]{position + headerLength, position + size};
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    /*
+     * The duration of a FLAC file follows from the sample rate and the total number of samples in
+     * the STREAMINFO block, which is always the first metadata block
+     */
+    private static long getFlacDuration(FileChannel channel) throws IOException {
+        long start = getId3v2Length(channel);
+        ByteBuffer buffer = read(channel, start, 4 + 4 + 34);
+        if (buffer.limit() < 42 || !startsWith(buffer, 0, "fLaC") || (buffer.get(4) & 0x7F) != 0) {
+            return 0;
+        }
+        int streamInfo = 8;
+        int sampleRate = (buffer.get(streamInfo + 10) & 0xFF) << 12 | (buffer.get(streamInfo + 11) & 0xFF) << 4
+                | (buffer.get(streamInfo + 12) & 0xFF) >> 4;
+        long totalSamples = (buffer.get(streamInfo + 13) & 0x0FL) << 32 | buffer.getInt(streamInfo + 14) & 0xFFFFFFFFL;
+        if (sampleRate == 0) {
+            return 0;
+        }
+        return totalSamples * 1000 / sampleRate;
+    }
+
+    /*
+     * The duration of an Ogg Vorbis or Opus file follows from the granule position of the last
+     * page of the stream and the sample rate from the identification header in the first page
+     */
+    private static long getOggDuration(FileChannel channel) throws IOException {
+        ByteBuffer first = read(channel, 0, 27 + 255 + 19);
+        if (first.limit() < 27 || !startsWith(first, 0, "OggS")) {
+            return 0;
+        }
+        first.order(ByteOrder.LITTLE_ENDIAN);
+        int serial = first.getInt(14);
+        int packet = 27 + (first.get(26) & 0xFF);
+
+        long sampleRate;
+        long preSkip = 0;
+        if (startsWith(first, packet, "\u0001vorbis") && first.limit() >= packet + 16) {
+            sampleRate = first.getInt(packet + 12) & 0xFFFFFFFFL;
+        } else if (startsWith(first, packet, "OpusHead") && first.limit() >= packet + 12) {
+            // Opus granule positions always count samples at 48 kHz
+            sampleRate = OPUS_SAMPLE_RATE;
+            preSkip = first.getShort(packet + 10) & 0xFFFF;
+        } else {
+            return 0;
+        }
+        if (sampleRate == 0) {
+            return 0;
+        }
+
+        // Search the last page of the stream backwards from the end of the file
+        long size = channel.size();
+        long tailStart = Math.max(0, size - OGG_MAX_PAGE_LENGTH);
+        ByteBuffer tail = read(channel, tailStart, (int) (size - tailStart));
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = tail.limit() - 27; offset >= 0; offset--) {
+            if (startsWith(tail, offset, "OggS") && tail.getInt(offset + 14) == serial) {
+                long granule = tail.getLong(offset + 6);
+                if (granule >= 0) {
+                    return Math.max(0, granule - preSkip) * 1000 / sampleRate;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * The duration of a WAV file follows from the size of the data chunk and the byte rate from
+     * the format chunk
+     */
+    private static long getWavDuration(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, 12);
+        if (!startsWith(header, 0, "RIFF") || !startsWith(header, 8, "WAVE")) {
+            return 0;
+        }
+        long size = channel.size();
+        long position = 12;
+        long byteRate = 0;
+        while (position + 8 <= size) {
+            ByteBuffer chunk = read(channel, position, 20);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            String id = new String(new byte[]{chunk.get(0), chunk.get(1), chunk.get(2), chunk.get(3)}, StandardCharsets.US_ASCII);
+            long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (id.equals("fmt ") && chunk.limit() >= 20) {
+                byteRate = chunk.getInt(16) & 0xFFFFFFFFL;
+            } else if (id.equals("data")) {
+                if (byteRate == 0) {
+                    return 0;
+                }
+                // Streamed files may not contain the final size of the data chunk
+                long dataSize = Math.min(chunkSize, size - position - 8);
+                return dataSize * 1000 / byteRate;
+            }
+            // Chunks are padded to an even size
+            position += 8 + chunkSize + (chunkSize & 1);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,14 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+/**
+ * Reads the metadata of audio files that is stored in the database. Implementations are called
+ * from several threads at once.
+ */
+
+public interface MetadataProbe {
+
+    /*
+     * Get the duration of the audio file at the given path in milliseconds or 0 if it is unknown
+     */
+    int getDuration(String path);
+}
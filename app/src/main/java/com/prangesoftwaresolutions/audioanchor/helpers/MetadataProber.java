@@ -0,0 +1,64 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Probes the metadata of a batch of audio files concurrently on its own small thread pool.
+ * Reading the metadata is the expensive part of adding new audio files to the database.
+ */
+
+public class MetadataProber {
+    private static final String LOG_TAG = MetadataProber.class.getSimpleName();
+
+    private final MetadataProbe mProbe;
+    private final ExecutorService mExecutor;
+
+    public MetadataProber(MetadataProbe probe, int threadCount) {
+        mProbe = probe;
+        mExecutor = Executors.newFixedThreadPool(threadCount);
+    }
+
+    /*
+     * Get the durations of the audio files at the given paths in the order of the paths. Files
+     * whose duration cannot be read get a duration of 0.
+     */
+    public int[] getDurations(List<String> paths) throws InterruptedException {
+        int[] durations = new int[paths.size()];
+        if (paths.isEmpty()) {
+            return durations;
+        }
+
+        long startTime = System.nanoTime();
+        List<Future<Integer>> probes = new ArrayList<>();
+        try {
+            for (String path : paths) {
+                probes.add(mExecutor.submit(() -> mProbe.getDuration(path)));
+            }
+            for (int i = 0; i < probes.size(); i++) {
+                try {
+                    durations[i] = probes.get(i).get();
+                } catch (ExecutionException e) {
+                    durations[i] = 0;
+                }
+            }
+        } finally {
+            // Stop probing if the waiting thread has been interrupted
+            for (Future<Integer> probe : probes) {
+                probe.cancel(true);
+            }
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        Log.d(LOG_TAG, String.format(Locale.ROOT, "Probed %d files in %.2f s (%.1f files/s)",
+                paths.size(), seconds, paths.size() / Math.max(seconds, 1e-3)));
+        return durations;
+    }
+}
@@ -4,7 +4,6 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
 import android.widget.Toast;
@@ -35,9 +34,11 @@ public class Migrator {
             File dbFileWal = new File(dbFile + "-wal");
             File[] importFiles = {dbFile, dbFileShm, dbFileWal};
 
-            SQLiteDatabase db = mContext.openOrCreateDatabase(AnchorDbHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
-            String newDBPath = db.getPath();
-            db.close();
+            // Close the database of the provider together with its compiled statements before
+            // its files are replaced. The provider opens the imported database on the next access,
+            // which also calls onUpgrade() in case a database of an older version was imported
+            mContext.getContentResolver().call(AnchorContract.BASE_CONTENT_URI, AnchorContract.METHOD_CLOSE_DATABASE, null, null);
+            String newDBPath = mContext.getDatabasePath(AnchorDbHelper.DATABASE_NAME).getPath();
 
             File newDBFile = new File(newDBPath);
             File newDBShm = new File(newDBPath + "-shm");
@@ -87,13 +88,6 @@ public class Migrator {
                 }
                 Toast.makeText(mContext.getApplicationContext(), R.string.import_success, Toast.LENGTH_LONG).show();
             }
-
-            // Make sure onUpgrade() is called in case a database of version 1 or 2 was imported
-            // onUpgrade() is called when getReadableDatabase() or getWriteableDatabase() is called
-            // We need a new instance of AnchorDbHelper here, not completely sure why, something
-            // about the version number probably
-            AnchorDbHelper dbHelper = new AnchorDbHelper(mContext);
-            dbHelper.getWritableDatabase();
         } catch (Exception e) {
             Toast.makeText(mContext.getApplicationContext(), R.string.import_fail, Toast.LENGTH_LONG).show();
             Log.e(LOG_TAG, e.getMessage());
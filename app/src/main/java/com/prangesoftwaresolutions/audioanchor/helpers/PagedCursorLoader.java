@@ -0,0 +1,239 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loader that queries a list page by page using the keyset paging parameters of the
+ * AnchorProvider. The first page is loaded on start, further pages when loadNextPage() is called,
+ * e.g. when the list is scrolled near its end. The delivered cursor contains all pages loaded so
+ * far, each page is held in its own cursor window. The projection has to contain the id and the
+ * title, which are the keys of the pages.
+ */
+
+public class PagedCursorLoader extends AsyncTaskLoader<Cursor> {
+
+    private final ForceLoadContentObserver mObserver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mPageSize;
+
+    // The cursor delivered last and whether the next load appends a page to it
+    private volatile PagedCursor mCursor;
+    private volatile boolean mAppendPage = false;
+    private boolean mLoadingPage = false;
+
+    public PagedCursorLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs, int pageSize) {
+        super(context);
+        mObserver = new ForceLoadContentObserver();
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mPageSize = pageSize;
+    }
+
+    /*
+     * Load the page following the pages loaded so far unless all rows have been loaded already
+     */
+    public void loadNextPage() {
+        if (mLoadingPage || mCursor == null || mCursor.isComplete()) {
+            return;
+        }
+        mLoadingPage = true;
+        mAppendPage = true;
+        forceLoad();
+    }
+
+    /*
+     * Check if the cursor delivered last only appended a page to the previous cursor
+     */
+    public boolean isPageAppended() {
+        return mCursor != null && mCursor.isPageAppended();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        boolean append = mAppendPage;
+        mAppendPage = false;
+        PagedCursor previous = mCursor;
+
+        List<Cursor> pages = new ArrayList<>();
+        Long afterId = null;
+        String afterTitle = null;
+        int pageSize = mPageSize;
+        if (append && previous != null) {
+            pages.addAll(previous.getPages());
+            afterId = previous.getLastId();
+            afterTitle = previous.getLastTitle();
+        } else if (previous != null) {
+            // Reload all rows that are currently shown at once
+            pageSize = Math.max(mPageSize, previous.getCount());
+        }
+
+        Uri.Builder builder = mUri.buildUpon()
+                .appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_SIZE, String.valueOf(pageSize));
+        if (afterId != null) {
+            builder.appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER, String.valueOf(afterId));
+            builder.appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER_TITLE, afterTitle);
+        }
+        Cursor page = getContext().getContentResolver().query(builder.build(), mProjection, mSelection, mSelectionArgs, null);
+
+        int pageCount = 0;
+        Long lastId = afterId;
+        String lastTitle = afterTitle;
+        if (page != null) {
+            // Fill the cursor window in the background and remember where the next page starts
+            pageCount = page.getCount();
+            if (page.moveToLast()) {
+                lastId = page.getLong(page.getColumnIndexOrThrow(BaseColumns._ID));
+                lastTitle = page.getString(page.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_TITLE));
+            }
+            // Only the first page is observed, it is notified of changes of all rows. The observer
+            // is unregistered when the page is released.
+            if (pages.isEmpty()) {
+                page.registerContentObserver(mObserver);
+            }
+            pages.add(page);
+        }
+        return new PagedCursor(pages, append, pageCount < pageSize, lastId, lastTitle);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        PagedCursor newCursor = (PagedCursor) cursor;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            releasePages(newCursor, null);
+            return;
+        }
+        PagedCursor oldCursor = mCursor;
+        mCursor = newCursor;
+        mLoadingPage = false;
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        releasePages(oldCursor, newCursor);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible.
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        mLoadingPage = false;
+        releasePages((PagedCursor) cursor, mCursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        releasePages(mCursor, null);
+        mCursor = null;
+    }
+
+    /*
+     * Close the pages of the given cursor which are not shared with the cursor to keep. The
+     * observer of the loader is unregistered from the first page before it is closed.
+     */
+    private void releasePages(PagedCursor cursor, PagedCursor keep) {
+        if (cursor == null) {
+            return;
+        }
+        List<Cursor> pages = cursor.getPages();
+        for (int i = 0; i < pages.size(); i++) {
+            Cursor page = pages.get(i);
+            if ((keep == null || !keep.getPages().contains(page)) && !page.isClosed()) {
+                if (i == 0) {
+                    page.unregisterContentObserver(mObserver);
+                }
+                page.close();
+            }
+        }
+    }
+
+    /*
+     * Cursor over all pages loaded so far. The pages are shared between consecutive cursors and
+     * are closed by the loader, closing the PagedCursor leaves them open.
+     */
+    private static class PagedCursor extends MergeCursor {
+        private final List<Cursor> mPages;
+        private final boolean mPageAppended;
+        private final boolean mComplete;
+        private final Long mLastId;
+        private final String mLastTitle;
+
+        PagedCursor(List<Cursor> pages, boolean pageAppended, boolean complete, Long lastId, String lastTitle) {
+            super(wrapPages(pages));
+            mPages = pages;
+            mPageAppended = pageAppended;
+            mComplete = complete;
+            mLastId = lastId;
+            mLastTitle = lastTitle;
+        }
+
+        private static Cursor[] wrapPages(List<Cursor> pages) {
+            Cursor[] wrappedPages = new Cursor[pages.size()];
+            for (int i = 0; i < pages.size(); i++) {
+                wrappedPages[i] = new CursorWrapper(pages.get(i)) {
+                    @Override
+                    public void close() {
+                        // Pages are closed by the loader
+                    }
+                };
+            }
+            return wrappedPages;
+        }
+
+        List<Cursor> getPages() {
+            return mPages;
+        }
+
+        boolean isPageAppended() {
+            return mPageAppended;
+        }
+
+        boolean isComplete() {
+            return mComplete;
+        }
+
+        Long getLastId() {
+            return mLastId;
+        }
+
+        String getLastTitle() {
+            return mLastTitle;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * MetadataProbe that reads the metadata with MediaMetadataRetriever. Creating and releasing a
+ * retriever per file is expensive, so idle retrievers are kept in a small pool and reused.
+ */
+
+public class RetrieverMetadataProbe implements MetadataProbe {
+    private static final String LOG_TAG = RetrieverMetadataProbe.class.getSimpleName();
+
+    private final BlockingQueue<MediaMetadataRetriever> mRetrievers;
+
+    public RetrieverMetadataProbe(int poolSize) {
+        mRetrievers = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    @Override
+    public int getDuration(String path) {
+        MediaMetadataRetriever retriever = mRetrievers.poll();
+        if (retriever == null) {
+            retriever = new MediaMetadataRetriever();
+        }
+
+        int duration = 0;
+        try {
+            retriever.setDataSource(path);
+            String durationString = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            if (durationString != null) {
+                duration = Integer.parseInt(durationString);
+            }
+        } catch (RuntimeException e) {
+            // Do not reuse a retriever that failed on a file
+            release(retriever);
+            retriever = new MediaMetadataRetriever();
+        }
+
+        // Keep the retriever for the next file unless the pool is full already
+        if (!mRetrievers.offer(retriever)) {
+            release(retriever);
+        }
+        return duration;
+    }
+
+    /*
+     * Release the retriever. Up to API 32 release() declares no checked exception, failures
+     * surface as runtime exceptions.
+     */
+    static void release(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Failed to release metadata retriever", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Diff between a directory listing and the entries of a database table by a merge join. Both
+ * sides are walked once in code point order of their names, so no lookup table of the existing
+ * entries is needed. Code point order is the order of SQLite's default BINARY collation on UTF-8,
+ * so the entries can be streamed from a cursor that is ordered by name.
+ */
+
+public final class SyncDiff {
+
+    public static final Comparator<String> CODE_POINT_ORDER = SyncDiff::compareCodePoints;
+
+    /*
+     * The existing entries in code point order of their names, e.g. a cursor ordered by title
+     */
+    public interface Entries {
+        boolean moveToNext();
+
+        String getName();
+    }
+
+    /*
+     * Receives the changes in code point order of the names. onKeep and onDelete are called while
+     * the entries are positioned on the corresponding entry.
+     */
+    public interface Handler {
+        void onInsert(String name);
+
+        void onKeep(String name);
+
+        void onDelete(String name);
+    }
+
+    private SyncDiff() {
+    }
+
+    /*
+     * Compare the names of the listing with the existing entries. The listing is sorted in place.
+     */
+    public static void diff(String[] names, Entries entries, Handler handler) {
+        Arrays.sort(names, CODE_POINT_ORDER);
+
+        int index = 0;
+        String lastKept = null;
+        boolean hasEntry = entries.moveToNext();
+        while (hasEntry) {
+            String name = entries.getName();
+            int comparison = index < names.length ? compareCodePoints(names[index], name) : 1;
+            if (comparison < 0) {
+                handler.onInsert(names[index++]);
+                continue;
+            }
+            if (comparison == 0) {
+                lastKept = names[index++];
+                handler.onKeep(lastKept);
+            } else if (name.equals(lastKept)) {
+                // Keep duplicate entries of a name that exists instead of deleting them
+                handler.onKeep(name);
+            } else {
+                handler.onDelete(name);
+            }
+            hasEntry = entries.moveToNext();
+        }
+        while (index < names.length) {
+            handler.onInsert(names[index++]);
+        }
+    }
+
+    /*
+     * Compare two strings by their code points. String.compareTo compares UTF-16 code units,
+     * which sorts supplementary characters before the characters from U+E000 to U+FFFF.
+     */
+    public static int compareCodePoints(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char charA = a.charAt(i);
+            char charB = b.charAt(i);
+            if (charA != charB) {
+                boolean isSurrogateA = Character.isSurrogate(charA);
+                if (isSurrogateA != Character.isSurrogate(charB)) {
+                    // Surrogates encode code points above all characters of the BMP
+                    return isSurrogateA ? 1 : -1;
+                }
+                return charA - charB;
+            }
+        }
+        return a.length() - b.length();
+    }
+}
@@ -1,10 +1,18 @@
 package com.prangesoftwaresolutions.audioanchor.helpers;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
 import androidx.preference.PreferenceManager;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.prangesoftwaresolutions.audioanchor.R;
@@ -15,17 +23,120 @@ import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
 import com.prangesoftwaresolutions.audioanchor.models.Directory;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Synchronizes the database with the file system in the background. The album directories are
+ * scanned in parallel on a pool with one thread per core, then the durations of the new audio files
+ * are probed in parallel. The results are written to the database by a single thread, which also
+ * runs the synchronizations one after another. The listener is notified on the main thread when a
+ * synchronization has finished. A Synchronizer is meant to be used from a single thread.
+ */
 
 public class Synchronizer {
+    private static final String LOG_TAG = Synchronizer.class.getSimpleName();
+
+    private static final ExecutorService sScanExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+    private static final ExecutorService sSyncExecutor = Executors.newSingleThreadExecutor();
+    // The durations of new audio files are probed in one batch per directory on a separate pool.
+    // They are read from the file headers where possible, the retriever is only a fallback.
+    private static final int PROBE_THREAD_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private static final MetadataProber sProber = new MetadataProber(
+            new HeaderMetadataProbe(new RetrieverMetadataProbe(PROBE_THREAD_COUNT)), PROBE_THREAD_COUNT);
+    private static MetadataProber sDocumentProber;
+
     private final Context mContext;
     private final SharedPreferences mPrefManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
     private SynchronizationStateListener mListener = null;
+    // Synchronizations started by this synchronizer that might not have finished yet
+    private final ArrayList<Future<?>> mSynchronizations = new ArrayList<>();
+    // Number of albums whose directory was unchanged during the last synchronization
+    private volatile int mSkippedAlbumCount = 0;
+    // Settings that affect the synchronization. They are read once when a synchronization starts,
+    // before any scan is submitted to the scan pool.
+    private boolean mShowHidden;
+    private boolean mKeepDeleted;
+
+    /*
+     * Existing entries of a cursor that is ordered by the given name column. A null cursor has
+     * no entries.
+     */
+    private static class CursorEntries implements SyncDiff.Entries, AutoCloseable {
+        private final Cursor mCursor;
+        private final int mIdIndex;
+        private final int mNameIndex;
+
+        CursorEntries(Cursor cursor, String nameColumn) {
+            mCursor = cursor;
+            mIdIndex = cursor != null ? cursor.getColumnIndexOrThrow(BaseColumns._ID) : -1;
+            mNameIndex = cursor != null ? cursor.getColumnIndexOrThrow(nameColumn) : -1;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return mCursor != null && mCursor.moveToNext();
+        }
+
+        @Override
+        public String getName() {
+            return mCursor.getString(mNameIndex);
+        }
+
+        long getId() {
+            return mCursor.getLong(mIdIndex);
+        }
+
+        Cursor getCursor() {
+            return mCursor;
+        }
+
+        @Override
+        public void close() {
+            if (mCursor != null) {
+                mCursor.close();
+            }
+        }
+    }
+
+    /*
+     * A synchronization step that stops with an InterruptedException when it is cancelled
+     */
+    private interface SyncTask {
+        void run() throws InterruptedException;
+    }
+
+    /*
+     * Result of scanning the directory of a single album
+     */
+    private static class AlbumScan {
+        final Album mAlbum;
+        final boolean mIsNew;
+        boolean mDirectoryChanged = false;
+        String mNewCoverPath = null;
+        final ArrayList<String> mNewAudioFileTitles = new ArrayList<>();
+        // Document URIs of the new audio files, null for audio files in the file system
+        final ArrayList<String> mNewAudioFileUris = new ArrayList<>();
+        int[] mNewAudioFileDurations;
+        final ArrayList<Long> mDeletedAudioFileIds = new ArrayList<>();
+
+        AlbumScan(Album album, boolean isNew) {
+            mAlbum = album;
+            mIsNew = isNew;
+        }
+    }
 
     public Synchronizer(Context context) {
-        mContext = context;
+        // Do not hold on to an activity while synchronizing in the background
+        mContext = context.getApplicationContext();
         mPrefManager = PreferenceManager.getDefaultSharedPreferences(context);
     }
 
@@ -36,164 +147,481 @@ public class Synchronizer {
     /*
      * Insert a new directory to the database and add its contained albums and audiofiles accordingly
      */
-    public void addDirectory(Directory directory) {
-        directory.insertIntoDB(mContext);
-        updateAlbumTable(directory);
+    public Future<?> addDirectory(Directory directory) {
+        return synchronize(() -> {
+            directory.insertIntoDB(mContext);
+            updateAlbumTable(directory, true, null);
+        });
     }
 
     /*
-     * For each directory in the database update albums according to current status of the file system
+     * For each directory in the database update albums according to current status of the file system.
+     * Albums whose directory did not change since the last synchronization are skipped unless
+     * forceRescan is set, e.g. because a setting that affects the listed files has changed.
      */
-    public void updateDBTables() {
-        ArrayList<Directory> directories = Directory.getDirectories(mContext);
-        for (Directory directory : directories) {
-            updateAlbumTable(directory);
+    public Future<?> updateDBTables(boolean forceRescan) {
+        return synchronize(() -> {
+            ArrayList<Directory> directories = Directory.getDirectories(mContext);
+            for (Directory directory : directories) {
+                updateAlbumTable(directory, forceRescan, null);
+            }
+        });
+    }
+
+    /*
+     * Update only the albums of the directory with the given paths, e.g. because the file system
+     * reported changes in them. Albums that do not exist anymore are removed from the database.
+     */
+    public Future<?> updateAlbums(Directory directory, Set<String> albumPaths) {
+        return synchronize(() -> updateAlbumTable(directory, true, albumPaths));
+    }
+
+    public Future<?> updateDBTables() {
+        return updateDBTables(false);
+    }
+
+    /*
+     * Cancel all synchronizations of this synchronizer. Directories that have already been written
+     * to the database stay synchronized and the listener is not notified.
+     */
+    public void cancel() {
+        for (Future<?> synchronization : mSynchronizations) {
+            synchronization.cancel(true);
+        }
+        mSynchronizations.clear();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    public int getSkippedAlbumCount() {
+        return mSkippedAlbumCount;
+    }
+
+    /*
+     * Run the given task on the synchronization thread
+     */
+    private Future<?> synchronize(SyncTask task) {
+        Future<?> synchronization = sSyncExecutor.submit(() -> {
+            mSkippedAlbumCount = 0;
+            mShowHidden = mPrefManager.getBoolean(mContext.getString(R.string.settings_show_hidden_key), Boolean.getBoolean(mContext.getString(R.string.settings_show_hidden_default)));
+            mKeepDeleted = mPrefManager.getBoolean(mContext.getString(R.string.settings_keep_deleted_key), Boolean.getBoolean(mContext.getString(R.string.settings_keep_deleted_default)));
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                Log.d(LOG_TAG, "Synchronization cancelled");
+                return;
+            } catch (RuntimeException e) {
+                // Nobody waits for the future, so make sure the failure shows up in the log
+                Log.e(LOG_TAG, "Synchronization failed", e);
+                throw e;
+            }
+            Log.d(LOG_TAG, "Skipped " + mSkippedAlbumCount + " unchanged albums");
+
+            mMainHandler.post(() -> {
+                if (mListener != null) {
+                    mListener.onSynchronizationFinished();
+                }
+            });
+        });
+
+        // Forget about finished synchronizations
+        for (int i = mSynchronizations.size() - 1; i >= 0; i--) {
+            if (mSynchronizations.get(i).isDone()) {
+                mSynchronizations.remove(i);
+            }
         }
+        mSynchronizations.add(synchronization);
+        return synchronization;
     }
 
     /*
      * Update the album database table if the list of directories in the selected directory does not
-     * match the album table entries
-     */
-    private void updateAlbumTable(Directory directory) {
-        // Filter to get all subdirectories in a directory
-        boolean showHidden = mPrefManager.getBoolean(mContext.getString(R.string.settings_show_hidden_key), Boolean.getBoolean(mContext.getString(R.string.settings_show_hidden_default)));
-        FilenameFilter filter = (dir, filename) -> {
-            File sel = new File(dir, filename);
-            // Only list files that are readable and directories and not hidden unless corresponding option is set
-            return sel.canRead() && sel.isDirectory() && (showHidden || !sel.getName().startsWith("."));
-        };
-
-        ArrayList<String> newAlbumPaths = new ArrayList<>();
+     * match the album table entries. The albums in the file system and in the database are compared
+     * by a merge join on their titles. The album directories are scanned in parallel, the changes
+     * are written in a single transaction afterwards. If albumPaths is not null, only the albums with
+     * these paths are updated.
+     */
+    private void updateAlbumTable(Directory directory, boolean forceRescan, Set<String> albumPaths) throws InterruptedException {
+        if (directory.getType() == Directory.Type.DOCUMENT_TREE) {
+            updateDocumentTree(directory);
+            return;
+        }
+
+        // Get the titles of the albums in the file system
+        ArrayList<String> albumTitles = new ArrayList<>();
         File dir = new File(directory.getPath());
         if (dir.exists() && dir.isDirectory()) {
             if (directory.getType() == Directory.Type.PARENT_DIR) {
-                // Add all subdirectories if directory is a parent directory
-                String[] subDirArr = dir.list(filter);
-                for (String subDirString : subDirArr) {
-                    String absolutePath = new File(directory.getPath(), subDirString).getAbsolutePath();
-                    newAlbumPaths.add(absolutePath);
-                }
-            } else if (dir.canRead() && (showHidden || !dir.getName().startsWith("."))) {
+                // Add all readable subdirectories if directory is a parent directory
+                albumTitles.addAll(new DirectoryListing(dir, mShowHidden, true).getSubdirectories());
+            } else if (dir.canRead() && (mShowHidden || !dir.getName().startsWith("."))) {
                 // Add directory if it is a subdirectory
-                newAlbumPaths.add(dir.getAbsolutePath());
+                albumTitles.add(dir.getName());
             }
         }
+        if (albumPaths != null) {
+            Iterator<String> iterator = albumTitles.iterator();
+            while (iterator.hasNext()) {
+                if (!albumPaths.contains(getAlbumPath(directory, iterator.next()))) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        // Walk the albums in the file system and in the database side by side and scan the new
+        // and the existing album directories in parallel
+        ArrayList<Long> deletedAlbumIds = new ArrayList<>();
+        ArrayList<Future<AlbumScan>> scans = new ArrayList<>();
+        String sel = AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "=?";
+        String[] selArgs = {Long.toString(directory.getID())};
+        String sortOrder = AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry.COLUMN_TITLE;
+        try {
+            try (CursorEntries entries = new CursorEntries(mContext.getContentResolver().query(AnchorContract.AlbumEntry.CONTENT_URI,
+                    Album.getColumns(), sel, selArgs, sortOrder), AnchorContract.AlbumEntry.COLUMN_TITLE)) {
+                SyncDiff.diff(albumTitles.toArray(new String[0]), entries, new SyncDiff.Handler() {
+                    @Override
+                    public void onInsert(String title) {
+                        String albumPath = getAlbumPath(directory, title);
+                        scans.add(sScanExecutor.submit(() -> scanAlbum(directory, albumPath, null, forceRescan)));
+                    }
+
+                    @Override
+                    public void onKeep(String title) {
+                        String albumPath = getAlbumPath(directory, title);
+                        Album oldAlbum = Album.getAlbumFromPositionedCursor(mContext, entries.getCursor());
+                        scans.add(sScanExecutor.submit(() -> scanAlbum(directory, albumPath, oldAlbum, forceRescan)));
+                    }
+
+                    @Override
+                    public void onDelete(String title) {
+                        // Delete missing or hidden directories from the database
+                        if (albumPaths != null && !albumPaths.contains(getAlbumPath(directory, title))) {
+                            return;
+                        }
+                        if (!mKeepDeleted || (!mShowHidden && title.startsWith("."))) {
+                            deletedAlbumIds.add(entries.getId());
+                        }
+                    }
+                });
+            }
 
-        LinkedHashMap<String, Album> oldAlbumPaths = new LinkedHashMap<>();
-        ArrayList<Album> albums = Album.getAllAlbumsInDirectory(mContext, directory.getID());
-        for (Album album : albums) {
-            String path = album.getPath();
-            oldAlbumPaths.put(path, album);
-        }
-
-        // Insert new albums into the database
-        for (String newAlbumPath : newAlbumPaths) {
-            long id;
-            if (!oldAlbumPaths.containsKey(newAlbumPath)) {
-                String albumTitle = new File(newAlbumPath).getName();
-                Album album = new Album(albumTitle, directory);
-                id = album.insertIntoDB(mContext);
-            } else {
-                Album album = oldAlbumPaths.get(newAlbumPath);
-                id = album.getID();
-
-                // Update cover path
-                String oldCoverPath = album.getRelativeCoverPath();
-                String newCoverPath = album.updateAlbumCover();
-                if (newCoverPath != null && (oldCoverPath == null || !oldCoverPath.equals(newCoverPath))) {
-                    album.updateInDB(mContext);
+            ArrayList<AlbumScan> albumScans = new ArrayList<>();
+            for (Future<AlbumScan> scan : scans) {
+                AlbumScan albumScan;
+                try {
+                    albumScan = scan.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Failed to scan album in " + directory.getPath(), e.getCause());
+                }
+                if (albumScan == null) {
+                    mSkippedAlbumCount++;
+                } else {
+                    albumScans.add(albumScan);
                 }
+            }
 
-                oldAlbumPaths.remove(newAlbumPath);
+            writeAlbumScans(directory, albumScans, deletedAlbumIds, sProber);
+        } finally {
+            // Stop the scans that are still running if the synchronization was cancelled
+            for (Future<AlbumScan> scan : scans) {
+                scan.cancel(true);
             }
-            updateAudioFileTable(newAlbumPath, id);
         }
+    }
 
-        // Delete missing or hidden directories from the database
-        boolean keepDeleted = mPrefManager.getBoolean(mContext.getString(R.string.settings_keep_deleted_key), Boolean.getBoolean(mContext.getString(R.string.settings_keep_deleted_default)));
-        for (String path : oldAlbumPaths.keySet()) {
-            String directoryName = new File(path).getName();
-            if (!keepDeleted || (!showHidden && directoryName.startsWith("."))) {
-                // Delete the album in the albums table
-                long id = oldAlbumPaths.get(path).getID();
-                Uri uri = ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, id);
-                mContext.getContentResolver().delete(uri, null, null);
+    /*
+     * Update the albums of a document tree. The tree is listed completely with one query per
+     * directory, the albums and their audio files are compared to the database like for files.
+     */
+    private void updateDocumentTree(Directory directory) throws InterruptedException {
+        DocumentTreeScanner scanner = new DocumentTreeScanner(mContext.getContentResolver(), Uri.parse(directory.getPath()), mShowHidden);
+        TreeMap<String, DocumentTreeScanner.AlbumDirectory> albumDirectories = scanner.scan(sScanExecutor);
+
+        ArrayList<AlbumScan> albumScans = new ArrayList<>();
+        ArrayList<Long> deletedAlbumIds = new ArrayList<>();
+        String sel = AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "=?";
+        String[] selArgs = {Long.toString(directory.getID())};
+        String sortOrder = AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry.COLUMN_TITLE;
+        try (CursorEntries entries = new CursorEntries(mContext.getContentResolver().query(AnchorContract.AlbumEntry.CONTENT_URI,
+                Album.getColumns(), sel, selArgs, sortOrder), AnchorContract.AlbumEntry.COLUMN_TITLE)) {
+            SyncDiff.diff(albumDirectories.keySet().toArray(new String[0]), entries, new SyncDiff.Handler() {
+                @Override
+                public void onInsert(String title) {
+                    DocumentTreeScanner.AlbumDirectory albumDirectory = albumDirectories.get(title);
+                    AlbumScan scan = new AlbumScan(new Album(title, directory, albumDirectory.mCoverUri), true);
+                    scanDocuments(scan, albumDirectory);
+                    albumScans.add(scan);
+                }
+
+                @Override
+                public void onKeep(String title) {
+                    DocumentTreeScanner.AlbumDirectory albumDirectory = albumDirectories.get(title);
+                    Album oldAlbum = Album.getAlbumFromPositionedCursor(mContext, entries.getCursor());
+                    AlbumScan scan = new AlbumScan(oldAlbum, false);
+                    String coverUri = albumDirectory.mCoverUri;
+                    if (coverUri != null && !coverUri.equals(oldAlbum.getRelativeCoverPath())) {
+                        scan.mNewCoverPath = coverUri;
+                    }
+                    scanDocuments(scan, albumDirectory);
+                    albumScans.add(scan);
+                }
+
+                @Override
+                public void onDelete(String title) {
+                    if (!mKeepDeleted) {
+                        deletedAlbumIds.add(entries.getId());
+                    }
+                }
+            });
+        }
+
+        writeAlbumScans(directory, albumScans, deletedAlbumIds, getDocumentProber(mContext));
+    }
+
+    /*
+     * Collect the audio files of an album in a document tree that need to be inserted into or
+     * deleted from the audiofiles table
+     */
+    private void scanDocuments(AlbumScan scan, DocumentTreeScanner.AlbumDirectory albumDirectory) {
+        Cursor c = null;
+        if (!scan.mIsNew) {
+            String[] projection = {AnchorContract.AudioEntry._ID, AnchorContract.AudioEntry.COLUMN_TITLE};
+            String sel = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
+            String[] selArgs = {Long.toString(scan.mAlbum.getID())};
+            c = mContext.getContentResolver().query(AnchorContract.AudioEntry.CONTENT_URI, projection, sel, selArgs,
+                    AnchorContract.AudioEntry.COLUMN_TITLE);
+        }
+        String[] names = albumDirectory.mAudioFiles.keySet().toArray(new String[0]);
+        try (CursorEntries entries = new CursorEntries(c, AnchorContract.AudioEntry.COLUMN_TITLE)) {
+            SyncDiff.diff(names, entries, new SyncDiff.Handler() {
+                @Override
+                public void onInsert(String title) {
+                    scan.mNewAudioFileTitles.add(title);
+                    scan.mNewAudioFileUris.add(albumDirectory.mAudioFiles.get(title));
+                }
+
+                @Override
+                public void onKeep(String title) {
+                }
+
+                @Override
+                public void onDelete(String title) {
+                    if (!mKeepDeleted) {
+                        scan.mDeletedAudioFileIds.add(entries.getId());
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     * Probe the durations of all new audio files of the directory at once with the given prober,
+     * then write the album scans and the deletions in a single transaction
+     */
+    private void writeAlbumScans(Directory directory, ArrayList<AlbumScan> albumScans, ArrayList<Long> deletedAlbumIds,
+                                 MetadataProber prober) throws InterruptedException {
+        ArrayList<String> newAudioFilePaths = new ArrayList<>();
+        for (AlbumScan albumScan : albumScans) {
+            for (int i = 0; i < albumScan.mNewAudioFileTitles.size(); i++) {
+                String documentUri = albumScan.mNewAudioFileUris.get(i);
+                if (documentUri != null) {
+                    newAudioFilePaths.add(documentUri);
+                } else {
+                    newAudioFilePaths.add(albumScan.mAlbum.getPath() + File.separator + albumScan.mNewAudioFileTitles.get(i));
+                }
             }
         }
-        if (mListener != null) {
-            mListener.onSynchronizationFinished();
+        int[] durations = prober.getDurations(newAudioFilePaths);
+        int durationIndex = 0;
+        for (AlbumScan albumScan : albumScans) {
+            int count = albumScan.mNewAudioFileTitles.size();
+            albumScan.mNewAudioFileDurations = Arrays.copyOfRange(durations, durationIndex, durationIndex + count);
+            durationIndex += count;
+        }
+
+        // Collect all changes and apply them in a single transaction
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (AlbumScan albumScan : albumScans) {
+            addAlbumOperations(operations, albumScan);
+        }
+
+        // Delete missing or hidden directories from the database
+        for (long id : deletedAlbumIds) {
+            Uri uri = ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, id);
+            operations.add(ContentProviderOperation.newDelete(uri).build());
+        }
+
+        // Do not write anything once the synchronization has been cancelled
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
         }
+        applyOperations(operations, directory.getPath());
     }
 
+    /*
+     * The prober for documents needs a content resolver, so it is created on first use
+     */
+    private static synchronized MetadataProber getDocumentProber(Context context) {
+        if (sDocumentProber == null) {
+            sDocumentProber = new MetadataProber(new DocumentMetadataProbe(context.getContentResolver()), PROBE_THREAD_COUNT);
+        }
+        return sDocumentProber;
+    }
 
     /*
-     * Update the audiofiles table if the list of audio files in the album directory does not
-     * match the audiofiles table entries
+     * Scan the directory of the given album, or of a new album if oldAlbum is null. Returns null
+     * if the album directory did not change since the last synchronization. Runs on the scan pool.
      */
-     private void updateAudioFileTable(String albumPath, long albumId) {
-        // Get all audio files in the album.
-        FilenameFilter filter = (dir, filename) -> {
-            File sel = new File(dir, filename);
+    private AlbumScan scanAlbum(Directory directory, String albumPath, Album oldAlbum, boolean forceRescan) {
+        // List the album directory once for its state, the audio files and the cover candidates
+        DirectoryListing listing = new DirectoryListing(new File(albumPath), mShowHidden, false);
 
-            // Don't show files starting with a dot (hidden files) unless the option is set
-            boolean showHidden = mPrefManager.getBoolean(mContext.getString(R.string.settings_show_hidden_key), Boolean.getBoolean(mContext.getString(R.string.settings_show_hidden_default)));
-            if (!showHidden && sel.getName().startsWith(".")) {
-                return false;
-            }
+        if (oldAlbum == null) {
+            String albumTitle = new File(albumPath).getName();
+            AlbumScan scan = new AlbumScan(new Album(albumTitle, directory, null), true);
+            scan.mAlbum.updateAlbumCover(listing.getImages());
+            scan.mAlbum.setDirectoryState(listing.getLastModified(), listing.getEntryCount());
+            scanAudioFiles(scan, listing);
+            return scan;
+        }
+
+        // Skip albums whose directory did not change since the last synchronization. Counting the
+        // unfiltered entries does not need a stat call per file.
+        long oldLastModified = oldAlbum.getLastModified();
+        int oldEntryCount = oldAlbum.getEntryCount();
+        oldAlbum.setDirectoryState(listing.getLastModified(), listing.getEntryCount());
+        boolean directoryChanged = oldLastModified == -1 || oldAlbum.getLastModified() != oldLastModified
+                || oldAlbum.getEntryCount() != oldEntryCount;
+        if (!forceRescan && !directoryChanged) {
+            return null;
+        }
 
-            // Only list files that are readable and audio files
-            String[] supportedFormats = {".mp3", ".wma", ".ogg", ".wav", ".flac", ".m4a", ".m4b", ".aac", ".3gp", ".gsm", ".mid", ".mkv", ".opus"};
-            for (String format : supportedFormats) {
-                if (sel.getName().endsWith(format)) return true;
+        AlbumScan scan = new AlbumScan(oldAlbum, false);
+        scan.mDirectoryChanged = directoryChanged;
+
+        // Update cover path
+        String oldCoverPath = oldAlbum.getRelativeCoverPath();
+        String newCoverPath = oldAlbum.updateAlbumCover(listing.getImages());
+        if (newCoverPath != null && (oldCoverPath == null || !oldCoverPath.equals(newCoverPath))) {
+            scan.mNewCoverPath = newCoverPath;
+        }
+
+        scanAudioFiles(scan, listing);
+        return scan;
+    }
+
+    /*
+     * Add the operations that write the scan result of an album. Only called by the
+     * synchronization thread, which is the only one writing to the database.
+     */
+    private void addAlbumOperations(ArrayList<ContentProviderOperation> operations, AlbumScan scan) {
+        Album album = scan.mAlbum;
+
+        // The audio files of a new album refer to the id of its insert operation
+        int albumOperationIndex = -1;
+        if (scan.mIsNew) {
+            albumOperationIndex = operations.size();
+            operations.add(ContentProviderOperation.newInsert(AnchorContract.AlbumEntry.CONTENT_URI)
+                    .withValues(album.getContentValues())
+                    .build());
+        } else if (scan.mNewCoverPath != null || scan.mDirectoryChanged) {
+            Uri uri = ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, album.getID());
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(uri)
+                    .withValue(AnchorContract.AlbumEntry.COLUMN_LAST_MODIFIED, album.getLastModified())
+                    .withValue(AnchorContract.AlbumEntry.COLUMN_ENTRY_COUNT, album.getEntryCount());
+            if (scan.mNewCoverPath != null) {
+                builder.withValue(AnchorContract.AlbumEntry.COLUMN_COVER_PATH, scan.mNewCoverPath);
             }
-            return false;
-        };
-
-        // Get all files in the album directory.
-        String[] fileList;
-        File albumDir = new File(albumPath);
-
-        if (albumDir.exists()) {
-            fileList = albumDir.list(filter);
-        } else {
-            fileList = new String[]{};
-        }
-
-        if (fileList == null) return;
-
-        ArrayList<AudioFile> audioFiles = AudioFile.getAllAudioFilesInAlbum(mContext, albumId, null);
-        LinkedHashMap<String, AudioFile> audioTitles = new LinkedHashMap<>();
-         for (AudioFile audioFile : audioFiles) {
-             audioTitles.put(audioFile.getTitle(), audioFile);
-         }
-
-         // Insert new files into the database
-        String errorString = null;
-        for (String audioFileName : fileList) {
-            if (!audioTitles.containsKey(audioFileName)) {
-                AudioFile audioFile = new AudioFile(mContext, audioFileName, albumId);
-                long id = audioFile.insertIntoDB(mContext);
-                if (id == -1) errorString = albumPath + "/" + audioFileName;
-            } else {
-                audioTitles.remove(audioFileName);
+            operations.add(builder.build());
+        }
+
+        // Insert new files into the database
+        for (int i = 0; i < scan.mNewAudioFileTitles.size(); i++) {
+            AudioFile audioFile = new AudioFile(scan.mNewAudioFileTitles.get(i), album, scan.mNewAudioFileDurations[i],
+                    scan.mNewAudioFileUris.get(i));
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(AnchorContract.AudioEntry.CONTENT_URI)
+                    .withValues(audioFile.getContentValues());
+            if (albumOperationIndex != -1) {
+                builder.withValueBackReference(AnchorContract.AudioEntry.COLUMN_ALBUM, albumOperationIndex);
             }
+            operations.add(builder.build());
+        }
+
+        // Delete missing or hidden audio files from the database
+        for (long id : scan.mDeletedAudioFileIds) {
+            Uri uri = ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, id);
+            operations.add(ContentProviderOperation.newDelete(uri).build());
+        }
+    }
+
+    /*
+     * Collect the audio files that need to be inserted into or deleted from the audiofiles table
+     * if the list of audio files in the album directory does not match the audiofiles table entries.
+     */
+    private void scanAudioFiles(AlbumScan scan, DirectoryListing listing) {
+        // Leave the album as it is if its directory cannot be listed
+        if (listing.getEntryCount() == -1) return;
+        String[] fileList = listing.getAudioFiles().toArray(new String[0]);
+
+        // Walk the files and the audio files of the album ordered by title side by side. Only the
+        // ids and titles of the existing audio files are read.
+        Cursor c = null;
+        if (!scan.mIsNew) {
+            String[] projection = {AnchorContract.AudioEntry._ID, AnchorContract.AudioEntry.COLUMN_TITLE};
+            String sel = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
+            String[] selArgs = {Long.toString(scan.mAlbum.getID())};
+            c = mContext.getContentResolver().query(AnchorContract.AudioEntry.CONTENT_URI, projection, sel, selArgs,
+                    AnchorContract.AudioEntry.COLUMN_TITLE);
+        }
+        try (CursorEntries entries = new CursorEntries(c, AnchorContract.AudioEntry.COLUMN_TITLE)) {
+            SyncDiff.diff(fileList, entries, new SyncDiff.Handler() {
+                @Override
+                public void onInsert(String title) {
+                    // Collect new files. Their durations are probed afterwards for all albums at once.
+                    scan.mNewAudioFileTitles.add(title);
+                    scan.mNewAudioFileUris.add(null);
+                }
+
+                @Override
+                public void onKeep(String title) {
+                }
+
+                @Override
+                public void onDelete(String title) {
+                    // Collect missing or hidden audio files
+                    if (!mKeepDeleted || (!mShowHidden && title.startsWith("."))) {
+                        scan.mDeletedAudioFileIds.add(entries.getId());
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     * Get the path of the album with the given title in the given directory
+     */
+    private static String getAlbumPath(Directory directory, String title) {
+        if (directory.getType() == Directory.Type.PARENT_DIR) {
+            return new File(directory.getPath(), title).getAbsolutePath();
         }
-        if (errorString != null) {
-            errorString = mContext.getResources().getString(R.string.audio_file_error, errorString);
-            Toast.makeText(mContext.getApplicationContext(), errorString, Toast.LENGTH_SHORT).show();
+        return new File(directory.getPath()).getAbsolutePath();
+    }
+
+    /*
+     * Apply the collected operations in a single transaction. If one of them fails, none of the
+     * changes for the given directory are written. The provider sends the change notifications of
+     * the batch once per URI after the transaction, so the lists are updated directory by
+     * directory while the synchronization goes on.
+     */
+    private void applyOperations(ArrayList<ContentProviderOperation> operations, String directoryPath) {
+        if (operations.isEmpty()) {
             return;
         }
 
-        // Delete missing or hidden audio files from the database
-        boolean keepDeleted = mPrefManager.getBoolean(mContext.getString(R.string.settings_keep_deleted_key), Boolean.getBoolean(mContext.getString(R.string.settings_keep_deleted_default)));
-        boolean showHidden = mPrefManager.getBoolean(mContext.getString(R.string.settings_show_hidden_key), Boolean.getBoolean(mContext.getString(R.string.settings_show_hidden_default)));
-        for (String title : audioTitles.keySet()) {
-            if (!keepDeleted || (!showHidden && title.startsWith("."))) {
-                long id = audioTitles.get(title).getID();
-                Uri uri = ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, id);
-                mContext.getContentResolver().delete(uri, null, null);
-            }
+        try {
+            mContext.getContentResolver().applyBatch(AnchorContract.CONTENT_AUTHORITY, operations);
+        } catch (OperationApplicationException | RemoteException e) {
+            String errorString = mContext.getResources().getString(R.string.audio_file_error, directoryPath);
+            mMainHandler.post(() -> Toast.makeText(mContext, errorString, Toast.LENGTH_SHORT).show());
         }
     }
 }
@@ -11,6 +11,7 @@ import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 public class Album {
 
@@ -19,13 +20,18 @@ public class Album {
     private Directory mDirectory;
     private String mCoverPath;
     private long mLastPlayedID;
+    // State of the album directory at the last synchronization, -1 if unknown
+    private long mLastModified = -1;
+    private int mEntryCount = -1;
 
     private static final String[] mAlbumColumns = new String[]{
             AnchorContract.AlbumEntry._ID,
             AnchorContract.AlbumEntry.COLUMN_TITLE,
             AnchorContract.AlbumEntry.COLUMN_DIRECTORY,
             AnchorContract.AlbumEntry.COLUMN_COVER_PATH,
-            AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED
+            AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED,
+            AnchorContract.AlbumEntry.COLUMN_LAST_MODIFIED,
+            AnchorContract.AlbumEntry.COLUMN_ENTRY_COUNT
     };
 
     public Album(long id, String title, Directory directory, String coverPath, long lastPlayed) {
@@ -48,6 +54,19 @@ public class Album {
         updateAlbumCover();
     }
 
+    /*
+     * Copy of the given album and its directory, see EntityCache
+     */
+    Album(Album album) {
+        mID = album.mID;
+        mTitle = album.mTitle;
+        mDirectory = album.mDirectory != null ? new Directory(album.mDirectory) : null;
+        mCoverPath = album.mCoverPath;
+        mLastPlayedID = album.mLastPlayedID;
+        mLastModified = album.mLastModified;
+        mEntryCount = album.mEntryCount;
+    }
+
     public long getID() {
         return mID;
     }
@@ -65,6 +84,11 @@ public class Album {
             return null;
         }
 
+        // Covers of albums in a document tree are stored as document URIs
+        if (mDirectory.getType() == Directory.Type.DOCUMENT_TREE) {
+            return mCoverPath;
+        }
+
         return new File(mDirectory.getPath(), mCoverPath).getAbsolutePath();
     }
 
@@ -72,8 +96,11 @@ public class Album {
         mDirectory = directory;
     }
 
+    /*
+     * Get the path of the album directory or null if the album is not in the file system
+     */
     public String getPath() {
-        if (mDirectory == null) {
+        if (mDirectory == null || mDirectory.getType() == Directory.Type.DOCUMENT_TREE) {
             return null;
         }
 
@@ -94,6 +121,22 @@ public class Album {
         return mLastPlayedID;
     }
 
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /*
+     * Set the last modified time and the number of entries of the album directory
+     */
+    public void setDirectoryState(long lastModified, int entryCount) {
+        mLastModified = lastModified;
+        mEntryCount = entryCount;
+    }
+
     static public String[] getColumns() {
         return mAlbumColumns;
     }
@@ -102,6 +145,14 @@ public class Album {
      * Set the album cover if it has not yet been set or if the current cover does not exist anymore
      */
     public String updateAlbumCover() {
+        return updateAlbumCover(null);
+    }
+
+    /*
+     * Set the album cover like updateAlbumCover(). If the album directory has been listed already,
+     * the names of the images in it can be given instead of listing it again.
+     */
+    public String updateAlbumCover(List<String> imageNames) {
         if (mCoverPath == null || !(new File(mDirectory.getPath() + File.separator + mCoverPath).exists())) {
             // Get the album directory. Depending on the directory type, this is either
             // <directory>/<album title> or just <directory>.
@@ -112,7 +163,14 @@ public class Album {
                 albumDir = new File(mDirectory.getPath());
             }
             // Search for images in the album directory
-            mCoverPath = Utils.getImagePath(albumDir);
+            if (imageNames == null) {
+                mCoverPath = Utils.getImagePath(albumDir);
+            } else if (!imageNames.isEmpty()) {
+                // No way of knowing which image is the correct one, so simply choose one.
+                mCoverPath = new File(albumDir, imageNames.get(0)).getAbsolutePath();
+            } else {
+                mCoverPath = null;
+            }
             // Get the cover path relative to the album directory
             if (mCoverPath != null) {
                 mCoverPath = mCoverPath.replace(mDirectory.getPath(), "");
@@ -157,6 +215,10 @@ public class Album {
         values.put(AnchorContract.AlbumEntry.COLUMN_DIRECTORY, mDirectory.getID());
         values.put(AnchorContract.AlbumEntry.COLUMN_COVER_PATH, mCoverPath);
         values.put(AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED, mLastPlayedID);
+        if (mLastModified != -1) {
+            values.put(AnchorContract.AlbumEntry.COLUMN_LAST_MODIFIED, mLastModified);
+            values.put(AnchorContract.AlbumEntry.COLUMN_ENTRY_COUNT, mEntryCount);
+        }
         return values;
     }
 
@@ -164,6 +226,12 @@ public class Album {
      * Retrieve album with given ID from database
      */
     static public Album getAlbumByID(Context context, long id) {
+        Album cachedAlbum = EntityCache.getAlbum(id);
+        if (cachedAlbum != null) {
+            return cachedAlbum;
+        }
+
+        long generation = EntityCache.getGeneration();
         Uri uri = ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, id);
         Cursor c = context.getContentResolver().query(uri, mAlbumColumns, null, null, null);
 
@@ -178,6 +246,7 @@ public class Album {
         Album album = null;
         if (c.moveToNext()) {
             album = getAlbumFromPositionedCursor(context, c);
+            EntityCache.putAlbum(album, generation);
         }
         c.close();
 
@@ -213,7 +282,10 @@ public class Album {
         return albums;
     }
 
-    private static Album getAlbumFromPositionedCursor(Context context, Cursor c) {
+    /*
+     * Create an Album from a cursor with the album columns that is already at the correct position
+     */
+    public static Album getAlbumFromPositionedCursor(Context context, Cursor c) {
         long id = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AlbumEntry._ID));
         String title = c.getString(c.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_TITLE));
         long directoryId = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_DIRECTORY));
@@ -223,6 +295,12 @@ public class Album {
         if (!c.isNull(c.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED))) {
             lastPlayed = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED));
         }
-        return new Album(id, title, directory, coverPath, lastPlayed);
+        Album album = new Album(id, title, directory, coverPath, lastPlayed);
+        int lastModifiedIndex = c.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_LAST_MODIFIED);
+        int entryCountIndex = c.getColumnIndexOrThrow(AnchorContract.AlbumEntry.COLUMN_ENTRY_COUNT);
+        if (!c.isNull(lastModifiedIndex) && !c.isNull(entryCountIndex)) {
+            album.setDirectoryState(c.getLong(lastModifiedIndex), c.getInt(entryCountIndex));
+        }
+        return album;
     }
 }
@@ -4,7 +4,6 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 
 import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
@@ -12,6 +11,8 @@ import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
 import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public class AudioFile implements Serializable {
 
@@ -20,28 +21,43 @@ public class AudioFile implements Serializable {
     private final Album mAlbum;
     private int mTime;
     private int mCompletedTime;
-
-    private static final String[] mAudioFileColumns = {
-                AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry._ID,
-                AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_TITLE,
-                AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_ALBUM,
-                AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_TIME,
-                AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME
+    // Content URI of the document if the audio file is in a document tree, null otherwise
+    private final String mDocumentUri;
+
+    private static final String[] mAudioFileFullColumns = {
+                AnchorContract.AudioFullEntry._ID,
+                AnchorContract.AudioFullEntry.COLUMN_TITLE,
+                AnchorContract.AudioFullEntry.COLUMN_ALBUM,
+                AnchorContract.AudioFullEntry.COLUMN_TIME,
+                AnchorContract.AudioFullEntry.COLUMN_COMPLETED_TIME,
+                AnchorContract.AudioFullEntry.COLUMN_PATH,
+                AnchorContract.AudioFullEntry.COLUMN_ALBUM_TITLE,
+                AnchorContract.AudioFullEntry.COLUMN_ALBUM_COVER_PATH,
+                AnchorContract.AudioFullEntry.COLUMN_ALBUM_LAST_PLAYED,
+                AnchorContract.AudioFullEntry.COLUMN_DIRECTORY,
+                AnchorContract.AudioFullEntry.COLUMN_DIRECTORY_PATH,
+                AnchorContract.AudioFullEntry.COLUMN_DIRECTORY_TYPE
     };
 
-    private AudioFile(Context context, long id, String title, long albumId, int time, int completedTime) {
+    private AudioFile(long id, String title, Album album, int time, int completedTime, String documentUri) {
         mID = id;
         mTitle = title;
-        mAlbum = Album.getAlbumByID(context, albumId);
+        mAlbum = album;
         mTime = time;
         mCompletedTime = completedTime;
+        mDocumentUri = documentUri;
+    }
+
+    public AudioFile(String title, Album album, int time) {
+        this(title, album, time, null);
     }
 
-    public AudioFile(Context context, String title, long albumId) {
+    public AudioFile(String title, Album album, int time, String documentUri) {
         mTitle = title;
-        mAlbum = Album.getAlbumByID(context, albumId);
-        setTimeFromMetadata();
+        mAlbum = album;
+        mTime = time;
         mCompletedTime = 0;
+        mDocumentUri = documentUri;
     }
 
     public long getID() {
@@ -70,7 +86,19 @@ public class AudioFile implements Serializable {
         return mCompletedTime;
     }
 
-    public String getPath() { return mAlbum.getPath() + File.separator + mTitle; }
+    /*
+     * Get the path of the audio file or its content URI if it is a document of a document tree
+     */
+    public String getPath() {
+        if (mDocumentUri != null) {
+            return mDocumentUri;
+        }
+        return mAlbum.getPath() + File.separator + mTitle;
+    }
+
+    public boolean isDocument() {
+        return mDocumentUri != null;
+    }
 
     public String getCoverPath() {
         return mAlbum.getCoverPath();
@@ -80,30 +108,11 @@ public class AudioFile implements Serializable {
         mCompletedTime = completedTime;
     }
 
-    /*
-     * Retrieve audio file duration from metadata.
-     */
-    private void setTimeFromMetadata() {
-        MediaMetadataRetriever metaRetriever = new MediaMetadataRetriever();
-        try {
-            String audioFilePath = mAlbum.getPath() + File.separator + mTitle;
-            metaRetriever.setDataSource(audioFilePath);
-            String duration = metaRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            mTime = Integer.parseInt(duration);
-            metaRetriever.release();
-        } catch (java.lang.RuntimeException e) {
-            mTime = 0;
-        }
-    }
-
     /*
      * Insert audio file into the audio_files table in the database
      */
     public long insertIntoDB(Context context) {
-        ContentValues values = new ContentValues();
-        values.put(AnchorContract.AudioEntry.COLUMN_TITLE, mTitle);
-        values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, mAlbum.getID());
-        values.put(AnchorContract.AudioEntry.COLUMN_TIME, mTime);
+        ContentValues values = getContentValues();
         Uri uri = context.getContentResolver().insert(AnchorContract.AudioEntry.CONTENT_URI, values);
 
         if (uri == null) {
@@ -114,12 +123,26 @@ public class AudioFile implements Serializable {
         return mID;
     }
 
+    /*
+     * Put audio file column values into content values
+     */
+    public ContentValues getContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(AnchorContract.AudioEntry.COLUMN_TITLE, mTitle);
+        values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, mAlbum.getID());
+        values.put(AnchorContract.AudioEntry.COLUMN_TIME, mTime);
+        if (mDocumentUri != null) {
+            values.put(AnchorContract.AudioEntry.COLUMN_PATH, mDocumentUri);
+        }
+        return values;
+    }
+
     /*
      * Retrieve audio file with given ID from database
      */
     public static AudioFile getAudioFileById(Context context, long id) {
-        Uri uri = ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, id);
-        Cursor c = context.getContentResolver().query(uri, mAudioFileColumns, null, null, null);
+        Uri uri = ContentUris.withAppendedId(AnchorContract.AudioFullEntry.CONTENT_URI, id);
+        Cursor c = context.getContentResolver().query(uri, mAudioFileFullColumns, null, null, null);
 
         if (c == null) {
             return null;
@@ -130,7 +153,7 @@ public class AudioFile implements Serializable {
 
         AudioFile audioFile = null;
         if (c.moveToFirst()) {
-            audioFile = getAudioFileFromPositionedCursor(context, c);
+            audioFile = getAudioFileFromPositionedCursor(c, new HashMap<Long, Album>(), new HashMap<Long, Directory>());
         }
         c.close();
 
@@ -142,11 +165,11 @@ public class AudioFile implements Serializable {
      */
     public static ArrayList<AudioFile> getAllAudioFilesInAlbum(Context context, long albumId, String sortOrder) {
         ArrayList<AudioFile> audioFiles = new ArrayList<>();
-        String sel = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
+        String sel = AnchorContract.AudioEntry.TABLE_NAME + "." + AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
         String[] selArgs = {Long.toString(albumId)};
 
-        Cursor c = context.getContentResolver().query(AnchorContract.AudioEntry.CONTENT_URI,
-                mAudioFileColumns, sel, selArgs, sortOrder, null);
+        Cursor c = context.getContentResolver().query(AnchorContract.AudioFullEntry.CONTENT_URI,
+                mAudioFileFullColumns, sel, selArgs, sortOrder, null);
 
         // Bail early if the cursor is null
         if (c == null) {
@@ -156,8 +179,11 @@ public class AudioFile implements Serializable {
             return audioFiles;
         }
 
+        // All audio files of the album share the same Album and Directory objects
+        Map<Long, Album> albums = new HashMap<>();
+        Map<Long, Directory> directories = new HashMap<>();
         while (c.moveToNext()) {
-            AudioFile audioFile = getAudioFileFromPositionedCursor(context, c);
+            AudioFile audioFile = getAudioFileFromPositionedCursor(c, albums, directories);
             audioFiles.add(audioFile);
         }
         c.close();
@@ -166,14 +192,48 @@ public class AudioFile implements Serializable {
     }
 
     /*
-     * Create an Audio File from a cursor that is already at the correct position
+     * Create an Audio File together with its album and directory from a cursor on the joined
+     * audio files URI that is already at the correct position. Albums and directories that are
+     * already contained in the given maps are reused. The directory is null for albums without
+     * directory.
      */
-    private static AudioFile getAudioFileFromPositionedCursor(Context context, Cursor c) {
-        long id = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AudioEntry._ID));
-        String title = c.getString(c.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_TITLE));
-        long albumId = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_ALBUM));
-        int completedTime = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME));
-        int time = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_TIME));
-        return new AudioFile(context, id, title, albumId, time, completedTime);
+    private static AudioFile getAudioFileFromPositionedCursor(Cursor c, Map<Long, Album> albums, Map<Long, Directory> directories) {
+        // Albums without directory have null in all directory columns
+        Directory directory = null;
+        int directoryColumn = c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_DIRECTORY);
+        if (!c.isNull(directoryColumn)) {
+            long directoryId = c.getLong(directoryColumn);
+            directory = directories.get(directoryId);
+            if (directory == null) {
+                String path = c.getString(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_DIRECTORY_PATH));
+                int type = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_DIRECTORY_TYPE));
+                directory = new Directory(directoryId, path, type);
+                directories.put(directoryId, directory);
+            }
+        }
+
+        long albumId = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_ALBUM));
+        Album album = albums.get(albumId);
+        if (album == null) {
+            String albumTitle = c.getString(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_ALBUM_TITLE));
+            String coverPath = c.getString(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_ALBUM_COVER_PATH));
+            long lastPlayed = -1;
+            if (!c.isNull(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_ALBUM_LAST_PLAYED))) {
+                lastPlayed = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_ALBUM_LAST_PLAYED));
+            }
+            album = new Album(albumId, albumTitle, directory, coverPath, lastPlayed);
+            albums.put(albumId, album);
+        }
+
+        long id = c.getLong(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry._ID));
+        String title = c.getString(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_TITLE));
+        int completedTime = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_COMPLETED_TIME));
+        int time = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_TIME));
+        // Audio files on the file system have an empty path
+        String documentUri = c.getString(c.getColumnIndexOrThrow(AnchorContract.AudioFullEntry.COLUMN_PATH));
+        if (documentUri != null && documentUri.isEmpty()) {
+            documentUri = null;
+        }
+        return new AudioFile(id, title, album, time, completedTime, documentUri);
     }
 }
@@ -16,7 +16,10 @@ public class Directory {
 
     public enum Type {
         PARENT_DIR(0),
-        SUB_DIR(1);
+        SUB_DIR(1),
+        // A tree of the storage access framework. The path is the tree URI and every directory
+        // in the tree that contains audio files is an album.
+        DOCUMENT_TREE(2);
 
         private final int value;
         private static final Map<Integer, Type> map = new HashMap<>();
@@ -46,7 +49,7 @@ public class Directory {
             AnchorContract.DirectoryEntry.COLUMN_TYPE
     };
 
-    private Directory(long id, String path, int type) {
+    Directory(long id, String path, int type) {
         mID = id;
         mPath = path;
         mType = Type.valueOf(type);
@@ -57,6 +60,15 @@ public class Directory {
         mType = type;
     }
 
+    /*
+     * Copy of the given directory, see EntityCache
+     */
+    Directory(Directory directory) {
+        mID = directory.mID;
+        mPath = directory.mPath;
+        mType = directory.mType;
+    }
+
     public String getPath() {
         return mPath;
     }
@@ -101,6 +113,12 @@ public class Directory {
      * Retrieve directory with given ID from database
      */
     static Directory getDirectoryByID(Context context, long id) {
+        Directory cachedDirectory = EntityCache.getDirectory(id);
+        if (cachedDirectory != null) {
+            return cachedDirectory;
+        }
+
+        long generation = EntityCache.getGeneration();
         Uri uri = ContentUris.withAppendedId(AnchorContract.DirectoryEntry.CONTENT_URI, id);
         Cursor c = context.getContentResolver().query(uri, mDirectoryColumns, null, null, null);
 
@@ -115,6 +133,7 @@ public class Directory {
         Directory directory = null;
         if (c.moveToNext()) {
             directory = getDirectoryFromPositionedCursor(c);
+            EntityCache.putDirectory(directory, generation);
         }
         c.close();
 
@@ -0,0 +1,119 @@
+package com.prangesoftwaresolutions.audioanchor.models;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+
+import java.util.List;
+
+/**
+ * In-process cache for albums and directories. Repeated lookups of the same id do not query the
+ * database. Lookups return copies of the cached entities, so callers can modify them without
+ * affecting each other. The AnchorProvider invalidates the entries for every URI it writes to,
+ * once right away and once more after the transaction of the write has been committed.
+ */
+
+public final class EntityCache {
+
+    private static final int MAX_ALBUMS = 256;
+    private static final int MAX_DIRECTORIES = 64;
+
+    private static final LruCache<Long, Album> sAlbums = new LruCache<>(MAX_ALBUMS);
+    private static final LruCache<Long, Directory> sDirectories = new LruCache<>(MAX_DIRECTORIES);
+
+    // Incremented on every invalidation. Entities loaded before an invalidation are not cached
+    // since they might already be outdated.
+    private static final Object sLock = new Object();
+    private static long sGeneration = 0;
+
+    private EntityCache() {
+    }
+
+    static long getGeneration() {
+        synchronized (sLock) {
+            return sGeneration;
+        }
+    }
+
+    static Album getAlbum(long id) {
+        Album album = sAlbums.get(id);
+        return album != null ? new Album(album) : null;
+    }
+
+    static void putAlbum(Album album, long generation) {
+        synchronized (sLock) {
+            if (generation == sGeneration) {
+                sAlbums.put(album.getID(), new Album(album));
+            }
+        }
+    }
+
+    static Directory getDirectory(long id) {
+        Directory directory = sDirectories.get(id);
+        return directory != null ? new Directory(directory) : null;
+    }
+
+    static void putDirectory(Directory directory, long generation) {
+        synchronized (sLock) {
+            if (generation == sGeneration) {
+                sDirectories.put(directory.getID(), new Directory(directory));
+            }
+        }
+    }
+
+    /*
+     * Remove the entities stored at the given content URI. Albums hold their directory, so a
+     * changed directory removes all albums.
+     */
+    public static void invalidate(Uri uri) {
+        synchronized (sLock) {
+            sGeneration++;
+            if (isEntityUri(uri, AnchorContract.AlbumEntry.CONTENT_URI)) {
+                if (isItemUri(uri)) {
+                    sAlbums.remove(ContentUris.parseId(uri));
+                } else {
+                    sAlbums.evictAll();
+                }
+            } else if (isEntityUri(uri, AnchorContract.DirectoryEntry.CONTENT_URI)) {
+                if (isItemUri(uri)) {
+                    sDirectories.remove(ContentUris.parseId(uri));
+                } else {
+                    sDirectories.evictAll();
+                }
+                sAlbums.evictAll();
+            }
+        }
+    }
+
+    /*
+     * Remove all entities, e.g. after the database has been replaced
+     */
+    public static void clear() {
+        synchronized (sLock) {
+            sGeneration++;
+            sAlbums.evictAll();
+            sDirectories.evictAll();
+        }
+    }
+
+    public static int hitCount() {
+        return sAlbums.hitCount() + sDirectories.hitCount();
+    }
+
+    public static int missCount() {
+        return sAlbums.missCount() + sDirectories.missCount();
+    }
+
+    private static boolean isEntityUri(Uri uri, Uri tableUri) {
+        List<String> segments = uri.getPathSegments();
+        return tableUri.getAuthority().equals(uri.getAuthority()) && !segments.isEmpty()
+                && segments.get(0).equals(tableUri.getLastPathSegment());
+    }
+
+    private static boolean isItemUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2 && segments.get(1).matches("\\d+");
+    }
+}
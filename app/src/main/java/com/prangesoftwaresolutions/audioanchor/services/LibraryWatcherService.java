@@ -0,0 +1,268 @@
+package com.prangesoftwaresolutions.audioanchor.services;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.database.ContentObserver;
+import android.os.Binder;
+import android.os.Build;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+import com.prangesoftwaresolutions.audioanchor.helpers.Synchronizer;
+import com.prangesoftwaresolutions.audioanchor.models.Directory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Watches the directories of the directories table and their album directories for changes and
+ * synchronizes the changed albums, so that new files show up without a manual refresh. Events
+ * are collected until the file system has been quiet for a moment, e.g. while files are copied.
+ * The service runs as long as an activity that shows the library is bound to it.
+ */
+
+public class LibraryWatcherService extends Service {
+
+    // Time without further events after which the changed albums are synchronized
+    private static final long DEBOUNCE_DELAY_MS = 2000;
+
+    // Events of a parent directory are album directories being added or removed. Within an album
+    // directory, modifications are watched as well to wait until files have been copied completely.
+    private static final int PARENT_DIR_EVENTS = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+    private static final int ALBUM_DIR_EVENTS = PARENT_DIR_EVENTS | FileObserver.MODIFY | FileObserver.CLOSE_WRITE;
+
+    private final IBinder mBinder = new Binder();
+    private HandlerThread mWatcherThread;
+    private Handler mHandler;
+    private ContentObserver mDirectoryObserver;
+    private Synchronizer mSynchronizer;
+
+    // The following fields are only accessed on the watcher thread
+    private final HashMap<Long, Directory> mDirectories = new HashMap<>();
+    private final HashMap<String, LibraryObserver> mObservers = new HashMap<>();
+    private final HashMap<Long, HashSet<String>> mChangedAlbumPaths = new HashMap<>();
+    private final Runnable mSyncChangedAlbums = this::syncChangedAlbums;
+
+    /*
+     * Observer of a parent directory or of an album directory
+     */
+    private class LibraryObserver extends FileObserver {
+        private final long mDirectoryId;
+        private final String mPath;
+        private final boolean mIsParentDir;
+
+        @SuppressWarnings("deprecation")
+        LibraryObserver(long directoryId, String path, boolean isParentDir) {
+            super(path, isParentDir ? PARENT_DIR_EVENTS : ALBUM_DIR_EVENTS);
+            mDirectoryId = directoryId;
+            mPath = path;
+            mIsParentDir = isParentDir;
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.Q)
+        LibraryObserver(long directoryId, File dir, boolean isParentDir) {
+            super(dir, isParentDir ? PARENT_DIR_EVENTS : ALBUM_DIR_EVENTS);
+            mDirectoryId = directoryId;
+            mPath = dir.getAbsolutePath();
+            mIsParentDir = isParentDir;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            // Events arrive on the thread of the FileObserver, handle them on the watcher thread
+            mHandler.post(() -> onLibraryEvent(this, event & FileObserver.ALL_EVENTS, name));
+        }
+    }
+
+    /*
+     * Keep the service running while the given context is bound to it. The returned connection
+     * has to be passed to unbindService() when the library is not shown anymore.
+     */
+    public static ServiceConnection bind(Context context) {
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+            }
+        };
+        context.bindService(new Intent(context, LibraryWatcherService.class), connection, Context.BIND_AUTO_CREATE);
+        return connection;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mWatcherThread = new HandlerThread("LibraryWatcher");
+        mWatcherThread.start();
+        mHandler = new Handler(mWatcherThread.getLooper());
+
+        // All synchronizations are started from the watcher thread
+        mSynchronizer = new Synchronizer(this);
+
+        // Watch directories that are added to or removed from the database
+        mDirectoryObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                updateObservers();
+            }
+        };
+        getContentResolver().registerContentObserver(AnchorContract.DirectoryEntry.CONTENT_URI, true, mDirectoryObserver);
+
+        mHandler.post(this::updateObservers);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        getContentResolver().unregisterContentObserver(mDirectoryObserver);
+        mHandler.post(() -> {
+            // Do not drop changes that are still waiting for the debounce delay
+            mHandler.removeCallbacks(mSyncChangedAlbums);
+            syncChangedAlbums();
+            for (LibraryObserver observer : mObservers.values()) {
+                observer.stopWatching();
+            }
+            mObservers.clear();
+        });
+        mWatcherThread.quitSafely();
+        super.onDestroy();
+    }
+
+    /*
+     * Return the paths that are currently watched, once all pending events have been handled
+     */
+    @VisibleForTesting
+    Set<String> getWatchedPaths() throws InterruptedException, ExecutionException {
+        FutureTask<Set<String>> task = new FutureTask<>(() -> new HashSet<>(mObservers.keySet()));
+        mHandler.post(task);
+        return task.get();
+    }
+
+    /*
+     * Watch all directories of the database and their album directories and stop watching
+     * the paths that do not belong to any of them anymore.
+     */
+    private void updateObservers() {
+        mDirectories.clear();
+        HashSet<String> watchedPaths = new HashSet<>();
+        for (Directory directory : Directory.getDirectories(this)) {
+            if (directory.getType() == Directory.Type.DOCUMENT_TREE) {
+                // Document trees are not in the file system and cannot be watched
+                continue;
+            }
+            mDirectories.put(directory.getID(), directory);
+            String path = new File(directory.getPath()).getAbsolutePath();
+            if (directory.getType() == Directory.Type.PARENT_DIR) {
+                watch(directory.getID(), path, true);
+                watchedPaths.add(path);
+                File[] albumDirs = new File(path).listFiles(File::isDirectory);
+                if (albumDirs != null) {
+                    for (File albumDir : albumDirs) {
+                        watch(directory.getID(), albumDir.getAbsolutePath(), false);
+                        watchedPaths.add(albumDir.getAbsolutePath());
+                    }
+                }
+            } else {
+                watch(directory.getID(), path, false);
+                watchedPaths.add(path);
+            }
+        }
+
+        Iterator<Map.Entry<String, LibraryObserver>> iterator = mObservers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, LibraryObserver> entry = iterator.next();
+            if (!watchedPaths.contains(entry.getKey())) {
+                entry.getValue().stopWatching();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void watch(long directoryId, String path, boolean isParentDir) {
+        LibraryObserver observer = mObservers.get(path);
+        if (observer != null && observer.mDirectoryId == directoryId && observer.mIsParentDir == isParentDir) {
+            return;
+        }
+        if (observer != null) {
+            observer.stopWatching();
+        }
+        // The path constructor is deprecated since Android 10
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            observer = new LibraryObserver(directoryId, new File(path), isParentDir);
+        } else {
+            observer = new LibraryObserver(directoryId, path, isParentDir);
+        }
+        observer.startWatching();
+        mObservers.put(path, observer);
+    }
+
+    /*
+     * Remember the album that changed and restart the debounce delay
+     */
+    private void onLibraryEvent(LibraryObserver observer, int event, String name) {
+        String albumPath;
+        if (observer.mIsParentDir) {
+            if (name == null) {
+                return;
+            }
+            // An album directory was added to or removed from the parent directory
+            albumPath = new File(observer.mPath, name).getAbsolutePath();
+            if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0 && new File(albumPath).isDirectory()) {
+                watch(observer.mDirectoryId, albumPath, false);
+            } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+                LibraryObserver albumObserver = mObservers.remove(albumPath);
+                if (albumObserver != null) {
+                    albumObserver.stopWatching();
+                }
+            }
+        } else {
+            albumPath = observer.mPath;
+        }
+
+        HashSet<String> albumPaths = mChangedAlbumPaths.get(observer.mDirectoryId);
+        if (albumPaths == null) {
+            albumPaths = new HashSet<>();
+            mChangedAlbumPaths.put(observer.mDirectoryId, albumPaths);
+        }
+        albumPaths.add(albumPath);
+
+        mHandler.removeCallbacks(mSyncChangedAlbums);
+        mHandler.postDelayed(mSyncChangedAlbums, DEBOUNCE_DELAY_MS);
+    }
+
+    /*
+     * Synchronize the albums that changed since the last synchronization
+     */
+    private void syncChangedAlbums() {
+        for (Map.Entry<Long, HashSet<String>> entry : mChangedAlbumPaths.entrySet()) {
+            Directory directory = mDirectories.get(entry.getKey());
+            if (directory != null) {
+                mSynchronizer.updateAlbums(directory, entry.getValue());
+            }
+        }
+        mChangedAlbumPaths.clear();
+    }
+}
@@ -8,8 +8,6 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -22,10 +20,10 @@ import android.media.AudioManager;
 import android.media.MediaMetadataRetriever;
 import android.media.MediaPlayer;
 import android.media.session.MediaSessionManager;
-import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import androidx.preference.PreferenceManager;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
@@ -40,9 +38,11 @@ import android.util.Log;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.gson.Gson;
 import com.prangesoftwaresolutions.audioanchor.listeners.SleepTimerStatusListener;
 import com.prangesoftwaresolutions.audioanchor.models.Album;
 import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
+import com.prangesoftwaresolutions.audioanchor.helpers.CoverCache;
 import com.prangesoftwaresolutions.audioanchor.helpers.LockManager;
 import com.prangesoftwaresolutions.audioanchor.models.Bookmark;
 import com.prangesoftwaresolutions.audioanchor.receivers.MediaButtonIntentReceiver;
@@ -50,12 +50,14 @@ import com.prangesoftwaresolutions.audioanchor.callbacks.MediaSessionCallback;
 import com.prangesoftwaresolutions.audioanchor.R;
 import com.prangesoftwaresolutions.audioanchor.helpers.SleepTimer;
 import com.prangesoftwaresolutions.audioanchor.activities.PlayActivity;
-import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
-import com.prangesoftwaresolutions.audioanchor.utils.BitmapUtils;
+import com.prangesoftwaresolutions.audioanchor.data.AnchorWriter;
 import com.prangesoftwaresolutions.audioanchor.utils.SkipIntervalUtils;
 import com.prangesoftwaresolutions.audioanchor.utils.StorageUtil;
+import com.prangesoftwaresolutions.audioanchor.utils.Utils;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import static androidx.core.app.NotificationCompat.VISIBILITY_PUBLIC;
@@ -200,7 +202,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
 
         if (mediaSession == null) {
             initMediaSession();
-            initMediaPlayer(mActiveAudio.getPath(), mActiveAudio.getCompletedTime());
+            initMediaPlayer(mActiveAudio, mActiveAudio.getCompletedTime());
             play();
         }
 
@@ -215,6 +217,25 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         return iBinder;
     }
 
+    /**
+     * Print the statistics of the cover cache, e.g. with
+     * adb shell dumpsys activity service com.prangesoftwaresolutions.audioanchor/.services.MediaPlayerService
+     * The argument "reset" clears the statistics and "json" prints them as JSON object.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        CoverCache coverCache = CoverCache.getInstance(this);
+        if (args != null && args.length > 0) {
+            if (args[0].equals("json")) {
+                writer.println(new Gson().toJson(coverCache.snapshot()));
+                return;
+            } else if (args[0].equals("reset")) {
+                coverCache.resetStatistics();
+            }
+        }
+        coverCache.dump(writer);
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         Log.e("MediaPlayerService", "OnUnbind called");
@@ -276,7 +297,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
                 .build();
     }
 
-    void initMediaPlayer(String path, int position) {
+    void initMediaPlayer(AudioFile audioFile, int position) {
         if (mMediaPlayer == null) {
             mMediaPlayer = new MediaPlayer();
             mMediaPlayer.setOnCompletionListener(this);
@@ -288,7 +309,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
             } else {
                 mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
             }
-            mMediaPlayer.setDataSource(path);
+            setDataSource(audioFile);
 
             // Set playback speed according to preferences
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -316,6 +337,23 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         }
     }
 
+    /*
+     * Set the audio file as data source of the media player. Documents of a document tree are
+     * played through a file descriptor of the document, so they are neither copied nor streamed
+     * through the content provider.
+     */
+    private void setDataSource(AudioFile audioFile) throws IOException {
+        if (!audioFile.isDocument()) {
+            mMediaPlayer.setDataSource(audioFile.getPath());
+            return;
+        }
+
+        // The media player keeps its own duplicate of the descriptor
+        try (ParcelFileDescriptor descriptor = Utils.openDocument(this, audioFile)) {
+            mMediaPlayer.setDataSource(descriptor.getFileDescriptor());
+        }
+    }
+
     @Override
     public void onCompletion(MediaPlayer mp) {
         setCurrentPosition(getDuration());
@@ -364,7 +402,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
             } else {
                 startPosition = mActiveAudio.getCompletedTime();
             }
-            initMediaPlayer(mActiveAudio.getPath(), startPosition);
+            initMediaPlayer(mActiveAudio, startPosition);
             updateAudioFileStatus();  // Needed if startPosition is set to 0 such that the time in the AlbumActivity is updated
             updateMetaData();
             buildNotification();
@@ -391,7 +429,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
             } else {
                 startPosition = mActiveAudio.getCompletedTime();
             }
-            initMediaPlayer(mActiveAudio.getPath(), startPosition);
+            initMediaPlayer(mActiveAudio, startPosition);
             updateAudioFileStatus();
             updateMetaData();
             buildNotification();
@@ -408,7 +446,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
             case AudioManager.AUDIOFOCUS_GAIN:
                 Log.e("MediaPlayerService", "Audiofocus Gain");
                 if (mMediaPlayer == null) {
-                    initMediaPlayer(mActiveAudio.getPath(), mActiveAudio.getCompletedTime());
+                    initMediaPlayer(mActiveAudio, mActiveAudio.getCompletedTime());
                 }
 
                 if (mIsPausedByTransientFocusLoss) {
@@ -636,26 +674,18 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
     }
 
     private Bitmap getNotificationImage(int size) {
-        Bitmap notificationCover;
+        Bitmap notificationCover = null;
         boolean coverFromMetadata = mSharedPreferences.getBoolean(getString(R.string.settings_cover_from_metadata_key), Boolean.getBoolean(getString(R.string.settings_cover_from_metadata_default)));
 
+        CoverCache coverCache = CoverCache.getInstance(this);
         if (coverFromMetadata) {
-            mMetadataRetriever.setDataSource(mActiveAudio.getPath());
-            byte[] coverData = mMetadataRetriever.getEmbeddedPicture();
-
-            if (coverData != null) {
-                notificationCover = BitmapUtils.decodeSampledBitmap(coverData, size, size);
-            } else if (mActiveAudio.getCoverPath() != null) {
-                notificationCover = BitmapUtils.decodeSampledBitmap(mActiveAudio.getCoverPath(), size, size);
-            } else {
-                notificationCover = BitmapUtils.decodeSampledBitmap(getResources(), R.drawable.empty_cover_grey_blue, size, size);
-            }
-        } else {
-            if (mActiveAudio.getCoverPath() != null) {
-                notificationCover = BitmapUtils.decodeSampledBitmap(mActiveAudio.getCoverPath(), size, size);
-            } else {
-                notificationCover = BitmapUtils.decodeSampledBitmap(getResources(), R.drawable.empty_cover_grey_blue, size, size);
-            }
+            notificationCover = coverCache.getEmbeddedCover(mActiveAudio, size);
+        }
+        if (notificationCover == null) {
+            notificationCover = coverCache.getCover(mActiveAudio.getCoverPath(), size);
+        }
+        if (notificationCover == null) {
+            notificationCover = coverCache.getDefaultCover(size);
         }
         return notificationCover;
     }
@@ -687,7 +717,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         String audioTitle = "";
         boolean titleFromMetadata = mSharedPreferences.getBoolean(getString(R.string.settings_title_from_metadata_key), Boolean.getBoolean(getString(R.string.settings_title_from_metadata_default)));
         if (titleFromMetadata) {
-            mMetadataRetriever.setDataSource(mActiveAudio.getPath());
+            Utils.setDataSource(this, mMetadataRetriever, mActiveAudio);
             audioTitle = mMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE);
         }
         if (audioTitle == null || audioTitle.isEmpty()) {
@@ -966,7 +996,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
 
         boolean isPlaying = mMediaPlayer.isPlaying();
         if (!isPlaying) {
-            initMediaPlayer(mActiveAudio.getPath(), mMediaPlayer.getCurrentPosition());
+            initMediaPlayer(mActiveAudio, mMediaPlayer.getCurrentPosition());
         } else {
             setPlaybackSpeedIfInLegalRange(speed);
         }
@@ -1004,19 +1034,17 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         mActiveAudio.setCompletedTime(getCurrentPosition());
 
         // Update the completedTime column of the audiofiles table
-        Uri uri = ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, mActiveAudio.getID());
-        ContentValues values = new ContentValues();
-        values.put(AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME, getCurrentPosition());
-        getContentResolver().update(uri, values, null, null);
+        AnchorWriter.setCompletedTime(this, mActiveAudio.getID(), mActiveAudio.getCompletedTime());
     }
 
     /*
      * Update the last played column of the album table
      */
     void updateLastPlayedAudio() {
+        // The album is owned by the active audio file, cached albums are only handed out as copies
         Album album = mActiveAudio.getAlbum();
         album.setLastPlayedID(mActiveAudio.getID());
-        album.updateInDB(this);
+        AnchorWriter.setLastPlayed(this, album.getID(), mActiveAudio.getID());
     }
 
     /*
@@ -1034,7 +1062,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
         } else {
             secondToLastPlayPosition = lastBookmark.getPosition();
             lastBookmark.setPosition(getCurrentPosition());
-            lastBookmark.updateInDB(this);
+            AnchorWriter.setBookmarkPosition(this, lastBookmark.getID(), lastBookmark.getPosition());
         }
 
         // Get second to last play position bookmark
@@ -1047,7 +1075,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnComplet
                 secondToLastBookmark.insertIntoDB(this);
             } else {
                 secondToLastBookmark.setPosition(secondToLastPlayPosition);
-                secondToLastBookmark.updateInDB(this);
+                AnchorWriter.setBookmarkPosition(this, secondToLastBookmark.getID(), secondToLastBookmark.getPosition());
             }
         }
     }
@@ -1,12 +1,22 @@
 package com.prangesoftwaresolutions.audioanchor.utils;
 
+import android.content.ContentResolver;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import android.widget.ImageView;
 
-import java.io.File;
+import com.prangesoftwaresolutions.audioanchor.helpers.CoverCache;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Utils to make handling bitmaps in a responsible manner easier
@@ -15,27 +25,91 @@ import java.io.File;
 public class BitmapUtils {
 
     private static final String LOG_TAG = Utils.class.getName();
-    private static final int MAX_BITMAP_SIZE = 100000000;
+
+    // Loads the covers of single image views, e.g. the album header or the play screen. The
+    // album lists load their covers in the AlbumCursorAdapter.
+    private static final ExecutorService sImageExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
 
     /**
-     * Set the image of the given image view to the given image file, return false if the file does
-     * not exist.
+     * Set the image of the given image view to the given image file or document. Images that are
+     * not in memory are loaded in the background. Nothing is set if the image does not exist.
      */
     public static void setImage(ImageView iv, String file, int reqSize) {
-        if (file == null) {
+        final CoverCache coverCache = CoverCache.getInstance(iv.getContext());
+        Bitmap bmp = coverCache.peekCover(file, reqSize);
+        if (bmp != null) {
+            cancelImageRequest(iv);
+            iv.setImageBitmap(bmp);
             return;
         }
-        File f = new File(file);
-        if (!f.exists()) {
-            return;
+        loadImage(iv, () -> coverCache.getCover(file, reqSize), 0);
+    }
+
+    /**
+     * Load an image in the background and set it to the given image view. If the loader does not
+     * return an image, the fallback resource is set unless it is 0. The image view is tagged with
+     * the request, so a later request for the same view supersedes this one.
+     */
+    public static void loadImage(final ImageView iv, final Callable<Bitmap> loader, final int fallbackResId) {
+        cancelImageRequest(iv);
+        ImageRequest request = new ImageRequest(iv, loader, fallbackResId);
+        iv.setTag(request);
+        sImageExecutor.execute(request);
+    }
+
+    /*
+     * Cancel the pending request of the image view if it has one. Must be called on the main
+     * thread, like every access of the tag.
+     */
+    private static void cancelImageRequest(ImageView iv) {
+        Object tag = iv.getTag();
+        if (tag instanceof ImageRequest) {
+            ((ImageRequest) tag).mCancelled = true;
+            iv.setTag(null);
         }
-        Bitmap bmp = decodeSampledBitmap(file, reqSize, reqSize);
-        if (bmp != null) {
-            while (bmp.getByteCount() > MAX_BITMAP_SIZE) {
-                Log.d(LOG_TAG, "Bitmap was probably too large at " + bmp.getByteCount() + " bytes, resizing to 1/2 size.");
-                bmp = Bitmap.createScaledBitmap(bmp, bmp.getWidth() / 2, bmp.getHeight() / 2, false);
+    }
+
+    /*
+     * Loads an image in the background and sets it to the image view it was requested for, unless
+     * the request has been cancelled in the meantime. The loading thread only reads the cancelled
+     * flag, the tag of the view is only compared on the main thread.
+     */
+    private static class ImageRequest implements Runnable {
+        final ImageView mImageView;
+        final Callable<Bitmap> mLoader;
+        final int mFallbackResId;
+        volatile boolean mCancelled = false;
+
+        ImageRequest(ImageView imageView, Callable<Bitmap> loader, int fallbackResId) {
+            mImageView = imageView;
+            mLoader = loader;
+            mFallbackResId = fallbackResId;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
             }
-            iv.setImageBitmap(bmp);
+            Bitmap bmp = null;
+            try {
+                bmp = mLoader.call();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Could not load image: " + e);
+            }
+            final Bitmap image = bmp;
+            sMainHandler.post(() -> {
+                if (mCancelled || mImageView.getTag() != this) {
+                    return;
+                }
+                mImageView.setTag(null);
+                if (image != null) {
+                    mImageView.setImageBitmap(image);
+                } else if (mFallbackResId != 0) {
+                    mImageView.setImageResource(mFallbackResId);
+                }
+            });
         }
     }
 
@@ -111,6 +185,37 @@ public class BitmapUtils {
         return null;
     }
 
+    /**
+     * Down sample the image of a document, e.g. a cover in a document tree. The document is
+     * opened once per decoding pass, since decoding moves the position of the descriptor.
+     */
+    public static Bitmap decodeSampledBitmap(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try {
+            try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r")) {
+                if (descriptor == null) {
+                    return null;
+                }
+                BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            }
+
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+            try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r")) {
+                if (descriptor == null) {
+                    return null;
+                }
+                return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+            }
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Could not read " + uri + ": " + e);
+        } catch (java.lang.OutOfMemoryError e) {
+            Log.e(LOG_TAG, "Out of memory." + e);
+        }
+        return null;
+    }
+
     /**
      * Taken from https://developer.android.com/topic/performance/graphics/load-bitmap.html
      * This helps downSample an image.
@@ -21,13 +21,11 @@ public class DBAccessUtils {
      * Get the completion time and the duration of the album with the given id
      */
     public static int[] getAlbumTimes(Context context, long albumID) {
-        // Query the database for the track completion times
-        String[] columns = new String[]{AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME, AnchorContract.AudioEntry.COLUMN_TIME};
-        String sel = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
-        String[] selArgs = {Long.toString(albumID)};
+        // Query the album progress which is kept up to date by the database
+        Uri uri = ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, albumID);
+        String[] columns = new String[]{AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME, AnchorContract.AlbumProgressEntry.COLUMN_DURATION};
 
-        Cursor c = context.getContentResolver().query(AnchorContract.AudioEntry.CONTENT_URI,
-                columns, sel, selArgs, null, null);
+        Cursor c = context.getContentResolver().query(uri, columns, null, null, null);
 
         int[] times = new int[2];
 
@@ -38,17 +36,12 @@ public class DBAccessUtils {
             return times;
         }
 
-        // Loop through the database rows and sum up the audio durations and completed times
-        int sumDuration = 0;
-        int sumCompletedTime = 0;
-        while (c.moveToNext()) {
-            sumDuration += c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_TIME));
-            sumCompletedTime += c.getInt(c.getColumnIndexOrThrow(AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME));
+        if (c.moveToFirst()) {
+            times[0] = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME));
+            times[1] = c.getInt(c.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_DURATION));
         }
         c.close();
 
-        times[0] = sumCompletedTime;
-        times[1] = sumDuration;
         return times;
     }
 
@@ -61,7 +54,7 @@ public class DBAccessUtils {
 
         // Don't allow delete action if the track still exists
         AudioFile audio = AudioFile.getAudioFileById(context, trackId);
-        if (audio != null && !(new File(audio.getPath())).exists()) {
+        if (audio != null && !Utils.audioFileExists(context, audio)) {
             // Delete track from database
             context.getContentResolver().delete(deleteUri, null, null);
             return true;
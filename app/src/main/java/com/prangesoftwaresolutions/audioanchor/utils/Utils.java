@@ -3,6 +3,11 @@ package com.prangesoftwaresolutions.audioanchor.utils;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
 
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.preference.PreferenceManager;
@@ -12,7 +17,9 @@ import com.prangesoftwaresolutions.audioanchor.services.MediaPlayerService;
 import com.prangesoftwaresolutions.audioanchor.R;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
+import java.io.IOException;
 
 /**
  * Utility class for AudioAnchor
@@ -174,6 +181,59 @@ public class Utils {
         return false;
     }
 
+    /*
+     * Check whether the audio file still exists. Documents of a document tree are looked up by
+     * their content URI.
+     */
+    public static boolean audioFileExists(Context context, AudioFile audioFile) {
+        if (!audioFile.isDocument()) {
+            return new File(audioFile.getPath()).exists();
+        }
+
+        String[] projection = {DocumentsContract.Document.COLUMN_DOCUMENT_ID};
+        try (Cursor c = context.getContentResolver().query(Uri.parse(audioFile.getPath()), projection, null, null, null)) {
+            return c != null && c.getCount() > 0;
+        } catch (RuntimeException e) {
+            // The document does not exist anymore or the permission for the tree was revoked
+            return false;
+        }
+    }
+
+    /*
+     * Open a document of a document tree for reading. The descriptor refers to the document
+     * itself, so nothing is copied. The caller has to close it.
+     */
+    public static ParcelFileDescriptor openDocument(Context context, AudioFile audioFile) throws IOException {
+        ParcelFileDescriptor descriptor;
+        try {
+            descriptor = context.getContentResolver().openFileDescriptor(Uri.parse(audioFile.getPath()), "r");
+        } catch (SecurityException e) {
+            throw new IOException("No permission to read " + audioFile.getPath(), e);
+        }
+        if (descriptor == null) {
+            throw new FileNotFoundException(audioFile.getPath());
+        }
+        return descriptor;
+    }
+
+    /*
+     * Set the audio file as data source of the retriever. Documents of a document tree are read
+     * through a file descriptor.
+     */
+    public static void setDataSource(Context context, MediaMetadataRetriever retriever, AudioFile audioFile) {
+        if (!audioFile.isDocument()) {
+            retriever.setDataSource(audioFile.getPath());
+            return;
+        }
+
+        // The retriever does not need the descriptor anymore once the data source is set
+        try (ParcelFileDescriptor descriptor = openDocument(context, audioFile)) {
+            retriever.setDataSource(descriptor.getFileDescriptor());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to open " + audioFile.getPath(), e);
+        }
+    }
+
     public static boolean deleteTrack(Context context, AudioFile audioFile, boolean keepDeletedInDB) {
         // Delete track from file system
         if (audioFile == null) {
@@ -0,0 +1,93 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The progress of an album is maintained by the database when its audio files change, so the
+ * provider has to notify the progress of the album on every insert and delete of audio files.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumProgressNotificationTest {
+
+    private static final Uri PROGRESS_1 = ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, 1);
+    private static final Uri PROGRESS_2 = ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, 2);
+
+    private ContentResolver mResolver;
+    private final List<Uri> mNotifiedUris = Collections.synchronizedList(new ArrayList<Uri>());
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mNotifiedUris.add(uri);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        // Two albums with two tracks each
+        new SyntheticLibrary(1, 2, 2, 0).insertInto(AnchorDbHelper.getInstance(context).getWritableDatabase());
+        mResolver = context.getContentResolver();
+        mResolver.registerContentObserver(AnchorContract.AlbumProgressEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.unregisterContentObserver(mObserver);
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void insert_notifiesProgressOfAlbum() {
+        ContentValues values = new ContentValues();
+        values.put(AnchorContract.AudioEntry.COLUMN_TITLE, "New track.mp3");
+        values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, 2);
+        values.put(AnchorContract.AudioEntry.COLUMN_TIME, 1000);
+        mResolver.insert(AnchorContract.AudioEntry.CONTENT_URI, values);
+
+        assertEquals(Collections.singletonList(PROGRESS_2), mNotifiedUris);
+    }
+
+    @Test
+    public void deleteById_notifiesProgressOfAlbum() {
+        mResolver.delete(ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, 1), null, null);
+
+        assertEquals(Collections.singletonList(PROGRESS_1), mNotifiedUris);
+    }
+
+    @Test
+    public void deleteBySelection_notifiesProgressOfEveryAffectedAlbum() {
+        // The second track of the first album and the first track of the second album
+        int rows = mResolver.delete(AnchorContract.AudioEntry.CONTENT_URI,
+                AnchorContract.AudioEntry._ID + " IN (2, 3)", null);
+        assertEquals(2, rows);
+        assertEquals(Arrays.asList(PROGRESS_1, PROGRESS_2), mNotifiedUris);
+
+        // Nothing deleted, nothing to notify
+        mNotifiedUris.clear();
+        mResolver.delete(AnchorContract.AudioEntry.CONTENT_URI, AnchorContract.AudioEntry._ID + " = 99", null);
+        assertEquals(Collections.emptyList(), mNotifiedUris);
+    }
+}
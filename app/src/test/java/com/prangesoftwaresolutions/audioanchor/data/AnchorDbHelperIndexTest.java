@@ -0,0 +1,117 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the foreign key lookups of the app are answered by the
+ * indices of the database instead of full table scans.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class AnchorDbHelperIndexTest {
+
+    private AnchorDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new AnchorDbHelper(ApplicationProvider.getApplicationContext());
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void audioFilesOfAlbumOrderedByTitle_useAlbumTitleIndex() {
+        // Track list of the album view and the audio file diff of the Synchronizer
+        String sql = "SELECT " + AnchorContract.AudioEntry._ID + ", " + AnchorContract.AudioEntry.COLUMN_TITLE
+                + " FROM " + AnchorContract.AudioEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.AudioEntry.COLUMN_ALBUM + "=?"
+                + " ORDER BY " + AnchorContract.AudioEntry.COLUMN_TITLE;
+        List<String> plan = explain(sql, "1");
+        assertUsesIndex(plan, "idx_audio_files_album_title");
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void audioFileTimesOfAlbum_useCoveringIndex() {
+        String sql = "SELECT SUM(" + AnchorContract.AudioEntry.COLUMN_TIME + "), SUM(" + AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME + ")"
+                + " FROM " + AnchorContract.AudioEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
+        List<String> plan = explain(sql, "1");
+        assertTrue("Expected a covering index in " + plan, plan.toString().contains("COVERING INDEX"));
+    }
+
+    @Test
+    public void albumsOfDirectoryOrderedByTitle_useDirectoryTitleIndex() {
+        // Album diff of the Synchronizer and Album.getAllAlbumsInDirectory
+        String sql = "SELECT * FROM " + AnchorContract.AlbumEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "=?"
+                + " ORDER BY " + AnchorContract.AlbumEntry.COLUMN_TITLE;
+        List<String> plan = explain(sql, "1");
+        assertUsesIndex(plan, "idx_albums_directory_title");
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void bookmarksOfAudioFile_useAudioFileIndex() {
+        String sql = "SELECT * FROM " + AnchorContract.BookmarkEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + "=?";
+        assertUsesIndex(explain(sql, "1"), "idx_bookmarks_audio_file_title");
+    }
+
+    @Test
+    public void bookmarkOfAudioFileByTitle_usesAudioFileIndex() {
+        String sql = "SELECT * FROM " + AnchorContract.BookmarkEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE + "=?"
+                + " AND " + AnchorContract.BookmarkEntry.COLUMN_TITLE + "=?";
+        assertUsesIndex(explain(sql, "1", "Chapter 1"), "idx_bookmarks_audio_file_title");
+    }
+
+    /*
+     * Get the detail column of all rows of the query plan
+     */
+    private List<String> explain(String sql, String... args) {
+        List<String> details = new ArrayList<>();
+        try (Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+            int detailColumn = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                details.add(c.getString(detailColumn));
+            }
+        }
+        return details;
+    }
+
+    private static void assertUsesIndex(List<String> plan, String index) {
+        for (String detail : plan) {
+            if (detail.contains("INDEX " + index)) {
+                return;
+            }
+        }
+        throw new AssertionError("Expected index " + index + " in query plan " + plan);
+    }
+
+    private static void assertNoSort(List<String> plan) {
+        for (String detail : plan) {
+            assertFalse("Expected no sort in query plan " + plan, detail.contains("TEMP B-TREE"));
+        }
+    }
+}
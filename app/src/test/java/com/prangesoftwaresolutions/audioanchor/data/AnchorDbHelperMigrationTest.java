@@ -0,0 +1,127 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of version 4, which has no foreign key constraints, to the current
+ * version. Rows that refer to missing parents are dropped, albums without directory are kept,
+ * and the album progress and the search index are built from the existing rows.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class AnchorDbHelperMigrationTest {
+
+    private AnchorDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        createVersion4Database(context.getDatabasePath(AnchorDbHelper.DATABASE_NAME));
+        mDbHelper = new AnchorDbHelper(context);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void upgrade_dropsRowsWithMissingParents() {
+        assertIds(AnchorContract.AlbumEntry.TABLE_NAME, 1, 3);
+        assertIds(AnchorContract.AudioEntry.TABLE_NAME, 1, 2, 4);
+        assertIds(AnchorContract.BookmarkEntry.TABLE_NAME, 1);
+    }
+
+    @Test
+    public void upgrade_keepsAlbumsWithoutDirectory() {
+        long tracks = DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + AnchorContract.AudioEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.AudioEntry.COLUMN_ALBUM + "=3", null);
+        assertEquals(1, tracks);
+    }
+
+    @Test
+    public void upgrade_enablesCascadingDeletes() {
+        mDb.delete(AnchorContract.DirectoryEntry.TABLE_NAME, AnchorContract.DirectoryEntry._ID + "=1", null);
+
+        assertIds(AnchorContract.AlbumEntry.TABLE_NAME, 3);
+        assertIds(AnchorContract.AudioEntry.TABLE_NAME, 4);
+        assertIds(AnchorContract.BookmarkEntry.TABLE_NAME);
+    }
+
+    @Test
+    public void upgrade_populatesAlbumProgress() {
+        try (Cursor c = mDb.query(AnchorContract.AlbumProgressEntry.TABLE_NAME, null,
+                AnchorContract.AlbumProgressEntry.COLUMN_ALBUM + "=1", null, null, null, null)) {
+            assertTrue(c.moveToFirst());
+            assertEquals(300, c.getInt(c.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_DURATION)));
+            assertEquals(150, c.getInt(c.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME)));
+            assertEquals(2, c.getInt(c.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT)));
+            assertEquals(1, c.getInt(c.getColumnIndexOrThrow(AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TRACK_COUNT)));
+        }
+    }
+
+    @Test
+    public void upgrade_indexesExistingTitles() {
+        long matches = DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME
+                + " WHERE " + AnchorContract.SearchEntry.AUDIO_FILE_TABLE_NAME + " MATCH 'prologue'", null);
+        assertEquals(1, matches);
+    }
+
+    /*
+     * Create the schema of version 4 with rows that refer to missing parents
+     */
+    private static void createVersion4Database(File file) {
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE audio_files (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT NOT NULL, "
+                + "album TEXT NOT NULL, path TEXT, time INTEGER DEFAULT 0, completed_time INTEGER DEFAULT 0);");
+        db.execSQL("CREATE TABLE albums (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT NOT NULL, "
+                + "cover_path TEXT, directory INTEGER, last_played INTEGER);");
+        db.execSQL("CREATE TABLE bookmarks (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT NOT NULL, "
+                + "position INTEGER, audio_file INTEGER);");
+        db.execSQL("CREATE TABLE directories (_id INTEGER PRIMARY KEY AUTOINCREMENT, path TEXT NOT NULL, type INTEGER);");
+        db.execSQL("CREATE INDEX idx_audio_files_album_title ON audio_files (album, title);");
+        db.execSQL("CREATE INDEX idx_albums_directory_title ON albums (directory, title);");
+
+        db.execSQL("INSERT INTO directories VALUES (1, '/storage/audiobooks', 0);");
+        db.execSQL("INSERT INTO albums VALUES (1, 'Kept', 'cover.jpg', 1, 1);");
+        db.execSQL("INSERT INTO albums VALUES (2, 'Missing directory', NULL, 99, NULL);");
+        db.execSQL("INSERT INTO albums VALUES (3, 'No directory', NULL, NULL, NULL);");
+        db.execSQL("INSERT INTO audio_files VALUES (1, '01 Prologue.mp3', '1', NULL, 100, 100);");
+        db.execSQL("INSERT INTO audio_files VALUES (2, '02 Chapter.mp3', '1', NULL, 200, 50);");
+        db.execSQL("INSERT INTO audio_files VALUES (3, 'Orphan.mp3', '2', NULL, 300, 0);");
+        db.execSQL("INSERT INTO audio_files VALUES (4, 'Loose.mp3', '3', NULL, 10, 0);");
+        db.execSQL("INSERT INTO bookmarks VALUES (1, 'Start', 10, 1);");
+        db.execSQL("INSERT INTO bookmarks VALUES (2, 'Orphan', 10, 3);");
+        db.setVersion(4);
+        db.close();
+    }
+
+    private void assertIds(String table, long... expectedIds) {
+        try (Cursor c = mDb.query(table, new String[]{"_id"}, null, null, null, null, "_id")) {
+            assertEquals(expectedIds.length, c.getCount());
+            for (long id : expectedIds) {
+                assertTrue(c.moveToNext());
+                assertEquals(id, c.getLong(0));
+            }
+        }
+    }
+}
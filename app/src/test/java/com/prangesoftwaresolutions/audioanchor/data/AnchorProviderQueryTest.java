@@ -0,0 +1,106 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the columns that the joined queries of the provider return, so that the lists can be
+ * bound without a query per item.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class AnchorProviderQueryTest {
+
+    // 2 albums of 3 tracks, album 3 is added without directory
+    private static final SyntheticLibrary LIBRARY = new SyntheticLibrary(1, 2, 3, 0);
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        SQLiteDatabase db = AnchorDbHelper.getInstance(mContext).getWritableDatabase();
+        LIBRARY.insertInto(db);
+
+        ContentValues values = new ContentValues();
+        values.put(AnchorContract.AlbumEntry.COLUMN_TITLE, "No directory");
+        long albumId = db.insertOrThrow(AnchorContract.AlbumEntry.TABLE_NAME, null, values);
+        values.clear();
+        values.put(AnchorContract.AudioEntry.COLUMN_TITLE, "Loose.mp3");
+        values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, albumId);
+        values.put(AnchorContract.AudioEntry.COLUMN_TIME, 1000);
+        db.insertOrThrow(AnchorContract.AudioEntry.TABLE_NAME, null, values);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void albumQuery_includesDirectoryOfEachAlbum() {
+        String[] projection = new String[]{
+                AnchorContract.AlbumEntry._ID,
+                AnchorContract.AlbumEntry.COLUMN_TITLE,
+                AnchorContract.AlbumEntry.COLUMN_DIRECTORY_PATH,
+                AnchorContract.AlbumEntry.COLUMN_DIRECTORY_TYPE,
+                AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT};
+        try (Cursor c = mContext.getContentResolver().query(AnchorContract.AlbumEntry.CONTENT_URI, projection,
+                null, null, AnchorContract.AlbumEntry._ID)) {
+            assertEquals(3, c.getCount());
+            for (int i = 0; i < LIBRARY.getAlbumCount(); i++) {
+                assertTrue(c.moveToNext());
+                assertEquals("/storage/library1", c.getString(2));
+                assertEquals(0, c.getInt(3));
+                assertEquals(3, c.getInt(4));
+            }
+            assertTrue(c.moveToNext());
+            assertTrue(c.isNull(2));
+            assertTrue(c.isNull(3));
+            assertEquals(1, c.getInt(4));
+        }
+    }
+
+    @Test
+    public void albumQuery_albumColumnsAreUnambiguous() {
+        // The directory columns must not clash with the album columns used in selections
+        try (Cursor c = mContext.getContentResolver().query(AnchorContract.AlbumEntry.CONTENT_URI, null,
+                AnchorContract.AlbumEntry.COLUMN_DIRECTORY + "=?", new String[]{"1"}, null)) {
+            assertEquals(LIBRARY.getAlbumCount(), c.getCount());
+            assertTrue(c.getColumnIndex(AnchorContract.AlbumEntry.COLUMN_DIRECTORY_PATH) != -1);
+        }
+    }
+
+    @Test
+    public void audioFullQuery_includesTracksOfAlbumsWithoutDirectory() {
+        try (Cursor c = mContext.getContentResolver().query(AnchorContract.AudioFullEntry.CONTENT_URI, null, null, null, null)) {
+            assertEquals(LIBRARY.getTrackCount() + 1, c.getCount());
+        }
+
+        List<AudioFile> audioFiles = AudioFile.getAllAudioFilesInAlbum(mContext, 3, null);
+        assertEquals(1, audioFiles.size());
+        assertEquals("Loose.mp3", audioFiles.get(0).getTitle());
+        assertEquals("No directory", audioFiles.get(0).getAlbumTitle());
+        assertNull(audioFiles.get(0).getAlbum().getPath());
+    }
+}
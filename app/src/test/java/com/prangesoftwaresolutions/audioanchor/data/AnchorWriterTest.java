@@ -0,0 +1,164 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes through the compiled statements of the AnchorProvider: the statements have to survive
+ * closing the database, e.g. for an import, concurrent writers must not corrupt each other's
+ * bindings, and every write has to show up in the call statistics.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class AnchorWriterTest {
+
+    // 4 albums of 25 tracks with one bookmark each
+    private static final SyntheticLibrary LIBRARY = new SyntheticLibrary(1, 4, 25, 1);
+
+    private Context mContext;
+    private AnchorProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mProvider = Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        LIBRARY.insertInto(AnchorDbHelper.getInstance(mContext).getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void setCompletedTime_updatesTrackAndAlbumProgress() {
+        AnchorWriter.setCompletedTime(mContext, 2, 1234);
+
+        assertEquals(1234, queryLong(ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, 2),
+                AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME));
+        long albumCompleted = 0;
+        try (Cursor c = mContext.getContentResolver().query(AnchorContract.AudioEntry.CONTENT_URI,
+                new String[]{AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME}, AnchorContract.AudioEntry.COLUMN_ALBUM + "=1", null, null)) {
+            while (c.moveToNext()) {
+                albumCompleted += c.getLong(0);
+            }
+        }
+        assertEquals(albumCompleted, queryLong(ContentUris.withAppendedId(AnchorContract.AlbumProgressEntry.CONTENT_URI, 1),
+                AnchorContract.AlbumProgressEntry.COLUMN_COMPLETED_TIME));
+    }
+
+    @Test
+    public void writes_workAfterDatabaseWasClosed() {
+        AnchorWriter.setLastPlayed(mContext, 1, 3);
+        mContext.getContentResolver().call(AnchorContract.BASE_CONTENT_URI, AnchorContract.METHOD_CLOSE_DATABASE, null, null);
+
+        // Statements compiled for the closed database must not be reused
+        AnchorWriter.setLastPlayed(mContext, 1, 4);
+        AnchorWriter.setBookmarkPosition(mContext, 1, 777);
+
+        assertEquals(4, queryLong(ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, 1),
+                AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED));
+        assertEquals(777, queryLong(ContentUris.withAppendedId(AnchorContract.BookmarkEntry.CONTENT_URI, 1),
+                AnchorContract.BookmarkEntry.COLUMN_POSITION));
+    }
+
+    @Test
+    public void writes_areRecordedInCallStatistics() {
+        AnchorWriter.setCompletedTime(mContext, 1, 10);
+        AnchorWriter.setCompletedTime(mContext, 2, 10);
+        AnchorWriter.setLastPlayed(mContext, 1, 2);
+        AnchorWriter.setBookmarkPosition(mContext, 1, 10);
+
+        String stats = dump("json");
+        assertTrue(stats, stats.contains("\"" + AnchorContract.METHOD_SET_COMPLETED_TIME + " " + AnchorContract.PATH_AUDIO_FILES + "/#\":{\"calls\":2"));
+        assertTrue(stats, stats.contains("\"" + AnchorContract.METHOD_SET_LAST_PLAYED + " " + AnchorContract.PATH_ALBUM + "/#\":{\"calls\":1"));
+        assertTrue(stats, stats.contains("\"" + AnchorContract.METHOD_SET_BOOKMARK_POSITION + " " + AnchorContract.PATH_BOOKMARK + "/#\":{\"calls\":1"));
+    }
+
+    @Test
+    public void concurrentWriters_eachRowGetsItsOwnValue() throws Exception {
+        final int threads = 4;
+        final int rounds = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // Every thread writes its own tracks, so a value bound by another thread
+                        // would end up in the wrong row
+                        for (int round = 1; round <= rounds; round++) {
+                            for (long audioId = thread + 1; audioId <= LIBRARY.getTrackCount(); audioId += threads) {
+                                AnchorWriter.setCompletedTime(mContext, audioId, (int) (audioId * 1000 + round));
+                            }
+                            AnchorWriter.setLastPlayed(mContext, thread + 1, round);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        SQLiteDatabase db = AnchorDbHelper.getInstance(mContext).getReadableDatabase();
+        try (Cursor c = db.query(AnchorContract.AudioEntry.TABLE_NAME, new String[]{AnchorContract.AudioEntry._ID,
+                AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME}, null, null, null, null, null)) {
+            assertEquals(LIBRARY.getTrackCount(), c.getCount());
+            while (c.moveToNext()) {
+                assertEquals(c.getLong(0) * 1000 + rounds, c.getLong(1));
+            }
+        }
+        for (long albumId = 1; albumId <= threads; albumId++) {
+            assertEquals(rounds, queryLong(ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, albumId),
+                    AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED));
+        }
+        String stats = dump("json");
+        int expectedCalls = LIBRARY.getTrackCount() * rounds;
+        assertTrue(stats, stats.contains("\"" + AnchorContract.METHOD_SET_COMPLETED_TIME + " " + AnchorContract.PATH_AUDIO_FILES + "/#\":{\"calls\":" + expectedCalls));
+    }
+
+    private long queryLong(Uri uri, String column) {
+        try (Cursor c = mContext.getContentResolver().query(uri, new String[]{column}, null, null, null)) {
+            assertTrue("No row for " + uri, c.moveToFirst());
+            return c.getLong(0);
+        }
+    }
+
+    private String dump(String... args) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        mProvider.dump(null, writer, args);
+        writer.flush();
+        return out.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Deleting a directory removes its albums, tracks, bookmarks and album progress through the
+ * foreign key constraints with a single statement. How this compares to deleting every child row
+ * on its own is measured by ProviderBenchmark.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class CascadeDeleteTest {
+
+    // One directory with 200 albums of 50 tracks, i.e. 10k tracks
+    private static final SyntheticLibrary LIBRARY = new SyntheticLibrary(1, 200, 50, 1);
+
+    private AnchorDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new AnchorDbHelper(ApplicationProvider.getApplicationContext());
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void deleteDirectory_cascadesToAllChildRows() {
+        LIBRARY.insertInto(mDb);
+        // A second directory must not be affected
+        new SyntheticLibrary(1, 2, 3, 1).insertInto(mDb);
+
+        mDb.delete(AnchorContract.DirectoryEntry.TABLE_NAME, AnchorContract.DirectoryEntry._ID + "=?", new String[]{"1"});
+
+        assertEquals(2, count(AnchorContract.AlbumEntry.TABLE_NAME));
+        assertEquals(6, count(AnchorContract.AudioEntry.TABLE_NAME));
+        assertEquals(6, count(AnchorContract.BookmarkEntry.TABLE_NAME));
+        assertEquals(2, count(AnchorContract.AlbumProgressEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void deleteAlbum_cascadesToTracksAndBookmarks() {
+        new SyntheticLibrary(1, 2, 3, 2).insertInto(mDb);
+
+        mDb.delete(AnchorContract.AlbumEntry.TABLE_NAME, AnchorContract.AlbumEntry._ID + "=?", new String[]{"1"});
+
+        assertEquals(3, count(AnchorContract.AudioEntry.TABLE_NAME));
+        assertEquals(6, count(AnchorContract.BookmarkEntry.TABLE_NAME));
+        assertEquals(1, count(AnchorContract.AlbumProgressEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + AnchorContract.AudioEntry.TABLE_NAME
+                + " WHERE " + AnchorContract.AudioEntry.COLUMN_ALBUM + "=1", null));
+    }
+
+    private long count(String table) {
+        return DatabaseUtils.queryNumEntries(mDb, table);
+    }
+}
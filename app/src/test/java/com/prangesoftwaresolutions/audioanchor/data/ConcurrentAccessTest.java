@@ -0,0 +1,155 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs readers against the provider while writers add albums in batches, like the loaders of
+ * the album list do during a sync. Each album is inserted together with its tracks in one
+ * transaction, so a reader must never see an album whose progress counts only part of them.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class ConcurrentAccessTest {
+
+    private static final int WRITERS = 2;
+    private static final int READERS = 3;
+    private static final int ALBUMS_PER_WRITER = 40;
+    private static final int TRACKS_PER_ALBUM = 20;
+
+    private static final String[] ALBUM_PROJECTION = new String[]{
+            AnchorContract.AlbumEntry.TABLE_NAME + "." + AnchorContract.AlbumEntry._ID,
+            AnchorContract.AlbumProgressEntry.COLUMN_TRACK_COUNT,
+            AnchorContract.AlbumProgressEntry.COLUMN_DURATION};
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        // A directory without albums for the writers to fill
+        new SyntheticLibrary(1, 0, 0, 0).insertInto(AnchorDbHelper.getInstance(mContext).getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void readers_seeOnlyCompleteAlbumsWhileWritersCommit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<Integer>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                final int writer = w;
+                writers.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        for (int a = 0; a < ALBUMS_PER_WRITER; a++) {
+                            mContext.getContentResolver().applyBatch(AnchorContract.CONTENT_AUTHORITY,
+                                    getInsertAlbumOperations("Writer " + writer + " album " + a));
+                        }
+                        return ALBUMS_PER_WRITER;
+                    }
+                }));
+            }
+
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                readers.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int queries = 0;
+                        // Read at least once after the writers have finished
+                        boolean lastRound;
+                        do {
+                            lastRound = !writing.get();
+                            assertCompleteAlbums(mContext.getContentResolver());
+                            queries++;
+                        } while (!lastRound);
+                        return queries;
+                    }
+                }));
+            }
+
+            start.countDown();
+            int albums = 0;
+            for (Future<Integer> writer : writers) {
+                albums += writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            int queries = 0;
+            for (Future<Integer> reader : readers) {
+                queries += reader.get(60, TimeUnit.SECONDS);
+            }
+
+            assertEquals(WRITERS * ALBUMS_PER_WRITER, albums);
+            assertEquals(WRITERS * ALBUMS_PER_WRITER, assertCompleteAlbums(mContext.getContentResolver()));
+            assertTrue(queries >= READERS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Insert the album and its tracks, which refer to the album by a back reference
+     */
+    private static ArrayList<ContentProviderOperation> getInsertAlbumOperations(String title) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(AnchorContract.AlbumEntry.CONTENT_URI)
+                .withValue(AnchorContract.AlbumEntry.COLUMN_TITLE, title)
+                .withValue(AnchorContract.AlbumEntry.COLUMN_DIRECTORY, 1)
+                .build());
+        for (int t = 1; t <= TRACKS_PER_ALBUM; t++) {
+            operations.add(ContentProviderOperation.newInsert(AnchorContract.AudioEntry.CONTENT_URI)
+                    .withValue(AnchorContract.AudioEntry.COLUMN_TITLE, title + " track " + t + ".mp3")
+                    .withValueBackReference(AnchorContract.AudioEntry.COLUMN_ALBUM, 0)
+                    .withValue(AnchorContract.AudioEntry.COLUMN_TIME, 1000)
+                    .build());
+        }
+        return operations;
+    }
+
+    /*
+     * Check the progress of all albums and return their number
+     */
+    private static int assertCompleteAlbums(ContentResolver resolver) {
+        try (Cursor c = resolver.query(AnchorContract.AlbumEntry.CONTENT_URI, ALBUM_PROJECTION, null, null, null)) {
+            while (c.moveToNext()) {
+                assertEquals("Tracks of album " + c.getLong(0), TRACKS_PER_ALBUM, c.getInt(1));
+                assertEquals("Duration of album " + c.getLong(0), TRACKS_PER_ALBUM * 1000, c.getLong(2));
+            }
+            return c.getCount();
+        }
+    }
+}
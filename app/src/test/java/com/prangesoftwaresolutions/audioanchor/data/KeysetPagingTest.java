@@ -0,0 +1,140 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pages of the audio file and album queries, each starting after the id and title of the last
+ * row of the previous page, must add up to the complete list in the order of the unpaged query.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class KeysetPagingTest {
+
+    // Titles with numbers, equal titles and titles that only differ in case
+    private static final String[] TITLES = {"10 Ten.mp3", "2 Two.mp3", "1 One.mp3", "Epilogue.mp3", "epilogue.mp3",
+            "Epilogue.mp3", "Intro.mp3", "02 Two again.mp3", "Prologue.mp3", "Epilogue.mp3"};
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        SQLiteDatabase db = AnchorDbHelper.getInstance(mContext).getWritableDatabase();
+        // Two albums so that the selection has to be combined with the keyset condition
+        new SyntheticLibrary(1, 2, 0, 0).insertInto(db);
+        ContentValues values = new ContentValues();
+        for (long albumId = 1; albumId <= 2; albumId++) {
+            for (String title : TITLES) {
+                values.clear();
+                values.put(AnchorContract.AudioEntry.COLUMN_TITLE, title);
+                values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, albumId);
+                db.insertOrThrow(AnchorContract.AudioEntry.TABLE_NAME, null, values);
+            }
+        }
+        for (String title : TITLES) {
+            values.clear();
+            values.put(AnchorContract.AlbumEntry.COLUMN_TITLE, title);
+            values.put(AnchorContract.AlbumEntry.COLUMN_DIRECTORY, 1);
+            db.insertOrThrow(AnchorContract.AlbumEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void audioPages_addUpToTheTracksOfTheAlbum() {
+        String selection = AnchorContract.AudioEntry.COLUMN_ALBUM + "=?";
+        String[] selectionArgs = {"2"};
+        String sortOrder = "CAST(" + AnchorContract.AudioEntry.COLUMN_TITLE + " AS SIGNED), LOWER("
+                + AnchorContract.AudioEntry.COLUMN_TITLE + "), " + AnchorContract.AudioEntry._ID;
+        List<Long> expected = queryIds(AnchorContract.AudioEntry.CONTENT_URI, selection, selectionArgs, sortOrder);
+        assertEquals(TITLES.length, expected.size());
+
+        for (int pageSize = 1; pageSize <= 4; pageSize++) {
+            assertEquals("Page size " + pageSize, expected, queryPages(AnchorContract.AudioEntry.CONTENT_URI, selection, selectionArgs, pageSize));
+        }
+    }
+
+    @Test
+    public void albumPages_addUpToAllAlbums() {
+        String sortOrder = AnchorContract.AlbumEntry.COLUMN_TITLE + " COLLATE NOCASE, albums." + AnchorContract.AlbumEntry._ID;
+        List<Long> expected = queryIds(AnchorContract.AlbumEntry.CONTENT_URI, null, null, sortOrder);
+        assertEquals(TITLES.length + 2, expected.size());
+
+        for (int pageSize = 1; pageSize <= 4; pageSize++) {
+            assertEquals("Page size " + pageSize, expected, queryPages(AnchorContract.AlbumEntry.CONTENT_URI, null, null, pageSize));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageAfterIdWithoutTitle_isRejected() {
+        Uri uri = AnchorContract.AudioEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_SIZE, "2")
+                .appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER, "1")
+                .build();
+        mContext.getContentResolver().query(uri, null, null, null, null);
+    }
+
+    private List<Long> queryIds(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        List<Long> ids = new ArrayList<>();
+        String[] projection = {uri.getLastPathSegment().equals(AnchorContract.PATH_ALBUM) ? "albums._id" : "_id"};
+        try (Cursor c = mContext.getContentResolver().query(uri, projection, selection, selectionArgs, sortOrder)) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        }
+        return ids;
+    }
+
+    /*
+     * Query all pages like the PagedCursorLoader does and return the ids of their rows
+     */
+    private List<Long> queryPages(Uri uri, String selection, String[] selectionArgs, int pageSize) {
+        List<Long> ids = new ArrayList<>();
+        String table = uri.getLastPathSegment().equals(AnchorContract.PATH_ALBUM)
+                ? AnchorContract.AlbumEntry.TABLE_NAME : AnchorContract.AudioEntry.TABLE_NAME;
+        String[] projection = {table + "._id", table + ".title"};
+        Long afterId = null;
+        String afterTitle = null;
+        while (true) {
+            Uri.Builder builder = uri.buildUpon()
+                    .appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_SIZE, String.valueOf(pageSize));
+            if (afterId != null) {
+                builder.appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER, String.valueOf(afterId));
+                builder.appendQueryParameter(AnchorContract.QUERY_PARAMETER_PAGE_AFTER_TITLE, afterTitle);
+            }
+            try (Cursor page = mContext.getContentResolver().query(builder.build(), projection, selection, selectionArgs, null)) {
+                while (page.moveToNext()) {
+                    afterId = page.getLong(0);
+                    afterTitle = page.getString(1);
+                    ids.add(afterId);
+                }
+                if (page.getCount() < pageSize) {
+                    return ids;
+                }
+            }
+        }
+    }
+}
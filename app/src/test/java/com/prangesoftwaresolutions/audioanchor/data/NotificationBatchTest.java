@@ -0,0 +1,94 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * A batch defers the change notifications of the thread that started it. Writes of other threads
+ * must still be notified right away, e.g. the playback position while a sync is running.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationBatchTest {
+
+    private static final Uri BOOKMARK_1 = ContentUris.withAppendedId(AnchorContract.BookmarkEntry.CONTENT_URI, 1);
+    private static final Uri BOOKMARK_2 = ContentUris.withAppendedId(AnchorContract.BookmarkEntry.CONTENT_URI, 2);
+
+    private Context mContext;
+    private final List<Uri> mNotifiedUris = Collections.synchronizedList(new ArrayList<Uri>());
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mNotifiedUris.add(uri);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        // One track with two bookmarks
+        new SyntheticLibrary(1, 1, 1, 2).insertInto(AnchorDbHelper.getInstance(mContext).getWritableDatabase());
+        mContext.getContentResolver().registerContentObserver(AnchorContract.BookmarkEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void batch_defersNotificationsOfItsThreadOnly() throws InterruptedException {
+        call(AnchorContract.METHOD_BEGIN_BATCH);
+        AnchorWriter.setBookmarkPosition(mContext, 1, 10);
+        AnchorWriter.setBookmarkPosition(mContext, 1, 20);
+        assertEquals(Collections.emptyList(), mNotifiedUris);
+
+        Thread otherThread = new Thread(() -> AnchorWriter.setBookmarkPosition(mContext, 2, 30));
+        otherThread.start();
+        otherThread.join();
+        assertEquals(Collections.singletonList(BOOKMARK_2), mNotifiedUris);
+
+        call(AnchorContract.METHOD_END_BATCH);
+        assertEquals(Arrays.asList(BOOKMARK_2, BOOKMARK_1), mNotifiedUris);
+    }
+
+    @Test
+    public void nestedBatches_notifyWhenOutermostBatchEnds() {
+        call(AnchorContract.METHOD_BEGIN_BATCH);
+        call(AnchorContract.METHOD_BEGIN_BATCH);
+        AnchorWriter.setBookmarkPosition(mContext, 1, 10);
+        call(AnchorContract.METHOD_END_BATCH);
+        assertEquals(Collections.emptyList(), mNotifiedUris);
+
+        call(AnchorContract.METHOD_END_BATCH);
+        assertEquals(Collections.singletonList(BOOKMARK_1), mNotifiedUris);
+
+        // Without a batch, every write is notified
+        AnchorWriter.setBookmarkPosition(mContext, 1, 20);
+        assertEquals(Arrays.asList(BOOKMARK_1, BOOKMARK_1), mNotifiedUris);
+    }
+
+    private void call(String method) {
+        mContext.getContentResolver().call(AnchorContract.BASE_CONTENT_URI, method, null, null);
+    }
+}
@@ -0,0 +1,426 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.prangesoftwaresolutions.audioanchor.helpers.AudioFixtures;
+import com.prangesoftwaresolutions.audioanchor.helpers.HeaderMetadataProbe;
+import com.prangesoftwaresolutions.audioanchor.models.AudioFile;
+import com.prangesoftwaresolutions.audioanchor.utils.DBAccessUtils;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Throughput of the provider on a synthetic library: queries, inserts and deletes through the
+ * content resolver, the full text search, the album progress of DBAccessUtils.getAlbumTimes(),
+ * cascading deletes of a directory compared to deleting its rows one by one and the hydration of
+ * AudioFile objects. The duration probe of the synchronization is measured on the synthetic files
+ * of AudioFixtures. Only the header parser can run here, the MediaMetadataRetriever fallback needs
+ * the platform decoders and is not available on the JVM. Each benchmark reports the median time per
+ * operation, the results are written as JSON object and compared with the baseline.
+ *
+ * The benchmarks are excluded from the normal unit tests and run with
+ * ./gradlew testDebugUnitTest -Pbenchmark
+ * A benchmark fails if it is more than BENCHMARK_TOLERANCE slower than its baseline. With
+ * -PupdateBaseline the results replace the baseline in app/benchmark/baseline.json. Without a
+ * baseline the results are only written to app/build/benchmark/results.json.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class ProviderBenchmark {
+
+    // 5 directories with 40 albums of 50 tracks and 2 bookmarks per track
+    private static final SyntheticLibrary LIBRARY = new SyntheticLibrary(5, 40, 50, 2);
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+    private static final int ROWS_PER_ITERATION = 200;
+
+    // Allowed slowdown compared to the baseline, e.g. 0.5 for 50% slower
+    private static final double BENCHMARK_TOLERANCE = Double.parseDouble(System.getProperty("benchmark.tolerance", "0.5"));
+
+    private static final Map<String, Map<String, Object>> sResults = new LinkedHashMap<>();
+    private static Map<String, Map<String, Double>> sBaseline = new LinkedHashMap<>();
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private SQLiteDatabase mDb;
+
+    /*
+     * One benchmark. Only run() is timed, prepare() can set up the rows that run() works on.
+     */
+    private abstract static class Workload {
+        void prepare() {
+        }
+
+        // Run the operations and return how many there were
+        abstract int run();
+    }
+
+    @BeforeClass
+    public static void loadBaseline() throws IOException {
+        String baselinePath = System.getProperty("benchmark.baseline");
+        if (baselinePath == null || !new File(baselinePath).exists()) {
+            System.out.println("No benchmark baseline, the results are not compared");
+            return;
+        }
+        try (Reader reader = new FileReader(baselinePath)) {
+            sBaseline = new Gson().fromJson(reader, new TypeToken<Map<String, Map<String, Double>>>() {}.getType());
+        }
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(sResults);
+        System.out.println(json);
+
+        List<String> paths = new ArrayList<>();
+        paths.add(System.getProperty("benchmark.results", "build/benchmark/results.json"));
+        if (Boolean.parseBoolean(System.getProperty("benchmark.updateBaseline"))) {
+            paths.add(System.getProperty("benchmark.baseline"));
+        }
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            try (Writer writer = new FileWriter(file)) {
+                writer.write(json);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        mDb = AnchorDbHelper.getInstance(mContext).getWritableDatabase();
+        LIBRARY.insertInto(mDb);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void queryAlbums() {
+        measure("query_albums", new Workload() {
+            @Override
+            int run() {
+                // The album list with progress and directory, as shown by the main activity
+                try (Cursor c = mContext.getContentResolver().query(AnchorContract.AlbumEntry.CONTENT_URI, null, null, null,
+                        AnchorContract.AlbumEntry.COLUMN_TITLE + " COLLATE NOCASE")) {
+                    assertEquals(LIBRARY.getAlbumCount(), c.getCount());
+                    readAll(c);
+                }
+                return 1;
+            }
+        });
+    }
+
+    @Test
+    public void queryAudioFilesOfAlbum() {
+        measure("query_audio_files_of_album", new Workload() {
+            @Override
+            int run() {
+                for (long albumId = 1; albumId <= LIBRARY.getAlbumCount(); albumId++) {
+                    try (Cursor c = mContext.getContentResolver().query(AnchorContract.AudioEntry.CONTENT_URI, null,
+                            AnchorContract.AudioEntry.COLUMN_ALBUM + "=?", new String[]{String.valueOf(albumId)},
+                            AnchorContract.AudioEntry.COLUMN_TITLE)) {
+                        readAll(c);
+                    }
+                }
+                return LIBRARY.getAlbumCount();
+            }
+        });
+    }
+
+    @Test
+    public void insertAudioFiles() {
+        measure("insert_audio_file", new Workload() {
+            @Override
+            int run() {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < ROWS_PER_ITERATION; i++) {
+                    values.clear();
+                    values.put(AnchorContract.AudioEntry.COLUMN_TITLE, SyntheticLibrary.getTitle("Inserted", i) + ".mp3");
+                    values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, 1 + i % LIBRARY.getAlbumCount());
+                    values.put(AnchorContract.AudioEntry.COLUMN_TIME, 60000);
+                    mContext.getContentResolver().insert(AnchorContract.AudioEntry.CONTENT_URI, values);
+                }
+                return ROWS_PER_ITERATION;
+            }
+        });
+    }
+
+    @Test
+    public void deleteAudioFiles() {
+        final long[] ids = new long[ROWS_PER_ITERATION];
+        measure("delete_audio_file", new Workload() {
+            @Override
+            void prepare() {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < ROWS_PER_ITERATION; i++) {
+                    values.clear();
+                    values.put(AnchorContract.AudioEntry.COLUMN_TITLE, SyntheticLibrary.getTitle("Deleted", i) + ".mp3");
+                    values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, 1 + i % LIBRARY.getAlbumCount());
+                    ids[i] = mDb.insertOrThrow(AnchorContract.AudioEntry.TABLE_NAME, null, values);
+                }
+            }
+
+            @Override
+            int run() {
+                for (long id : ids) {
+                    Uri uri = ContentUris.withAppendedId(AnchorContract.AudioEntry.CONTENT_URI, id);
+                    assertEquals(1, mContext.getContentResolver().delete(uri, null, null));
+                }
+                return ids.length;
+            }
+        });
+    }
+
+    @Test
+    public void getAlbumTimes() {
+        measure("get_album_times", new Workload() {
+            @Override
+            int run() {
+                for (long albumId = 1; albumId <= LIBRARY.getAlbumCount(); albumId++) {
+                    int[] times = DBAccessUtils.getAlbumTimes(mContext, albumId);
+                    assertTrue(times[1] > 0);
+                }
+                return LIBRARY.getAlbumCount();
+            }
+        });
+    }
+
+    @Test
+    public void cascadeDeleteDirectory() {
+        // A directory with 1000 tracks and their bookmarks
+        final SyntheticLibrary directory = new SyntheticLibrary(1, 20, 50, 2);
+        final long[] directoryId = new long[1];
+        measure("cascade_delete_directory", new Workload() {
+            @Override
+            void prepare() {
+                directory.insertInto(mDb);
+                directoryId[0] = DatabaseUtils.longForQuery(mDb, "SELECT MAX(" + AnchorContract.DirectoryEntry._ID
+                        + ") FROM " + AnchorContract.DirectoryEntry.TABLE_NAME, null);
+            }
+
+            @Override
+            int run() {
+                Uri uri = ContentUris.withAppendedId(AnchorContract.DirectoryEntry.CONTENT_URI, directoryId[0]);
+                assertEquals(1, mContext.getContentResolver().delete(uri, null, null));
+                return 1;
+            }
+        });
+        assertEquals(LIBRARY.getTrackCount(), DatabaseUtils.queryNumEntries(mDb, AnchorContract.AudioEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void rowByRowDeleteDirectory() {
+        // The same directory as cascade_delete_directory, deleted like the provider did before
+        // the foreign key constraints existed
+        final SyntheticLibrary directory = new SyntheticLibrary(1, 20, 50, 2);
+        final long[] directoryId = new long[1];
+        measure("row_by_row_delete_directory", new Workload() {
+            @Override
+            void prepare() {
+                directory.insertInto(mDb);
+                directoryId[0] = DatabaseUtils.longForQuery(mDb, "SELECT MAX(" + AnchorContract.DirectoryEntry._ID
+                        + ") FROM " + AnchorContract.DirectoryEntry.TABLE_NAME, null);
+            }
+
+            @Override
+            int run() {
+                deleteRowByRow(directoryId[0]);
+                return 1;
+            }
+        });
+        assertEquals(LIBRARY.getTrackCount(), DatabaseUtils.queryNumEntries(mDb, AnchorContract.AudioEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void hydrateAudioFiles() {
+        measure("hydrate_audio_files_of_album", new Workload() {
+            @Override
+            int run() {
+                for (long albumId = 1; albumId <= LIBRARY.getAlbumCount(); albumId++) {
+                    assertEquals(LIBRARY.mTracksPerAlbum, AudioFile.getAllAudioFilesInAlbum(mContext, albumId, null).size());
+                }
+                return LIBRARY.getAlbumCount();
+            }
+        });
+    }
+
+    @Test
+    public void search() {
+        // Search texts as typed into the search field: prefixes, several words and no match
+        final String[] filters = {"winter", "Track 12", "st", "chapter night", "zephyr"};
+        measure("search", new Workload() {
+            @Override
+            int run() {
+                for (String filter : filters) {
+                    Uri uri = AnchorContract.SearchEntry.CONTENT_URI.buildUpon()
+                            .appendQueryParameter(AnchorContract.SearchEntry.QUERY_PARAMETER_FILTER, filter).build();
+                    try (Cursor c = mContext.getContentResolver().query(uri, null, null, null, null)) {
+                        readAll(c);
+                    }
+                }
+                return filters.length;
+            }
+        });
+    }
+
+    @Test
+    public void probeHeaders() throws IOException {
+        int serial = 1;
+        measureHeaderProbe("header_probe_mp3_cbr", "cbr.mp3", AudioFixtures.concat(AudioFixtures.id3v2Tag(3000),
+                AudioFixtures.mp3Frames(1000), AudioFixtures.id3v1Tag()));
+        measureHeaderProbe("header_probe_mp3_vbr", "vbr.mp3", AudioFixtures.concat(AudioFixtures.id3v2Tag(100),
+                AudioFixtures.xingFrame("Xing", 5000), AudioFixtures.mp3Frames(10)));
+        // The movie header after the media data, as written by most encoders of audio books
+        measureHeaderProbe("header_probe_mp4", "book.m4b", AudioFixtures.mp4(44100, 44100L * 3600, 0, true));
+        measureHeaderProbe("header_probe_flac", "book.flac", AudioFixtures.flac(44100, 2, 16, 44100L * 3600));
+        measureHeaderProbe("header_probe_ogg", "book.ogg", AudioFixtures.concat(
+                AudioFixtures.oggPage(serial, 0, 0, AudioFixtures.vorbisIdentification(44100)),
+                AudioFixtures.oggPage(serial, 44100L * 1800, 1, new byte[4000]),
+                AudioFixtures.oggPage(serial, 44100L * 3600, 2, new byte[4000])));
+        measureHeaderProbe("header_probe_wav", "book.wav", AudioFixtures.wav(44100, 2, 16, 44100 * 4 * 60, 33));
+    }
+
+    /*
+     * Measure the header probe on a file with the given name and content. Every probe has to be answered from the
+     * header, the fallback is never used.
+     */
+    private void measureHeaderProbe(String name, String fileName, byte[] content) throws IOException {
+        final File file = new File(mFolder.getRoot(), fileName);
+        AudioFixtures.write(file, content);
+        final HeaderMetadataProbe probe = new HeaderMetadataProbe(path -> {
+            throw new AssertionError("Header of " + path + " could not be parsed");
+        });
+        measure(name, new Workload() {
+            @Override
+            int run() {
+                for (int i = 0; i < ROWS_PER_ITERATION; i++) {
+                    assertTrue(probe.getDuration(file.getPath()) > 0);
+                }
+                return ROWS_PER_ITERATION;
+            }
+        });
+    }
+
+    /*
+     * Run the workload and record the median time per operation. Fails if the workload got
+     * slower than its baseline allows.
+     */
+    private void measure(String name, Workload workload) {
+        long[] nanosPerOperation = new long[ITERATIONS];
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            workload.prepare();
+            long startTime = System.nanoTime();
+            int operations = workload.run();
+            long duration = System.nanoTime() - startTime;
+            if (i >= WARMUP_ITERATIONS) {
+                nanosPerOperation[i - WARMUP_ITERATIONS] = duration / operations;
+            }
+        }
+        Arrays.sort(nanosPerOperation);
+        long median = nanosPerOperation[ITERATIONS / 2];
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("median_nanos_per_op", median);
+        result.put("min_nanos_per_op", nanosPerOperation[0]);
+        result.put("max_nanos_per_op", nanosPerOperation[ITERATIONS - 1]);
+        result.put("ops_per_second", median > 0 ? 1e9 / median : 0);
+        synchronized (sResults) {
+            sResults.put(name, result);
+        }
+
+        Map<String, Double> baseline = sBaseline.get(name);
+        if (baseline != null && baseline.get("median_nanos_per_op") != null) {
+            double allowed = baseline.get("median_nanos_per_op") * (1 + BENCHMARK_TOLERANCE);
+            if (median > allowed) {
+                fail(String.format(Locale.ROOT, "%s took %d ns per operation, the baseline allows %.0f ns", name, median, allowed));
+            }
+        }
+    }
+
+    /*
+     * Look up the ids of the children of the directory and delete each of them with its own
+     * statement, bottom up
+     */
+    private void deleteRowByRow(long directoryId) {
+        for (long albumId : getIds(AnchorContract.AlbumEntry.TABLE_NAME, AnchorContract.AlbumEntry.COLUMN_DIRECTORY, directoryId)) {
+            for (long audioId : getIds(AnchorContract.AudioEntry.TABLE_NAME, AnchorContract.AudioEntry.COLUMN_ALBUM, albumId)) {
+                for (long bookmarkId : getIds(AnchorContract.BookmarkEntry.TABLE_NAME, AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE, audioId)) {
+                    deleteById(AnchorContract.BookmarkEntry.TABLE_NAME, bookmarkId);
+                }
+                deleteById(AnchorContract.AudioEntry.TABLE_NAME, audioId);
+            }
+            deleteById(AnchorContract.AlbumEntry.TABLE_NAME, albumId);
+        }
+        deleteById(AnchorContract.DirectoryEntry.TABLE_NAME, directoryId);
+    }
+
+    private List<Long> getIds(String table, String parentColumn, long parentId) {
+        List<Long> ids = new ArrayList<>();
+        try (Cursor c = mDb.query(table, new String[]{"_id"}, parentColumn + "=?", new String[]{Long.toString(parentId)}, null, null, null)) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        }
+        return ids;
+    }
+
+    private void deleteById(String table, long id) {
+        mDb.delete(table, "_id=?", new String[]{Long.toString(id)});
+    }
+
+    private static void readAll(Cursor c) {
+        while (c.moveToNext()) {
+            for (int i = 0; i < c.getColumnCount(); i++) {
+                c.getString(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Full text search over a library of 50000 tracks: titles that start with the search text come
+ * first, then shorter titles, and large results are limited. The search latency is measured by
+ * ProviderBenchmark.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class SearchTest {
+
+    // 500 albums of 100 tracks
+    private static final SyntheticLibrary LIBRARY = new SyntheticLibrary(1, 500, 100, 0);
+
+    private Context mContext;
+    private long mRankingAlbumId;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        SQLiteDatabase db = AnchorDbHelper.getInstance(mContext).getWritableDatabase();
+        LIBRARY.insertInto(db);
+
+        // A word that does not occur in the synthetic titles, in several positions
+        ContentValues values = new ContentValues();
+        values.put(AnchorContract.AlbumEntry.COLUMN_TITLE, "Zephyr");
+        values.put(AnchorContract.AlbumEntry.COLUMN_DIRECTORY, 1);
+        mRankingAlbumId = db.insertOrThrow(AnchorContract.AlbumEntry.TABLE_NAME, null, values);
+        for (String title : new String[]{"The zephyr returns.mp3", "Zephyr rising.mp3", "zephyr and the long road.mp3",
+                "Zephyr.mp3", "Before the zephyrs.mp3"}) {
+            values.clear();
+            values.put(AnchorContract.AudioEntry.COLUMN_TITLE, title);
+            values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, mRankingAlbumId);
+            db.insertOrThrow(AnchorContract.AudioEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void prefixMatchesComeFirstThenShorterTitles() {
+        List<String> expected = Arrays.asList("Zephyr", "Zephyr.mp3", "Zephyr rising.mp3",
+                "zephyr and the long road.mp3", "Before the zephyrs.mp3", "The zephyr returns.mp3");
+        assertEquals(expected, getTitles(search("zephyr", null)));
+        // Every word of the search text is the prefix of a word in the title
+        assertEquals(expected, getTitles(search("ZEPH", null)));
+        assertEquals(Collections.singletonList("Zephyr rising.mp3"), getTitles(search("ris zep", null)));
+    }
+
+    @Test
+    public void largeResult_isLimitedAndRanked() {
+        // "Track 1" matches every track whose number starts with 1, far more than the limit
+        try (Cursor c = search("Track 1", "500")) {
+            assertEquals(500, c.getCount());
+            assertRanked(c, "Track 1");
+        }
+        try (Cursor c = search("winter", null)) {
+            assertEquals(100, c.getCount());
+            assertRanked(c, "winter");
+        }
+    }
+
+    @Test
+    public void resultsPointToTheirAlbumAndTrack() {
+        try (Cursor c = search("zephyr rising", null)) {
+            assertTrue(c.moveToFirst());
+            assertEquals(AnchorContract.SearchEntry.TYPE_AUDIO_FILE, c.getInt(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_TYPE)));
+            assertEquals(mRankingAlbumId, c.getLong(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_ALBUM)));
+            assertEquals("Zephyr", c.getString(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_SUBTITLE)));
+            assertFalse(c.moveToNext());
+        }
+    }
+
+    private Cursor search(String filter, String limit) {
+        Uri.Builder builder = AnchorContract.SearchEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(AnchorContract.SearchEntry.QUERY_PARAMETER_FILTER, filter);
+        if (limit != null) {
+            builder.appendQueryParameter(AnchorContract.SearchEntry.QUERY_PARAMETER_LIMIT, limit);
+        }
+        return mContext.getContentResolver().query(builder.build(), null, null, null, null);
+    }
+
+    private static List<String> getTitles(Cursor c) {
+        List<String> titles = new ArrayList<>();
+        try {
+            while (c.moveToNext()) {
+                titles.add(c.getString(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_TITLE)));
+            }
+        } finally {
+            c.close();
+        }
+        return titles;
+    }
+
+    /*
+     * Check that titles starting with the filter come first and that titles get longer within
+     * both groups
+     */
+    private static void assertRanked(Cursor c, String filter) {
+        String prefix = filter.toLowerCase(Locale.ROOT);
+        boolean previousPrefixMatch = true;
+        int previousLength = 0;
+        c.moveToPosition(-1);
+        while (c.moveToNext()) {
+            String title = c.getString(c.getColumnIndexOrThrow(AnchorContract.SearchEntry.COLUMN_TITLE));
+            boolean prefixMatch = title.toLowerCase(Locale.ROOT).startsWith(prefix);
+            if (prefixMatch != previousPrefixMatch) {
+                assertTrue("Prefix match after other titles: " + title, previousPrefixMatch);
+                previousPrefixMatch = false;
+                previousLength = 0;
+            }
+            assertTrue("Shorter title after longer ones: " + title, title.length() >= previousLength);
+            previousLength = title.length();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Locale;
+
+/**
+ * Fills a database with a synthetic library of directories, albums, tracks and bookmarks. Rows
+ * are inserted directly into the tables in a single transaction, so that large libraries can be
+ * created quickly. The triggers of the database keep the album progress and the search index
+ * up to date as usual.
+ */
+
+class SyntheticLibrary {
+
+    // Words of the generated titles, so that the full text search has something to rank
+    private static final String[] WORDS = {"night", "river", "chapter", "winter", "storm",
+            "silent", "garden", "stone", "letters", "voyage", "shadow", "harbour"};
+
+    final int mDirectories;
+    final int mAlbumsPerDirectory;
+    final int mTracksPerAlbum;
+    final int mBookmarksPerTrack;
+
+    SyntheticLibrary(int directories, int albumsPerDirectory, int tracksPerAlbum, int bookmarksPerTrack) {
+        mDirectories = directories;
+        mAlbumsPerDirectory = albumsPerDirectory;
+        mTracksPerAlbum = tracksPerAlbum;
+        mBookmarksPerTrack = bookmarksPerTrack;
+    }
+
+    int getAlbumCount() {
+        return mDirectories * mAlbumsPerDirectory;
+    }
+
+    int getTrackCount() {
+        return getAlbumCount() * mTracksPerAlbum;
+    }
+
+    int getBookmarkCount() {
+        return getTrackCount() * mBookmarksPerTrack;
+    }
+
+    /*
+     * Insert the library. Ids are assigned in insertion order starting at 1, so the ids of the
+     * n-th directory, album or track are known to the caller.
+     */
+    void insertInto(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            int albumNumber = 0;
+            int trackNumber = 0;
+            for (int d = 1; d <= mDirectories; d++) {
+                values.clear();
+                values.put(AnchorContract.DirectoryEntry.COLUMN_PATH, "/storage/library" + d);
+                values.put(AnchorContract.DirectoryEntry.COLUMN_TYPE, 0);
+                long directoryId = db.insertOrThrow(AnchorContract.DirectoryEntry.TABLE_NAME, null, values);
+
+                for (int a = 0; a < mAlbumsPerDirectory; a++) {
+                    albumNumber++;
+                    values.clear();
+                    values.put(AnchorContract.AlbumEntry.COLUMN_TITLE, getTitle("Album", albumNumber));
+                    values.put(AnchorContract.AlbumEntry.COLUMN_DIRECTORY, directoryId);
+                    values.put(AnchorContract.AlbumEntry.COLUMN_COVER_PATH, "cover.jpg");
+                    long albumId = db.insertOrThrow(AnchorContract.AlbumEntry.TABLE_NAME, null, values);
+
+                    for (int t = 1; t <= mTracksPerAlbum; t++) {
+                        trackNumber++;
+                        values.clear();
+                        values.put(AnchorContract.AudioEntry.COLUMN_TITLE, String.format(Locale.ROOT, "%03d %s.mp3", t, getTitle("Track", trackNumber)));
+                        values.put(AnchorContract.AudioEntry.COLUMN_ALBUM, albumId);
+                        values.put(AnchorContract.AudioEntry.COLUMN_TIME, 60000 + trackNumber % 1000);
+                        values.put(AnchorContract.AudioEntry.COLUMN_COMPLETED_TIME, trackNumber % 3 == 0 ? 60000 + trackNumber % 1000 : 0);
+                        long audioId = db.insertOrThrow(AnchorContract.AudioEntry.TABLE_NAME, null, values);
+
+                        for (int b = 1; b <= mBookmarksPerTrack; b++) {
+                            values.clear();
+                            values.put(AnchorContract.BookmarkEntry.COLUMN_TITLE, getTitle("Bookmark", b));
+                            values.put(AnchorContract.BookmarkEntry.COLUMN_POSITION, b * 1000);
+                            values.put(AnchorContract.BookmarkEntry.COLUMN_AUDIO_FILE, audioId);
+                            db.insertOrThrow(AnchorContract.BookmarkEntry.TABLE_NAME, null, values);
+                        }
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /*
+     * Title made of two words that depend on the number, e.g. "Album 12 winter storm"
+     */
+    static String getTitle(String prefix, int number) {
+        return prefix + " " + number + " " + WORDS[number % WORDS.length] + " " + WORDS[(number / WORDS.length) % WORDS.length];
+    }
+}
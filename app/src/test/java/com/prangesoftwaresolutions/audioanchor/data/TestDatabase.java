@@ -0,0 +1,19 @@
+package com.prangesoftwaresolutions.audioanchor.data;
+
+import com.prangesoftwaresolutions.audioanchor.models.EntityCache;
+
+/**
+ * Resets the shared database state between tests of other packages. Each test gets its own
+ * application context, so the shared AnchorDbHelper and the cached entities must not outlive it.
+ */
+
+public final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    public static void reset() {
+        AnchorDbHelper.resetInstance();
+        EntityCache.clear();
+    }
+}
@@ -0,0 +1,214 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds synthetic audio files whose headers describe a known duration. The audio data itself is
+ * silence or zeros, only the container structure is valid. Also used by the header probe
+ * benchmarks of ProviderBenchmark.
+ */
+
+public class AudioFixtures {
+
+    // MPEG 1 layer III, 128 kbit/s, 44.1 kHz, stereo, no padding: 417 bytes per frame
+    public static final byte[] MP3_FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+    public static final int MP3_FRAME_LENGTH = 417;
+    public static final int MP3_SAMPLES_PER_FRAME = 1152;
+    public static final int MP3_SAMPLE_RATE = 44100;
+    public static final int MP3_BITRATE = 128;
+
+    private AudioFixtures() {
+    }
+
+    public static void write(File file, byte[] content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    /*
+     * ID3v2.4 tag with the given number of padding bytes
+     */
+    public static byte[] id3v2Tag(int size) {
+        ByteBuffer tag = ByteBuffer.allocate(10 + size);
+        tag.put("ID3".getBytes(StandardCharsets.US_ASCII));
+        tag.put((byte) 4).put((byte) 0).put((byte) 0);
+        // Synchsafe size
+        tag.put((byte) ((size >> 21) & 0x7F)).put((byte) ((size >> 14) & 0x7F))
+                .put((byte) ((size >> 7) & 0x7F)).put((byte) (size & 0x7F));
+        return tag.array();
+    }
+
+    public static byte[] id3v1Tag() {
+        byte[] tag = new byte[128];
+        System.arraycopy("TAG".getBytes(StandardCharsets.US_ASCII), 0, tag, 0, 3);
+        return tag;
+    }
+
+    public static byte[] mp3Frames(int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            out.write(mp3Frame(), 0, MP3_FRAME_LENGTH);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] mp3Frame() {
+        byte[] frame = new byte[MP3_FRAME_LENGTH];
+        System.arraycopy(MP3_FRAME_HEADER, 0, frame, 0, 4);
+        return frame;
+    }
+
+    /*
+     * First frame of a VBR file with a Xing header that announces the given number of frames.
+     * For MPEG 1 stereo the header follows 32 bytes of side information.
+     */
+    public static byte[] xingFrame(String tag, int frameCount) {
+        byte[] frame = mp3Frame();
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.position(4 + 32);
+        buffer.put(tag.getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(0x01);
+        buffer.putInt(frameCount);
+        return frame;
+    }
+
+    /*
+     * First frame of a VBR file with a VBRI header, which is always 32 bytes after the frame header
+     */
+    public static byte[] vbriFrame(int frameCount) {
+        byte[] frame = mp3Frame();
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.position(4 + 32);
+        buffer.put("VBRI".getBytes(StandardCharsets.US_ASCII));
+        // Version, delay, quality, byte count, frame count
+        buffer.putShort((short) 1).putShort((short) 0).putShort((short) 75);
+        buffer.putInt(0);
+        buffer.putInt(frameCount);
+        return frame;
+    }
+
+    public static byte[] mp4Box(String type, byte[]... children) {
+        int size = 8;
+        for (byte[] child : children) {
+            size += child.length;
+        }
+        ByteBuffer box = ByteBuffer.allocate(size);
+        box.putInt(size);
+        box.put(type.getBytes(StandardCharsets.US_ASCII));
+        for (byte[] child : children) {
+            box.put(child);
+        }
+        return box.array();
+    }
+
+    /*
+     * Movie header box of version 0 with 32 bit times or version 1 with 64 bit times
+     */
+    public static byte[] mvhd(int version, long timescale, long duration) {
+        ByteBuffer content = ByteBuffer.allocate(version == 1 ? 112 : 100);
+        content.putInt(version << 24);
+        if (version == 1) {
+            content.putLong(0).putLong(0);
+            content.putInt((int) timescale);
+            content.putLong(duration);
+        } else {
+            content.putInt(0).putInt(0);
+            content.putInt((int) timescale);
+            content.putInt((int) duration);
+        }
+        return mp4Box("mvhd", content.array());
+    }
+
+    public static byte[] mp4(long timescale, long duration, int version, boolean moovAtEnd) {
+        byte[] ftyp = mp4Box("ftyp", "M4A \u0000\u0000\u0000\u0000isom".getBytes(StandardCharsets.US_ASCII));
+        byte[] moov = mp4Box("moov", mp4Box("free", new byte[24]), mvhd(version, timescale, duration));
+        byte[] mdat = mp4Box("mdat", new byte[4096]);
+        return moovAtEnd ? concat(ftyp, mdat, moov) : concat(ftyp, moov, mdat);
+    }
+
+    public static byte[] flac(int sampleRate, int channels, int bitsPerSample, long totalSamples) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 34 + 1024);
+        buffer.put("fLaC".getBytes(StandardCharsets.US_ASCII));
+        // Last metadata block, type STREAMINFO, 34 bytes
+        buffer.put((byte) 0x80).put((byte) 0).put((byte) 0).put((byte) 34);
+        // Block sizes and frame sizes
+        buffer.putShort((short) 4096).putShort((short) 4096);
+        buffer.put(new byte[6]);
+        buffer.putLong((long) sampleRate << 44 | (long) (channels - 1) << 41 | (long) (bitsPerSample - 1) << 36 | totalSamples);
+        // MD5 signature and frames
+        return buffer.array();
+    }
+
+    public static byte[] oggPage(int serial, long granule, int sequence, byte[] packet) {
+        ByteBuffer page = ByteBuffer.allocate(27 + 1 + packet.length).order(ByteOrder.LITTLE_ENDIAN);
+        page.put("OggS".getBytes(StandardCharsets.US_ASCII));
+        page.put((byte) 0).put((byte) (sequence == 0 ? 0x02 : 0x00));
+        page.putLong(granule);
+        page.putInt(serial);
+        page.putInt(sequence);
+        page.putInt(0);
+        // One segment, packets of the fixtures are shorter than 255 bytes
+        page.put((byte) 1).put((byte) packet.length);
+        page.put(packet);
+        return page.array();
+    }
+
+    public static byte[] vorbisIdentification(int sampleRate) {
+        ByteBuffer packet = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        packet.put((byte) 1).put("vorbis".getBytes(StandardCharsets.US_ASCII));
+        packet.putInt(0);
+        packet.put((byte) 2);
+        packet.putInt(sampleRate);
+        return packet.array();
+    }
+
+    public static byte[] opusHead(int preSkip) {
+        ByteBuffer packet = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        packet.put("OpusHead".getBytes(StandardCharsets.US_ASCII));
+        packet.put((byte) 1).put((byte) 2);
+        packet.putShort((short) preSkip);
+        packet.putInt(44100);
+        return packet.array();
+    }
+
+    /*
+     * PCM WAV file with an optional chunk of the given size between the format and the data chunk
+     */
+    public static byte[] wav(int sampleRate, int channels, int bitsPerSample, int dataSize, int extraChunkSize) {
+        int blockAlign = channels * bitsPerSample / 8;
+        ByteBuffer fmt = ByteBuffer.allocate(8 + 16).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16);
+        fmt.putShort((short) 1).putShort((short) channels).putInt(sampleRate).putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign).putShort((short) bitsPerSample);
+
+        byte[] extra = new byte[0];
+        if (extraChunkSize > 0) {
+            ByteBuffer list = ByteBuffer.allocate(8 + extraChunkSize + (extraChunkSize & 1)).order(ByteOrder.LITTLE_ENDIAN);
+            list.put("LIST".getBytes(StandardCharsets.US_ASCII)).putInt(extraChunkSize);
+            extra = list.array();
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(8 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        data.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(dataSize);
+
+        byte[] chunks = concat(fmt.array(), extra, data.array());
+        ByteBuffer riff = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        riff.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(4 + chunks.length).put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        return concat(riff.array(), chunks);
+    }
+
+    public static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A single listing of a directory that provides the audio files, images and subdirectories which
+ * are passed to the SyncDiff.
+ */
+
+public class DirectoryListingTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = mFolder.newFolder("album");
+        for (String name : new String[]{"01 Intro.mp3", "02 Chapter.m4b", ".hidden.ogg", "cover.jpg", "notes.txt", "playlist.m3u"}) {
+            assertTrue(new File(mDir, name).createNewFile());
+        }
+        assertTrue(new File(mDir, "CD 1").mkdir());
+        assertTrue(new File(mDir, ".thumbnails").mkdir());
+    }
+
+    @Test
+    public void entriesAreClassifiedByExtension() {
+        DirectoryListing listing = new DirectoryListing(mDir, false, false);
+
+        assertEquals(Arrays.asList("01 Intro.mp3", "02 Chapter.m4b"), sorted(listing.getAudioFiles()));
+        assertEquals(Collections.singletonList("cover.jpg"), listing.getImages());
+        // Subdirectories are only listed on request
+        assertEquals(Collections.emptyList(), listing.getSubdirectories());
+        // Every entry is counted, including the ones that are left out
+        assertEquals(8, listing.getEntryCount());
+        assertEquals(mDir.lastModified(), listing.getLastModified());
+    }
+
+    @Test
+    public void hiddenEntries_areOnlyListedIfShown() {
+        DirectoryListing listing = new DirectoryListing(mDir, false, true);
+        assertEquals(Collections.singletonList("CD 1"), listing.getSubdirectories());
+
+        listing = new DirectoryListing(mDir, true, true);
+        assertEquals(Arrays.asList(".hidden.ogg", "01 Intro.mp3", "02 Chapter.m4b"), sorted(listing.getAudioFiles()));
+        assertEquals(Arrays.asList(".thumbnails", "CD 1"), sorted(listing.getSubdirectories()));
+    }
+
+    @Test
+    public void missingDirectory_hasNoEntries() {
+        DirectoryListing listing = new DirectoryListing(new File(mDir, "missing"), false, true);
+
+        assertEquals(-1, listing.getEntryCount());
+        assertEquals(0, listing.getLastModified());
+        assertEquals(Collections.emptyList(), listing.getAudioFiles());
+        assertEquals(Collections.emptyList(), listing.getSubdirectories());
+    }
+
+    @Test
+    public void extensions() {
+        assertTrue(DirectoryListing.isAudioFile("book.opus"));
+        assertTrue(DirectoryListing.isAudioFile("name.with.dots.flac"));
+        assertFalse(DirectoryListing.isAudioFile("mp3"));
+        assertFalse(DirectoryListing.isAudioFile("cover.jpg"));
+        assertTrue(DirectoryListing.isImage("folder.webp"));
+        assertFalse(DirectoryListing.isImage("image.gif"));
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> copy = new ArrayList<>(names);
+        Collections.sort(copy, SyncDiff.CODE_POINT_ORDER);
+        return copy;
+    }
+}
@@ -0,0 +1,154 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Durations read from synthetic files of every supported container. The expected durations are
+ * computed from the number of frames or samples in the fixture; WAV files are also compared with
+ * the reader of javax.sound, which decodes the same headers independently. Files that cannot be
+ * parsed have to reach the fallback probe.
+ */
+
+public class HeaderMetadataProbeTest {
+
+    private static final int FALLBACK_DURATION = 4242;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<String> mFallbackPaths = Collections.synchronizedList(new ArrayList<String>());
+    private HeaderMetadataProbe mProbe;
+
+    @Before
+    public void setUp() {
+        mProbe = new HeaderMetadataProbe(path -> {
+            mFallbackPaths.add(path);
+            return FALLBACK_DURATION;
+        });
+    }
+
+    @Test
+    public void mp3ConstantBitrate_durationFromAudioSize() throws Exception {
+        int frames = 1000;
+        // The estimate from the bitrate ignores the fractional byte of every frame
+        long exact = (long) frames * AudioFixtures.MP3_SAMPLES_PER_FRAME * 1000 / AudioFixtures.MP3_SAMPLE_RATE;
+        long estimate = (long) frames * AudioFixtures.MP3_FRAME_LENGTH * 8 / AudioFixtures.MP3_BITRATE;
+
+        assertEquals(estimate, probe("cbr.mp3", AudioFixtures.mp3Frames(frames)));
+        assertEquals(exact, estimate, exact * 0.01);
+        // Tags at the beginning and the end are not part of the audio data
+        assertEquals(estimate, probe("tagged.mp3", AudioFixtures.concat(AudioFixtures.id3v2Tag(3000),
+                AudioFixtures.mp3Frames(frames), AudioFixtures.id3v1Tag())));
+        assertEquals(Collections.emptyList(), mFallbackPaths);
+    }
+
+    @Test
+    public void mp3FalseSync_isSkipped() throws Exception {
+        // A valid looking header that is not followed by another frame, e.g. in album art
+        byte[] garbage = AudioFixtures.concat(AudioFixtures.MP3_FRAME_HEADER, new byte[100]);
+        byte[] file = AudioFixtures.concat(AudioFixtures.id3v2Tag(0), garbage, AudioFixtures.mp3Frames(500));
+
+        assertEquals(500L * AudioFixtures.MP3_FRAME_LENGTH * 8 / AudioFixtures.MP3_BITRATE, probe("sync.mp3", file));
+    }
+
+    @Test
+    public void mp3VariableBitrate_durationFromFrameCount() throws Exception {
+        int frames = 5000;
+        long expected = (long) frames * AudioFixtures.MP3_SAMPLES_PER_FRAME * 1000 / AudioFixtures.MP3_SAMPLE_RATE;
+
+        // The file only contains a few frames, the duration has to come from the VBR header
+        assertEquals(expected, probe("xing.mp3", AudioFixtures.concat(AudioFixtures.id3v2Tag(100),
+                AudioFixtures.xingFrame("Xing", frames), AudioFixtures.mp3Frames(10))));
+        assertEquals(expected, probe("info.mp3", AudioFixtures.concat(AudioFixtures.xingFrame("Info", frames),
+                AudioFixtures.mp3Frames(10))));
+        assertEquals(expected, probe("vbri.mp3", AudioFixtures.concat(AudioFixtures.vbriFrame(frames),
+                AudioFixtures.mp3Frames(10))));
+    }
+
+    @Test
+    public void mp4_durationFromMovieHeader() throws Exception {
+        assertEquals(3723000, probe("start.m4b", AudioFixtures.mp4(44100, 44100L * 3723, 0, false)));
+        assertEquals(3723000, probe("end.m4a", AudioFixtures.mp4(44100, 44100L * 3723, 0, true)));
+        // Version 1 headers are used for durations that do not fit into 32 bits
+        assertEquals(36000000, probe("long.m4b", AudioFixtures.mp4(1000000, 1000000L * 36000, 1, true)));
+        assertEquals(Collections.emptyList(), mFallbackPaths);
+    }
+
+    @Test
+    public void flac_durationFromStreamInfo() throws Exception {
+        assertEquals(600000, probe("plain.flac", AudioFixtures.flac(96000, 2, 24, 96000L * 600)));
+        // Total sample counts above 32 bits
+        long samples = 0x1_0000_0000L + 12345;
+        assertEquals(samples * 1000 / 192000, probe("tagged.flac", AudioFixtures.concat(AudioFixtures.id3v2Tag(200),
+                AudioFixtures.flac(192000, 2, 24, samples))));
+    }
+
+    @Test
+    public void ogg_durationFromLastGranulePosition() throws Exception {
+        int serial = 0x1234;
+        byte[] vorbis = AudioFixtures.concat(
+                AudioFixtures.oggPage(serial, 0, 0, AudioFixtures.vorbisIdentification(44100)),
+                AudioFixtures.oggPage(serial, 44100L * 100, 1, new byte[200]),
+                AudioFixtures.oggPage(serial, 44100L * 250, 2, new byte[200]),
+                // Page of another logical stream after the last page of the audio stream
+                AudioFixtures.oggPage(0x9999, 44100L * 9999, 0, new byte[20]));
+        assertEquals(250000, probe("book.ogg", vorbis));
+
+        // Opus always counts at 48 kHz and the pre-skip is not part of the audio
+        byte[] opus = AudioFixtures.concat(
+                AudioFixtures.oggPage(serial, 0, 0, AudioFixtures.opusHead(312)),
+                AudioFixtures.oggPage(serial, 48000L * 60 + 312, 1, new byte[100]));
+        assertEquals(60000, probe("book.opus", opus));
+    }
+
+    @Test
+    public void wav_matchesJavaSoundReader() throws Exception {
+        int[][] formats = {{44100, 2, 16}, {22050, 1, 8}, {48000, 2, 24}};
+        for (int[] format : formats) {
+            int blockAlign = format[1] * format[2] / 8;
+            int dataSize = format[0] * blockAlign * 3 + blockAlign * 17;
+            File file = mFolder.newFile("pcm" + format[0] + "_" + format[2] + ".wav");
+            AudioFixtures.write(file, AudioFixtures.wav(format[0], format[1], format[2], dataSize, 0));
+
+            AudioFileFormat reference = AudioSystem.getAudioFileFormat(file);
+            long referenceDuration = (long) (reference.getFrameLength() * 1000L / reference.getFormat().getFrameRate());
+            assertEquals(file.getName(), referenceDuration, mProbe.getDuration(file.getPath()));
+        }
+    }
+
+    @Test
+    public void wav_skipsOtherChunks() throws Exception {
+        // 2 seconds of 16 bit stereo at 44.1 kHz after a chunk of odd size
+        assertEquals(2000, probe("list.wav", AudioFixtures.wav(44100, 2, 16, 44100 * 4 * 2, 33)));
+    }
+
+    @Test
+    public void unparsableFiles_useFallback() throws Exception {
+        assertEquals(FALLBACK_DURATION, probe("noise.mp3", new byte[8192]));
+        assertEquals(FALLBACK_DURATION, probe("truncated.m4a", AudioFixtures.mp4Box("ftyp", new byte[8])));
+        assertEquals(FALLBACK_DURATION, probe("empty.flac", new byte[0]));
+        assertEquals(FALLBACK_DURATION, probe("video.ogg", AudioFixtures.oggPage(1, 1000, 0, new byte[40])));
+        assertEquals(FALLBACK_DURATION, probe("stream.wav", AudioFixtures.wav(0, 0, 16, 100, 0)));
+        assertEquals(FALLBACK_DURATION, probe("other.wma", AudioFixtures.mp3Frames(10)));
+        assertEquals(6, mFallbackPaths.size());
+    }
+
+    private long probe(String name, byte[] content) throws Exception {
+        File file = new File(mFolder.getRoot(), name);
+        AudioFixtures.write(file, content);
+        return mProbe.getDuration(file.getPath());
+    }
+}
@@ -0,0 +1,117 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The prober runs a fake probe on its pool: durations have to come back in the order of the
+ * paths even if the probes finish in another order, failed probes count as unknown duration and
+ * an interrupted sync must not leave probes running.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class MetadataProberTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void durations_areInOrderOfPaths() throws Exception {
+        // Earlier paths take longer, so they finish last
+        MetadataProber prober = new MetadataProber(path -> {
+            int duration = Integer.parseInt(path);
+            sleep(10 - duration);
+            return duration * 1000;
+        }, 4);
+
+        List<String> paths = Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8");
+        assertArrayEquals(new int[]{1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000}, prober.getDurations(paths));
+        assertArrayEquals(new int[0], prober.getDurations(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void failingProbe_givesZero() throws Exception {
+        MetadataProber prober = new MetadataProber(path -> {
+            if (path.startsWith("broken")) {
+                throw new IllegalStateException("Cannot read " + path);
+            }
+            return 42;
+        }, 2);
+
+        assertArrayEquals(new int[]{42, 0, 42, 0}, prober.getDurations(Arrays.asList("a", "broken1", "b", "broken2")));
+    }
+
+    @Test
+    public void probes_runInParallel() throws Exception {
+        final int threads = 4;
+        // Every probe waits until all threads are probing at the same time
+        final CountDownLatch allRunning = new CountDownLatch(threads);
+        MetadataProber prober = new MetadataProber(path -> {
+            allRunning.countDown();
+            try {
+                return allRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) ? 1 : 0;
+            } catch (InterruptedException e) {
+                return 0;
+            }
+        }, threads);
+
+        assertArrayEquals(new int[]{1, 1, 1, 1}, prober.getDurations(Arrays.asList("a", "b", "c", "d")));
+    }
+
+    @Test
+    public void interrupt_cancelsPendingProbes() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch firstInterrupted = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        // A single thread, so all but the first probe are still pending when the caller is interrupted
+        final MetadataProber prober = new MetadataProber(path -> {
+            started.incrementAndGet();
+            firstStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS * 2));
+            } catch (InterruptedException e) {
+                firstInterrupted.countDown();
+            }
+            return 1;
+        }, 1);
+
+        final AtomicReference<Throwable> result = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                prober.getDurations(Arrays.asList("a", "b", "c", "d", "e"));
+            } catch (Throwable e) {
+                result.set(e);
+            }
+        });
+        caller.start();
+        assertTrue(firstStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertTrue(String.valueOf(result.get()), result.get() instanceof InterruptedException);
+        // The running probe is interrupted and the pending ones never start
+        assertTrue(firstInterrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        sleep(50);
+        assertEquals(1, started.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.prangesoftwaresolutions.audioanchor.helpers;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The merge join of a listing with the existing entries has to report every name exactly once
+ * as inserted, kept or deleted, in code point order. The order of the entries comes from SQLite,
+ * so the code point order must match the BINARY collation of the database. Handlers are called
+ * while the entries are positioned on the entry they refer to.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class SyncDiffTest {
+
+    // Names with digits, case differences, accents, characters above U+E000 and emoji
+    private static final String[] NAMES = {"01 Intro.mp3", "1 Intro.mp3", "10 Chapter.mp3", "2 Chapter.mp3",
+            "Chapter.mp3", "chapter.mp3", "Éclair.mp3", "Ecole.mp3", "\uE000 private.mp3", "Ａ wide.mp3",
+            "🎵 music.mp3", "😀 smile.mp3", "Z.mp3", "_hidden.mp3"};
+
+    /*
+     * Records the calls of the handler as "+name", "=name" and "-name"
+     */
+    private static class RecordingHandler implements SyncDiff.Handler {
+        final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onInsert(String name) {
+            mEvents.add("+" + name);
+        }
+
+        @Override
+        public void onKeep(String name) {
+            mEvents.add("=" + name);
+        }
+
+        @Override
+        public void onDelete(String name) {
+            mEvents.add("-" + name);
+        }
+    }
+
+    private static class ListEntries implements SyncDiff.Entries {
+        private final List<String> mNames;
+        private int mPosition = -1;
+
+        ListEntries(List<String> names) {
+            mNames = names;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return ++mPosition < mNames.size();
+        }
+
+        @Override
+        public String getName() {
+            return mNames.get(mPosition);
+        }
+    }
+
+    @Test
+    public void emptySides() {
+        assertEquals(Collections.emptyList(), diff(new String[0], Collections.<String>emptyList()));
+        assertEquals(Arrays.asList("+a", "+b"), diff(new String[]{"b", "a"}, Collections.<String>emptyList()));
+        assertEquals(Arrays.asList("-a", "-b"), diff(new String[0], Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void mixedChanges_areReportedInOrder() {
+        assertEquals(Arrays.asList("+a", "=b", "-c", "=d", "+e", "-f", "+g"),
+                diff(new String[]{"g", "e", "d", "b", "a"}, Arrays.asList("b", "c", "d", "f")));
+    }
+
+    @Test
+    public void duplicateEntries_ofExistingNameAreKept() {
+        assertEquals(Arrays.asList("=a", "=a", "-b", "-b", "=c"),
+                diff(new String[]{"a", "c"}, Arrays.asList("a", "a", "b", "b", "c")));
+    }
+
+    @Test
+    public void keepAndDelete_areCalledOnTheirEntry() {
+        final ListEntries entries = new ListEntries(Arrays.asList("a", "b", "b", "d"));
+        final List<String> events = new ArrayList<>();
+        String[] names = {"c", "b", "a"};
+        // Handlers update the entry the cursor is positioned on, e.g. to read its id
+        SyncDiff.diff(names, entries, new SyncDiff.Handler() {
+            @Override
+            public void onInsert(String name) {
+                events.add("+" + name);
+            }
+
+            @Override
+            public void onKeep(String name) {
+                events.add("=" + name + "@" + entries.getName());
+            }
+
+            @Override
+            public void onDelete(String name) {
+                events.add("-" + name + "@" + entries.getName());
+            }
+        });
+
+        assertEquals(Arrays.asList("=a@a", "=b@b", "=b@b", "+c", "-d@d"), events);
+        // The listing is sorted in place
+        assertArrayEquals(new String[]{"a", "b", "c"}, names);
+    }
+
+    @Test
+    public void supplementaryCharacters_sortAfterAllOtherCharacters() {
+        String emoji = "🎵";
+        String privateUse = "\uE000";
+        assertEquals(-1, Integer.signum(SyncDiff.compareCodePoints(privateUse, emoji)));
+        assertEquals(1, Integer.signum(SyncDiff.compareCodePoints(emoji, "\uFFFD")));
+        assertEquals(-1, Integer.signum(SyncDiff.compareCodePoints("a", "ab")));
+        assertEquals(0, SyncDiff.compareCodePoints(emoji, emoji));
+        // A listing with the emoji first has to be merged with entries in code point order
+        assertEquals(Arrays.asList("=" + privateUse, "=" + emoji),
+                diff(new String[]{emoji, privateUse}, Arrays.asList(privateUse, emoji)));
+    }
+
+    @Test
+    public void randomListings_matchSetDifference() {
+        Random random = new Random(21);
+        for (int round = 0; round < 200; round++) {
+            TreeSet<String> listing = new TreeSet<>(SyncDiff.CODE_POINT_ORDER);
+            TreeSet<String> existing = new TreeSet<>(SyncDiff.CODE_POINT_ORDER);
+            for (String name : NAMES) {
+                if (random.nextBoolean()) {
+                    listing.add(name);
+                }
+                if (random.nextBoolean()) {
+                    existing.add(name);
+                }
+            }
+
+            List<String> expected = new ArrayList<>();
+            TreeSet<String> all = new TreeSet<>(SyncDiff.CODE_POINT_ORDER);
+            all.addAll(listing);
+            all.addAll(existing);
+            for (String name : all) {
+                expected.add((!existing.contains(name) ? "+" : listing.contains(name) ? "=" : "-") + name);
+            }
+
+            List<String> names = new ArrayList<>(listing);
+            Collections.shuffle(names, random);
+            assertEquals("Round " + round, expected, diff(names.toArray(new String[0]), new ArrayList<>(existing)));
+        }
+    }
+
+    @Test
+    public void codePointOrder_matchesSqliteOrder() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            db.execSQL("CREATE TABLE names (name TEXT)");
+            ContentValues values = new ContentValues();
+            for (String name : NAMES) {
+                values.put("name", name);
+                db.insert("names", null, values);
+            }
+            List<String> sqliteOrder = new ArrayList<>();
+            try (Cursor c = db.rawQuery("SELECT name FROM names ORDER BY name", null)) {
+                while (c.moveToNext()) {
+                    sqliteOrder.add(c.getString(0));
+                }
+            }
+
+            List<String> codePointOrder = new ArrayList<>(Arrays.asList(NAMES));
+            Collections.sort(codePointOrder, SyncDiff.CODE_POINT_ORDER);
+            assertEquals(codePointOrder, sqliteOrder);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<String> diff(String[] names, List<String> entries) {
+        RecordingHandler handler = new RecordingHandler();
+        SyncDiff.diff(names, new ListEntries(entries), handler);
+        return handler.mEvents;
+    }
+}
@@ -0,0 +1,79 @@
+package com.prangesoftwaresolutions.audioanchor.models;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+import com.prangesoftwaresolutions.audioanchor.data.AnchorProvider;
+import com.prangesoftwaresolutions.audioanchor.data.TestDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Cached albums and directories are handed out as copies and are dropped again when a batch of
+ * writes has been committed.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class EntityCacheTest {
+
+    private Context mContext;
+    private long mAlbumId;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+        EntityCache.clear();
+
+        Directory directory = new Directory("/storage/audiobooks", Directory.Type.PARENT_DIR);
+        directory.insertIntoDB(mContext);
+        Album album = new Album("Album", directory, null);
+        mAlbumId = album.insertIntoDB(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void getAlbumByID_returnsCopies() {
+        Album first = Album.getAlbumByID(mContext, mAlbumId);
+        first.setLastPlayedID(42);
+        first.setDirectory(null);
+
+        Album second = Album.getAlbumByID(mContext, mAlbumId);
+        assertNotSame(first, second);
+        assertEquals(0, second.getLastPlayedID());
+        assertEquals("/storage/audiobooks/Album", second.getPath());
+    }
+
+    @Test
+    public void endOfBatch_dropsAlbumsCachedDuringTheBatch() {
+        mContext.getContentResolver().call(AnchorContract.BASE_CONTENT_URI, AnchorContract.METHOD_BEGIN_BATCH, null, null);
+        ContentValues values = new ContentValues();
+        values.put(AnchorContract.AlbumEntry.COLUMN_LAST_PLAYED, 7);
+        mContext.getContentResolver().update(ContentUris.withAppendedId(AnchorContract.AlbumEntry.CONTENT_URI, mAlbumId), values, null, null);
+
+        // Another thread reads the album before the batch has been committed and caches it
+        Album stale = new Album(mAlbumId, "Album", null, null, 0);
+        EntityCache.putAlbum(stale, EntityCache.getGeneration());
+
+        mContext.getContentResolver().call(AnchorContract.BASE_CONTENT_URI, AnchorContract.METHOD_END_BATCH, null, null);
+        assertNull(EntityCache.getAlbum(mAlbumId));
+        assertEquals(7, Album.getAlbumByID(mContext, mAlbumId).getLastPlayedID());
+    }
+}
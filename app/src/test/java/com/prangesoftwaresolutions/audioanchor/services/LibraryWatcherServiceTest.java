@@ -0,0 +1,76 @@
+package com.prangesoftwaresolutions.audioanchor.services;
+
+import android.content.Context;
+import android.os.Build;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.prangesoftwaresolutions.audioanchor.data.AnchorContract;
+import com.prangesoftwaresolutions.audioanchor.data.AnchorProvider;
+import com.prangesoftwaresolutions.audioanchor.data.TestDatabase;
+import com.prangesoftwaresolutions.audioanchor.models.Directory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The watcher observes parent directories together with their album directories and single
+ * album directories, both with the path constructor of the FileObserver below Android 10 and
+ * with the file constructor from Android 10 on.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P, Build.VERSION_CODES.Q})
+public class LibraryWatcherServiceTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Context mContext;
+    private ServiceController<LibraryWatcherService> mController;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        Robolectric.setupContentProvider(AnchorProvider.class, AnchorContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        if (mController != null) {
+            mController.destroy();
+        }
+        TestDatabase.reset();
+    }
+
+    @Test
+    public void watchesParentAndAlbumDirectories() throws Exception {
+        File parentDir = mFolder.newFolder("library");
+        File firstAlbum = new File(parentDir, "First album");
+        File secondAlbum = new File(parentDir, "Second album");
+        firstAlbum.mkdir();
+        secondAlbum.mkdir();
+        File subDir = mFolder.newFolder("single");
+        new Directory(parentDir.getAbsolutePath(), Directory.Type.PARENT_DIR).insertIntoDB(mContext);
+        new Directory(subDir.getAbsolutePath(), Directory.Type.SUB_DIR).insertIntoDB(mContext);
+
+        mController = Robolectric.buildService(LibraryWatcherService.class).create();
+
+        assertEquals(new HashSet<>(Arrays.asList(parentDir.getAbsolutePath(), firstAlbum.getAbsolutePath(),
+                secondAlbum.getAbsolutePath(), subDir.getAbsolutePath())), mController.get().getWatchedPaths());
+    }
+}
@@ -0,0 +1,138 @@
+package com.prangesoftwaresolutions.audioanchor.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.prangesoftwaresolutions.audioanchor.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Images of single image views are loaded in the background and only the image of the latest
+ * request is set, so the main thread never waits for a cover to be decoded.
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class BitmapUtilsTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private ImageView mImageView;
+
+    @Before
+    public void setUp() {
+        mImageView = new ImageView(ApplicationProvider.getApplicationContext());
+    }
+
+    @Test
+    public void loadImage_doesNotBlockTheCaller() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Bitmap bitmap = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+
+        BitmapUtils.loadImage(mImageView, () -> {
+            release.await();
+            return bitmap;
+        }, 0);
+        // The caller returned while the loader is still waiting
+        assertNull(mImageView.getDrawable());
+
+        release.countDown();
+        awaitRequest();
+        assertSame(bitmap, ((BitmapDrawable) mImageView.getDrawable()).getBitmap());
+    }
+
+    @Test
+    public void laterRequest_supersedesPendingRequest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean secondLoaded = new AtomicBoolean(false);
+        final Bitmap first = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        final Bitmap second = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+
+        BitmapUtils.loadImage(mImageView, () -> {
+            release.await();
+            return first;
+        }, 0);
+        BitmapUtils.loadImage(mImageView, () -> {
+            secondLoaded.set(true);
+            return second;
+        }, 0);
+        release.countDown();
+
+        awaitRequest();
+        assertTrue(secondLoaded.get());
+        assertSame(second, ((BitmapDrawable) mImageView.getDrawable()).getBitmap());
+    }
+
+    @Test
+    public void supersededRequest_isNotLoaded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean supersededLoaded = new AtomicBoolean(false);
+        final Bitmap bitmap = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        ImageView otherView = new ImageView(ApplicationProvider.getApplicationContext());
+
+        // Keep the loading thread busy with another view while the request is superseded
+        BitmapUtils.loadImage(otherView, () -> {
+            release.await();
+            return bitmap;
+        }, 0);
+        BitmapUtils.loadImage(mImageView, () -> {
+            supersededLoaded.set(true);
+            return bitmap;
+        }, 0);
+        BitmapUtils.loadImage(mImageView, () -> bitmap, 0);
+        release.countDown();
+
+        awaitRequest();
+        assertFalse(supersededLoaded.get());
+        assertSame(bitmap, ((BitmapDrawable) mImageView.getDrawable()).getBitmap());
+    }
+
+    @Test
+    public void missingImage_setsFallback() throws Exception {
+        BitmapUtils.loadImage(mImageView, () -> null, R.drawable.empty_cover_grey_blue);
+
+        awaitRequest();
+        Drawable drawable = mImageView.getDrawable();
+        assertEquals(R.drawable.empty_cover_grey_blue, shadowOf(drawable).getCreatedFromResId());
+    }
+
+    @Test
+    public void setImage_keepsImageIfFileDoesNotExist() throws Exception {
+        BitmapUtils.setImage(mImageView, "/storage/missing/cover.jpg", 100);
+
+        awaitRequest();
+        assertNull(mImageView.getDrawable());
+        assertNull(mImageView.getTag());
+    }
+
+    /*
+     * Run the main looper until the pending request of the image view has been handled
+     */
+    private void awaitRequest() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mImageView.getTag() != null) {
+            assertTrue("Image was not loaded in time", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(5);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+    }
+}